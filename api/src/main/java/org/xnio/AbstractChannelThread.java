@@ -43,6 +43,13 @@ public abstract class AbstractChannelThread implements ChannelThread {
 
     private final Set<Listener> listenerSet = new HashSet<Listener>();
 
+    /**
+     * {@inheritDoc}  This implementation enforces no quota.
+     */
+    public boolean consumeQuota(final long bytes) {
+        return true;
+    }
+
     /** {@inheritDoc} */
     public final void shutdown() {
         final Set<Listener> listenerSet = this.listenerSet;
@@ -25,6 +25,7 @@ package org.xnio;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -45,6 +46,12 @@ final class AcceptingSslStreamChannel implements AcceptingChannel<ConnectedSslSt
     private final SSLContext sslContext;
     private final AcceptingChannel<? extends ConnectedStreamChannel> tcpServer;
     private final Executor sslExecutor;
+    private final Pool<ByteBuffer> sendPool;
+    private final Pool<ByteBuffer> receivePool;
+    private final SslHandshakeStatistics handshakeStatistics;
+    private final SslHandshakeThrottle throttle;
+    private final ConnectionChannelThread timeoutThread;
+    private final int handshakeTimeout;
 
     private volatile SslClientAuthMode clientAuthMode;
     private volatile int useClientMode;
@@ -61,9 +68,16 @@ final class AcceptingSslStreamChannel implements AcceptingChannel<ConnectedSslSt
     private final ChannelListener.Setter<AcceptingChannel<ConnectedSslStreamChannel>> closeSetter;
     private final ChannelListener.Setter<AcceptingChannel<ConnectedSslStreamChannel>> acceptSetter;
 
-    AcceptingSslStreamChannel(final SSLContext sslContext, final AcceptingChannel<? extends ConnectedStreamChannel> tcpServer, final Executor executor, final OptionMap optionMap) {
+    AcceptingSslStreamChannel(final SSLContext sslContext, final AcceptingChannel<? extends ConnectedStreamChannel> tcpServer, final ConnectionChannelThread thread, final Executor executor, final Pool<ByteBuffer> sendPool, final Pool<ByteBuffer> receivePool, final SslHandshakeStatistics handshakeStatistics, final OptionMap optionMap) {
         this.tcpServer = tcpServer;
         sslExecutor = executor;
+        this.sendPool = sendPool;
+        this.receivePool = receivePool;
+        this.handshakeStatistics = handshakeStatistics;
+        final int maxHandshakes = optionMap.get(Options.SSL_MAX_CONCURRENT_HANDSHAKES, 0);
+        throttle = maxHandshakes > 0 ? new SslHandshakeThrottle(maxHandshakes, handshakeStatistics) : null;
+        timeoutThread = thread;
+        handshakeTimeout = optionMap.get(Options.SSL_HANDSHAKE_TIMEOUT, 0);
         this.sslContext = sslContext;
         clientAuthMode = optionMap.get(Options.SSL_CLIENT_AUTH_MODE);
         useClientMode = optionMap.get(Options.SSL_USE_CLIENT_MODE, false) ? 1 : 0;
@@ -113,7 +127,7 @@ final class AcceptingSslStreamChannel implements AcceptingChannel<ConnectedSslSt
             return null;
         }
         final InetSocketAddress peerAddress = tcpChannel.getPeerAddress(InetSocketAddress.class);
-        final SSLEngine engine = sslContext.createSSLEngine(peerAddress.getHostName(), peerAddress.getPort());
+        final SSLEngine engine = sslContext.createSSLEngine(Xnio.getHostString(peerAddress), peerAddress.getPort());
         final boolean clientMode = useClientMode != 0;
         engine.setUseClientMode(clientMode);
         if (! clientMode) {
@@ -155,7 +169,14 @@ final class AcceptingSslStreamChannel implements AcceptingChannel<ConnectedSslSt
             }
             engine.setEnabledProtocols(finalList.toArray(new String[finalList.size()]));
         }
-        return new ConnectedSslStreamChannelImpl(tcpChannel, engine, sslExecutor);
+        final ConnectedSslStreamChannelImpl channel = new ConnectedSslStreamChannelImpl(tcpChannel, engine, sslExecutor, sendPool, receivePool, handshakeStatistics, throttle);
+        if (handshakeTimeout > 0) {
+            channel.scheduleHandshakeTimeout(timeoutThread, handshakeTimeout);
+        }
+        if (throttle != null) {
+            throttle.acquire(channel);
+        }
+        return channel;
     }
 
     public ChannelListener.Setter<? extends AcceptingChannel<ConnectedSslStreamChannel>> getCloseSetter() {
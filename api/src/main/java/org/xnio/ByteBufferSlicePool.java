@@ -85,7 +85,7 @@ public final class ByteBufferSlicePool implements Pool<ByteBuffer> {
             final int buffersPerRegion = this.buffersPerRegion;
             final ByteBuffer region = allocator.allocate(buffersPerRegion * bufferSize);
             int idx = bufferSize;
-            for (int i = 1; i <= buffersPerRegion; i ++) {
+            for (int i = 1; i < buffersPerRegion; i ++) {
                 sliceQueue.add(new Slice(region, idx, bufferSize));
                 idx += bufferSize;
             }
@@ -114,7 +114,7 @@ public final class ByteBufferSlicePool implements Pool<ByteBuffer> {
             final ByteBuffer buffer = bufferUpdater.getAndSet(this, null);
             if (buffer != null) {
                 // free when GC'd, no sooner
-                refSet.add(new Ref(buffer, null));
+                refSet.add(new Ref(buffer, region));
             }
         }
 
@@ -184,11 +184,13 @@ public final class ByteBufferSlicePool implements Pool<ByteBuffer> {
         }
 
         public void run() {
-            try {
-                final Ref reference = (Ref) REFERENCE_QUEUE.remove();
-                reference.free();
-            } catch (InterruptedException e) {
-                // ignore
+            for (;;) {
+                try {
+                    final Ref reference = (Ref) REFERENCE_QUEUE.remove();
+                    reference.free();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
             }
         }
     }
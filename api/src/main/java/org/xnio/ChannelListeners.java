@@ -23,6 +23,7 @@
 package org.xnio;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
@@ -31,6 +32,7 @@ import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.jboss.logging.Logger;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.channels.ConnectedChannel;
+import org.xnio.channels.StreamSourceChannel;
 
 /**
  * Channel listener utility methods.
@@ -136,12 +138,36 @@ public final class ChannelListeners {
      * @return a channel accept listener
      */
     public static <C extends ConnectedChannel> ChannelListener<AcceptingChannel<C>> openListenerAdapter(final ReadChannelThread readThread, final WriteChannelThread writeThread, final ChannelListener<? super C> openListener) {
+        return openListenerAdapter(readThread, writeThread, openListener, 1);
+    }
+
+    /**
+     * Create an open listener adapter which automatically accepts connections and invokes an open listener.  Each
+     * time the accepting channel becomes acceptable, up to {@code maxAccepts} pending connections are accepted
+     * before control is returned to the channel thread, which greatly reduces the number of selection cycles
+     * needed to handle a burst of incoming connections.
+     *
+     * @param readThread the initial read channel thread, or {@code null} for none
+     * @param writeThread the initial write channel thread, or {@code null} for none
+     * @param openListener the channel open listener
+     * @param maxAccepts the maximum number of connections to accept per event
+     * @param <C> the connected channel type
+     * @return a channel accept listener
+     * @since 3.0
+     */
+    public static <C extends ConnectedChannel> ChannelListener<AcceptingChannel<C>> openListenerAdapter(final ReadChannelThread readThread, final WriteChannelThread writeThread, final ChannelListener<? super C> openListener, final int maxAccepts) {
+        if (maxAccepts < 1) {
+            throw new IllegalArgumentException("maxAccepts must be at least 1");
+        }
         return new ChannelListener<AcceptingChannel<C>>() {
             public void handleEvent(final AcceptingChannel<C> channel) {
                 final ChannelListener<? super C> openListener1 = openListener;
                 try {
-                    final C accepted = channel.accept(readThread, writeThread);
-                    if (accepted != null) {
+                    for (int i = 0; i < maxAccepts; i ++) {
+                        final C accepted = channel.accept(readThread, writeThread);
+                        if (accepted == null) {
+                            return;
+                        }
                         if (openListener1 == null) {
                             // no listener, close the channel
                             IoUtils.safeClose(accepted);
@@ -170,13 +196,37 @@ public final class ChannelListeners {
      * @return a channel accept listener
      */
     public static <C extends ConnectedChannel> ChannelListener<AcceptingChannel<C>> openListenerAdapter(final ChannelThreadPool<ReadChannelThread> readThreadPool, final ChannelThreadPool<WriteChannelThread> writeThreadPool, final ChannelListener<? super C> openListener) {
+        return openListenerAdapter(readThreadPool, writeThreadPool, openListener, 1);
+    }
+
+    /**
+     * Create an open listener adapter which automatically accepts connections and invokes an open listener.  Each
+     * time the accepting channel becomes acceptable, up to {@code maxAccepts} pending connections are accepted
+     * before control is returned to the channel thread; each accepted connection is assigned its own threads from
+     * the given pools.
+     *
+     * @param readThreadPool the read channel thread pool, or {@code null} for none
+     * @param writeThreadPool the write channel thread pool, or {@code null} for none
+     * @param openListener the channel open listener
+     * @param maxAccepts the maximum number of connections to accept per event
+     * @param <C> the connected channel type
+     * @return a channel accept listener
+     * @since 3.0
+     */
+    public static <C extends ConnectedChannel> ChannelListener<AcceptingChannel<C>> openListenerAdapter(final ChannelThreadPool<ReadChannelThread> readThreadPool, final ChannelThreadPool<WriteChannelThread> writeThreadPool, final ChannelListener<? super C> openListener, final int maxAccepts) {
+        if (maxAccepts < 1) {
+            throw new IllegalArgumentException("maxAccepts must be at least 1");
+        }
         return new ChannelListener<AcceptingChannel<C>>() {
             public void handleEvent(final AcceptingChannel<C> channel) {
                 try {
                     final ChannelThreadPool<ReadChannelThread> readPool = readThreadPool;
                     final ChannelThreadPool<WriteChannelThread> writePool = writeThreadPool;
-                    final C accepted = channel.accept(readPool == null ? null : readPool.getThread(), writePool == null ? null : writePool.getThread());
-                    if (accepted != null) {
+                    for (int i = 0; i < maxAccepts; i ++) {
+                        final C accepted = channel.accept(readPool == null ? null : readPool.getThread(), writePool == null ? null : writePool.getThread());
+                        if (accepted == null) {
+                            return;
+                        }
                         invokeChannelListener(accepted, openListener);
                     }
                 } catch (IOException e) {
@@ -273,6 +323,165 @@ public final class ChannelListeners {
         };
     }
 
+    /**
+     * Get a read listener which reads into buffers borrowed from a pool only when the channel is readable, and passes
+     * each filled buffer to a handler.  The buffer size adapts to recent read sizes: buffers come from the small pool
+     * until a read fills one, and from the large pool until several reads in a row would have fit in a small buffer.
+     * The two pools may be the same.
+     *
+     * @param smallPool the pool of small buffers
+     * @param largePool the pool of large buffers
+     * @param handler the handler for data read
+     * @param <T> the channel type
+     * @return the read listener
+     *
+     * @since 3.0
+     */
+    public static <T extends StreamSourceChannel> ChannelListener<T> pooledReadListener(final Pool<ByteBuffer> smallPool, final Pool<ByteBuffer> largePool, final PooledReadHandler<? super T> handler) {
+        if (smallPool == null) {
+            throw new IllegalArgumentException("smallPool is null");
+        }
+        if (largePool == null) {
+            throw new IllegalArgumentException("largePool is null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        return new PooledReadListener<T>(smallPool, largePool, handler);
+    }
+
+    /**
+     * Get a read listener which reads into buffers borrowed from a pool only when the channel is readable, and passes
+     * each filled buffer to a handler.
+     *
+     * @param pool the buffer pool
+     * @param handler the handler for data read
+     * @param <T> the channel type
+     * @return the read listener
+     *
+     * @since 3.0
+     */
+    public static <T extends StreamSourceChannel> ChannelListener<T> pooledReadListener(final Pool<ByteBuffer> pool, final PooledReadHandler<? super T> handler) {
+        return pooledReadListener(pool, pool, handler);
+    }
+
+    private static final class PooledReadListener<T extends StreamSourceChannel> implements ChannelListener<T> {
+
+        /**
+         * The number of consecutive reads which fit in a small buffer before switching back to small buffers.
+         */
+        private static final int SHRINK_THRESHOLD = 4;
+
+        /**
+         * The delay in milliseconds before retrying when the pool is exhausted.
+         */
+        private static final long EXHAUSTED_RETRY_DELAY = 10L;
+
+        private final Pool<ByteBuffer> smallPool;
+        private final Pool<ByteBuffer> largePool;
+        private final PooledReadHandler<? super T> handler;
+
+        // accessed by the read thread only
+        private boolean large;
+        private int smallReads;
+        private int smallSize = Integer.MAX_VALUE;
+
+        PooledReadListener(final Pool<ByteBuffer> smallPool, final Pool<ByteBuffer> largePool, final PooledReadHandler<? super T> handler) {
+            this.smallPool = smallPool;
+            this.largePool = largePool;
+            this.handler = handler;
+        }
+
+        public void handleEvent(final T channel) {
+            for (;;) {
+                final Pooled<ByteBuffer> pooled = (large ? largePool : smallPool).allocate();
+                if (pooled == null) {
+                    retryLater(channel);
+                    return;
+                }
+                boolean ok = false;
+                final int res;
+                final int capacity;
+                try {
+                    final ByteBuffer buffer = pooled.getResource();
+                    capacity = buffer.remaining();
+                    if (! large) {
+                        smallSize = capacity;
+                    }
+                    try {
+                        res = channel.read(buffer);
+                    } catch (IOException e) {
+                        channel.suspendReads();
+                        handler.handleException(channel, e);
+                        return;
+                    }
+                    if (res > 0) {
+                        buffer.flip();
+                        ok = true;
+                    }
+                } finally {
+                    if (! ok) {
+                        pooled.free();
+                    }
+                }
+                if (res == 0) {
+                    return;
+                } else if (res == -1) {
+                    channel.suspendReads();
+                    handler.handleEof(channel);
+                    return;
+                }
+                adapt(res, capacity);
+                handler.handleRead(channel, pooled);
+                if (! channel.isOpen() || ! channel.isReadResumed()) {
+                    // the handler closed the channel or asked for no more data
+                    return;
+                }
+                if (res < capacity) {
+                    // the socket buffer is most likely drained; wait for the next event rather than reading 0
+                    return;
+                }
+                if (! channel.getReadThread().consumeQuota(res)) {
+                    // reads remain resumed, so we are called again after the other ready channels
+                    return;
+                }
+            }
+        }
+
+        private void adapt(final int res, final int capacity) {
+            if (! large) {
+                if (res == capacity) {
+                    large = true;
+                    smallReads = 0;
+                }
+            } else if (res <= smallSize) {
+                if (++ smallReads >= SHRINK_THRESHOLD) {
+                    large = false;
+                    smallReads = 0;
+                }
+            } else {
+                smallReads = 0;
+            }
+        }
+
+        private void retryLater(final T channel) {
+            final ReadChannelThread thread = channel.getReadThread();
+            if (thread == null) {
+                return;
+            }
+            channel.suspendReads();
+            try {
+                thread.executeAfter(new Runnable() {
+                    public void run() {
+                        channel.resumeReads();
+                    }
+                }, EXHAUSTED_RETRY_DELAY);
+            } catch (RejectedExecutionException e) {
+                // the thread is shutting down
+            }
+        }
+    }
+
     private static class DelegatingSetter<T extends Channel, O extends Channel> implements ChannelListener.Setter<T> {
         private final ChannelListener.Setter<O> setter;
         private final T realChannel;
@@ -48,6 +48,21 @@ public interface ChannelThread extends Executor {
      */
     Key executeAfter(Runnable command, long time);
 
+    /**
+     * Account for work done by a channel listener in the handling of the current event, and determine whether the
+     * listener may carry on.  Listeners which may move a lot of data in one event should call this method as they go,
+     * and once it returns {@code false}, stop and leave the rest for a later event (for example by leaving reads or
+     * writes resumed), so that other channels on the thread are not starved.  Passing a count of 0 just checks the
+     * remaining quota.  When called from any other thread, or when no quota is configured, this method always returns
+     * {@code true}.
+     *
+     * @param bytes the number of bytes moved since the last call
+     * @return {@code true} if the listener may carry on, {@code false} if it should yield
+     *
+     * @since 3.0
+     */
+    boolean consumeQuota(long bytes);
+
     /**
      * Get the approximate load on this thread, in channels.
      *
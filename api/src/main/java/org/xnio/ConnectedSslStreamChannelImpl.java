@@ -30,6 +30,8 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.Set;
 import java.nio.ByteBuffer;
@@ -44,8 +46,6 @@ import org.jboss.logging.Logger;
 import org.xnio.channels.ConnectedSslStreamChannel;
 import org.xnio.channels.ConnectedStreamChannel;
 
-import static org.xnio.Buffers.flip;
-
 @SuppressWarnings( { "ThisEscapedInObjectConstruction" })
 final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
 
@@ -53,7 +53,10 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
 
     private final ConnectedStreamChannel connectedStreamChannel;
     private final SSLEngine sslEngine;
-    private final Executor executor;
+    /**
+     * The executor for the engine's delegated tasks.
+     */
+    private final Executor taskExecutor;
 
     private volatile ChannelListener<? super ConnectedSslStreamChannel> readListener = null;
     private volatile ChannelListener<? super ConnectedSslStreamChannel> writeListener = null;
@@ -80,6 +83,38 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
         }
     };
 
+    private final Runnable writeTriggeredTask = new Runnable() {
+        public void run() {
+            runWriteListener();
+        }
+    };
+
+    private final Runnable admittedTask = new Runnable() {
+        public void run() {
+            log.tracef("Handshake admitted");
+            delegatedTasksDone();
+        }
+    };
+
+    private final Runnable handshakeTimeoutTask = new Runnable() {
+        public void run() {
+            if (handshakeReported == 0 && isOpen()) {
+                log.tracef("Handshake timed out; closing %s", ConnectedSslStreamChannelImpl.this);
+                handshakeStatistics.handshakeTimedOut();
+                IoUtils.safeClose(ConnectedSslStreamChannelImpl.this);
+            }
+        }
+    };
+
+    private final Runnable taskRetry = new Runnable() {
+        public void run() {
+            if (tasksStateUpdater.compareAndSet(ConnectedSslStreamChannelImpl.this, TASKS_DEFERRED, TASKS_IDLE)) {
+                log.tracef("Retrying deferred delegated tasks");
+                delegatedTasksDone();
+            }
+        }
+    };
+
     private final ChannelListener<ConnectedStreamChannel> tcpReadListener = new ReadListener();
 
     private final ChannelListener<ConnectedStreamChannel> tcpWriteListener = new WriteListener();
@@ -92,51 +127,134 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
         ChannelListeners.<ConnectedSslStreamChannel>invokeChannelListener(this, writeListener);
     }
 
-    private final Lock mainLock = new ReentrantLock();
+    /**
+     * The read lock.  Guards unwrap operations along with the read and receive buffers.  A thread which holds this
+     * lock may also acquire the write lock (but not the other way around) when a handshake step requires a wrap.
+     */
+    private final ReentrantLock readLock = new ReentrantLock();
+    /**
+     * The write lock.  Guards wrap operations along with the send buffer.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     /**
      * Condition: threads waiting in awaitReadable(); signalAll whenever data is added to the read buffer, or whenever
      * the TCP channel becomes readable.
      */
-    private final Condition readAwaiters = mainLock.newCondition();
+    private final Condition readAwaiters = readLock.newCondition();
     /**
      * Condition: threads waiting in awaitWritable(); signalAll whenever {@code needsUnwrap} is cleared.
      */
-    private final Condition writeAwaiters = mainLock.newCondition();
+    private final Condition writeAwaiters = writeLock.newCondition();
 
+    // guarded by the read lock
     private boolean userReads;
+    // guarded by the write lock
     private boolean userWrites;
     // readers need a wrap to proceed
-    private boolean needsWrap;
+    private volatile boolean needsWrap;
     // writers need an unwrap to proceed
-    private boolean needsUnwrap;
+    private volatile boolean needsUnwrap;
     // signal new data available
     private boolean newReadData;
+    // readers need delegated tasks to complete to proceed
+    private volatile boolean readNeedsTask;
+    // writers need delegated tasks to complete to proceed
+    private volatile boolean writeNeedsTask;
+
+    private static final int TASKS_IDLE = 0;
+    private static final int TASKS_RUNNING = 1;
+    private static final int TASKS_DEFERRED = 2;
+    private static final int TASKS_AWAITING_ADMISSION = 3;
+
+    /**
+     * The delegated task state: idle, running (or queued) on the task executor, or deferred because the executor was
+     * saturated.  A server channel whose handshake is not yet admitted by its throttle is held back the same way.
+     */
+    private volatile int tasksState;
+
+    private static final AtomicIntegerFieldUpdater<ConnectedSslStreamChannelImpl> tasksStateUpdater = AtomicIntegerFieldUpdater.newUpdater(ConnectedSslStreamChannelImpl.class, "tasksState");
+
+    /**
+     * The delay before retrying delegated tasks which were rejected by a saturated executor, in milliseconds.
+     */
+    private static final long TASK_RETRY_DELAY = 10L;
+
+    /**
+     * The statistics to which the initial handshake is reported.
+     */
+    private final SslHandshakeStatistics handshakeStatistics;
+    /**
+     * The time this channel was created; a session created before this time was resumed.  This also detects TLS 1.3
+     * resumption, whose session is a copy which keeps the creation time of the session it resumes.
+     */
+    private final long creationTime = System.currentTimeMillis();
+    /**
+     * Nonzero once the initial handshake has been reported.
+     */
+    private volatile int handshakeReported;
+
+    private static final AtomicIntegerFieldUpdater<ConnectedSslStreamChannelImpl> handshakeReportedUpdater = AtomicIntegerFieldUpdater.newUpdater(ConnectedSslStreamChannelImpl.class, "handshakeReported");
+
+    /**
+     * The throttle which admits this channel's handshake, or {@code null} if it is not throttled.
+     */
+    private final SslHandshakeThrottle throttle;
+    /**
+     * Nonzero while this channel holds one of its throttle's handshake slots.
+     */
+    private volatile int throttleSlot;
+
+    private static final AtomicIntegerFieldUpdater<ConnectedSslStreamChannelImpl> throttleSlotUpdater = AtomicIntegerFieldUpdater.newUpdater(ConnectedSslStreamChannelImpl.class, "throttleSlot");
+
+    /**
+     * The key of the pending handshake timeout, if any.
+     */
+    private volatile ChannelThread.Key handshakeTimeoutKey;
 
     /**
      * The application data read buffer.  Filled if a read required more space than the user buffer had available.  Reads
      * pull data from this buffer first, and additional data from unwrap() if needed.  This buffer should remain
-     * compacted for writing when the lock isn't held.
+     * compacted for writing when the read lock isn't held.
      */
     private ByteBuffer readBuffer = Buffers.EMPTY_BYTE_BUFFER;
 
     /**
      * The socket receive buffer.  Staging area for unwrap operations.  This buffer should remain either empty or flipped
-     * for reading when the lock is not held.
+     * for reading when the read lock is not held.
      */
     private ByteBuffer receiveBuffer = Buffers.EMPTY_BYTE_BUFFER;
 
     /**
      * The socket send buffer.  Target area for wrap operations.  Wrap operations have no source buffer, as there
      * is generally no minimum size for outbound data (thankfully).  This buffer should remain either empty or unflipped
-     * for appending when the lock is not held.
+     * for appending when the write lock is not held.
      */
     private ByteBuffer sendBuffer = Buffers.EMPTY_BYTE_BUFFER;
 
-    ConnectedSslStreamChannelImpl(final ConnectedStreamChannel connectedStreamChannel, final SSLEngine sslEngine, final Executor executor) {
+    /**
+     * The pool from which the send buffer is borrowed.
+     */
+    private final Pool<ByteBuffer> sendPool;
+    /**
+     * The pool from which the receive and read buffers are borrowed.
+     */
+    private final Pool<ByteBuffer> receivePool;
+
+    // the pooled resources backing the buffers above, or {@code null} if the buffer is not pooled
+    private Pooled<ByteBuffer> readPooled;
+    private Pooled<ByteBuffer> receivePooled;
+    private Pooled<ByteBuffer> sendPooled;
+
+    ConnectedSslStreamChannelImpl(final ConnectedStreamChannel connectedStreamChannel, final SSLEngine sslEngine, final Executor executor, final Pool<ByteBuffer> sendPool, final Pool<ByteBuffer> receivePool, final SslHandshakeStatistics handshakeStatistics, final SslHandshakeThrottle throttle) {
         this.connectedStreamChannel = connectedStreamChannel;
         this.sslEngine = sslEngine;
-        this.executor = executor;
+        taskExecutor = executor;
+        this.sendPool = sendPool;
+        this.receivePool = receivePool;
+        this.handshakeStatistics = handshakeStatistics;
+        this.throttle = throttle;
+        tasksState = throttle == null ? TASKS_IDLE : TASKS_AWAITING_ADMISSION;
         connectedStreamChannel.getReadSetter().set(tcpReadListener);
         connectedStreamChannel.getWriteSetter().set(tcpWriteListener);
         connectedStreamChannel.getCloseSetter().set(tcpCloseListener);
@@ -206,12 +324,18 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
     }
 
     public boolean flush() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
+            writeNeedsTask = false;
+            if (tasksState == TASKS_AWAITING_ADMISSION) {
+                writeNeedsTask = true;
+                return false;
+            }
             return doFlush();
         } finally {
-            mainLock.unlock();
+            releaseSendBuffer();
+            writeLock.unlock();
         }
     }
 
@@ -245,12 +369,25 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
             final SSLEngine sslEngine = this.sslEngine;
             log.tracef("Wrapping empty buffer into send buffer %s", sendBuffer);
             final SSLEngineResult wrapResult = sslEngine.wrap(Buffers.EMPTY_BYTE_BUFFER, sendBuffer);
+            checkHandshakeFinished(wrapResult);
             log.tracef("Wrap result is %s", wrapResult);
             final int produced = wrapResult.bytesProduced();
             switch (wrapResult.getStatus()) {
                 case CLOSED: {
                     return true;
                 }
+                case BUFFER_OVERFLOW: {
+                    if (sendBuffer.position() == 0) {
+                        log.tracef("Send buffer is too small, growing from %s", sendBuffer);
+                        final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
+                        if (sendBuffer.capacity() >= pktBufSize) {
+                            throw new IOException("Unexpected/inexplicable buffer overflow from the SSL engine");
+                        }
+                        log.tracef("Grew send buffer to %s", growSendBuffer(pktBufSize));
+                    }
+                    // otherwise flush what is there and try again
+                    continue;
+                }
                 case BUFFER_UNDERFLOW:
                 case OK: {
                     if (produced > 0) {
@@ -266,75 +403,99 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                             return true;
                         }
                         case NEED_TASK: {
-                            final Runnable task = sslEngine.getDelegatedTask();
-                            log.tracef("Running delegated task %s", task);
-                            task.run();
-                            log.tracef("Finished delegated task %s", task);
-                            continue;
+                            if (runDelegatedTasks()) {
+                                continue;
+                            }
+                            log.tracef("Delegated tasks pending, flush cannot proceed");
+                            writeNeedsTask = true;
+                            return false;
                         }
                         case NEED_UNWRAP: {
                             log.tracef("Unwrap needed to proceed with flush");
                             // Ya gotta get input to get output...
-                            UNWRAP: for (;;) {
-                                final ByteBuffer receiveBuffer = this.receiveBuffer;
-                                final ByteBuffer readBuffer = this.readBuffer;
-                                log.tracef("Unwrapping from receive buffer %s to read buffer %s", receiveBuffer, readBuffer);
-                                final SSLEngineResult unwrapResult = sslEngine.unwrap(receiveBuffer, readBuffer);
-                                readAwaiters.signalAll();
-                                switch (unwrapResult.getStatus()) {
-                                    case BUFFER_UNDERFLOW: {
-                                        newReadData = false;
-                                        // not enough data.  First, see if there is room left in the receive buf - if not, grow it.
-                                        if (receiveBuffer.position() == 0 && receiveBuffer.limit() == receiveBuffer.capacity()) {
-                                            log.tracef("Receive buffer is too small, growing from %s", receiveBuffer);
-                                            // receive buffer is full but it's still not big enough, so grow it
-                                            final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
-                                            if (receiveBuffer.capacity() >= pktBufSize) {
+                            final Lock readLock = this.readLock;
+                            if (! lockReadFromWrite()) {
+                                // the write lock was released to acquire the read lock; retry the wrap
+                                readLock.unlock();
+                                continue;
+                            }
+                            try {
+                                UNWRAP: for (;;) {
+                                    final ByteBuffer receiveBuffer = this.receiveBuffer;
+                                    final ByteBuffer readBuffer = this.readBuffer;
+                                    log.tracef("Unwrapping from receive buffer %s to read buffer %s", receiveBuffer, readBuffer);
+                                    final SSLEngineResult unwrapResult = sslEngine.unwrap(receiveBuffer, readBuffer);
+                                    checkHandshakeFinished(unwrapResult);
+                                    readAwaiters.signalAll();
+                                    switch (unwrapResult.getStatus()) {
+                                        case BUFFER_UNDERFLOW: {
+                                            newReadData = false;
+                                            // not enough data.  First, see if there is room left in the receive buf - if not, grow it.
+                                            if (receiveBuffer.position() == 0 && receiveBuffer.limit() == receiveBuffer.capacity()) {
+                                                log.tracef("Receive buffer is too small, growing from %s", receiveBuffer);
+                                                // receive buffer is full but it's still not big enough, so grow it
+                                                final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
+                                                if (receiveBuffer.capacity() >= pktBufSize) {
+                                                    // it's already the required size...
+                                                    throw new IOException("Unexpected/inexplicable buffer underflow from the SSL engine");
+                                                }
+                                                log.tracef("Grew receive buffer to %s", growReceiveBuffer(pktBufSize));
+                                                continue UNWRAP;
+                                            }
+                                            // not enough data in receive buffer, fill it up
+                                            receiveBuffer.compact();
+                                            try {
+                                                log.tracef("Reading data into receive buffer %s", receiveBuffer);
+                                                final int res = connectedStreamChannel.read(receiveBuffer);
+                                                if (res == -1) {
+                                                    log.tracef("End of input stream reached");
+                                                    // bad news, end of stream...
+                                                    sslEngine.closeInbound();
+                                                    // but maybe that counts as unwrapping something :)
+                                                    continue WRAP;
+                                                } else if (res == 0) {
+                                                    log.tracef("Read would block, set needsUnwrap = true");
+                                                    needsUnwrap = true;
+                                                    return false;
+                                                } else {
+                                                    newReadData = true;
+                                                    // retry the unwrap!
+                                                    continue UNWRAP;
+                                                }
+                                            } finally {
+                                                receiveBuffer.flip();
+                                            }
+                                        }
+                                        case BUFFER_OVERFLOW: {
+                                            // read buffer is not big enough.
+                                            final int appBufSize = sslEngine.getSession().getApplicationBufferSize();
+                                            if (readBuffer.capacity() >= appBufSize) {
                                                 // it's already the required size...
-                                                throw new IOException("Unexpected/inexplicable buffer underflow from the SSL engine");
+                                                throw new IOException("Unexpected/inexplicable buffer overflow from the SSL engine");
                                             }
-                                            log.tracef("Grew receive buffer to %s", this.receiveBuffer = Buffers.flip(ByteBuffer.allocate(pktBufSize).put(receiveBuffer)));
+                                            log.tracef("Read buffer is too small, growing from %s", readBuffer);
+                                            log.tracef("Grew read buffer to %s", growReadBuffer(appBufSize));
                                             continue UNWRAP;
                                         }
-                                        // not enough data in receive buffer, fill it up
-                                        receiveBuffer.compact();
-                                        try {
-                                            log.tracef("Reading data into receive buffer %s", receiveBuffer);
-                                            final int res = connectedStreamChannel.read(receiveBuffer);
-                                            if (res == -1) {
-                                                log.tracef("End of input stream reached");
-                                                // bad news, end of stream...
-                                                sslEngine.closeInbound();
-                                                // but maybe that counts as unwrapping something :)
-                                                continue WRAP;
-                                            } else if (res == 0) {
-                                                log.tracef("Read would block, set needsUnwrap = true");
-                                                needsUnwrap = true;
-                                                return false;
-                                            } else {
-                                                newReadData = true;
-                                                // retry the unwrap!
-                                                continue UNWRAP;
-                                            }
-                                        } finally {
-                                            receiveBuffer.flip();
+                                        case CLOSED: {
+                                            log.tracef("Engine is closed, everything must be flushed; return true");
+                                            // I guess everything is flushed?
+                                            return true;
+                                        }
+                                        case OK: {
+                                            log.tracef("Unwrap complete, proceeding with wrap");
+                                            // great, now we should be able to proceed with wrap
+                                            continue WRAP;
+                                        }
+                                        default: {
+                                            throw new IOException("Unexpected unwrap result status " + unwrapResult.getStatus());
                                         }
                                     }
-                                    case CLOSED: {
-                                        log.tracef("Engine is closed, everything must be flushed; return true");
-                                        // I guess everything is flushed?
-                                        return true;
-                                    }
-                                    case OK: {
-                                        log.tracef("Unwrap complete, proceeding with wrap");
-                                        // great, now we should be able to proceed with wrap
-                                        continue WRAP;
-                                    }
-                                    default: {
-                                        throw new IOException("Unexpected unwrap result status " + unwrapResult.getStatus());
-                                    }
+                                    // not reached
                                 }
-                                // not reached
+                            } finally {
+                                releaseReadBuffers();
+                                readLock.unlock();
                             }
                             // not reached
                         }
@@ -350,40 +511,362 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
         }
     }
 
+    /**
+     * Allocate a buffer of at least the given size from a pool.  If the pool is exhausted or its buffers are too
+     * small for this session, {@code null} is returned and the caller should allocate an unpooled buffer instead.
+     *
+     * @param pool the pool
+     * @param size the required size
+     * @return the pooled buffer, or {@code null} if none is suitable
+     */
+    private static Pooled<ByteBuffer> allocate(final Pool<ByteBuffer> pool, final int size) {
+        final Pooled<ByteBuffer> pooled = pool.allocate();
+        if (pooled != null && pooled.getResource().capacity() < size) {
+            log.tracef("Pooled buffer is smaller than the required %d bytes, allocating an unpooled buffer", Integer.valueOf(size));
+            pooled.free();
+            return null;
+        }
+        return pooled;
+    }
+
+    /**
+     * Replace the receive buffer with one of at least the given size, keeping any unread data.  Call with the read
+     * lock held.
+     *
+     * @param size the required size
+     * @return the new receive buffer, flipped for reading
+     */
+    private ByteBuffer growReceiveBuffer(final int size) {
+        final Pooled<ByteBuffer> pooled = allocate(receivePool, size);
+        final ByteBuffer buffer = pooled == null ? ByteBuffer.allocate(size) : (ByteBuffer) pooled.getResource().clear();
+        buffer.put(receiveBuffer).flip();
+        final Pooled<ByteBuffer> old = receivePooled;
+        if (old != null) old.free();
+        receivePooled = pooled;
+        return receiveBuffer = buffer;
+    }
+
+    /**
+     * Replace the read buffer with one of at least the given size, keeping any buffered data.  Call with the read
+     * lock held.
+     *
+     * @param size the required size
+     * @return the new read buffer, compacted for writing
+     */
+    private ByteBuffer growReadBuffer(final int size) {
+        final Pooled<ByteBuffer> pooled = allocate(receivePool, size);
+        final ByteBuffer buffer = pooled == null ? ByteBuffer.allocate(size) : (ByteBuffer) pooled.getResource().clear();
+        buffer.put(Buffers.flip(readBuffer));
+        final Pooled<ByteBuffer> old = readPooled;
+        if (old != null) old.free();
+        readPooled = pooled;
+        return readBuffer = buffer;
+    }
+
+    /**
+     * Replace the send buffer with one of at least the given size, keeping any unsent data.  Call with the write
+     * lock held.
+     *
+     * @param size the required size
+     * @return the new send buffer, compacted for writing
+     */
+    private ByteBuffer growSendBuffer(final int size) {
+        final Pooled<ByteBuffer> pooled = allocate(sendPool, size);
+        final ByteBuffer buffer = pooled == null ? ByteBuffer.allocate(size) : (ByteBuffer) pooled.getResource().clear();
+        buffer.put(Buffers.flip(sendBuffer));
+        final Pooled<ByteBuffer> old = sendPooled;
+        if (old != null) old.free();
+        sendPooled = pooled;
+        return sendBuffer = buffer;
+    }
+
+    /**
+     * Give back the read and receive buffers if they are empty, so that idle connections do not pin buffer space.
+     * Call with the read lock held.
+     */
+    private void releaseReadBuffers() {
+        if (! receiveBuffer.hasRemaining()) {
+            final Pooled<ByteBuffer> pooled = receivePooled;
+            receivePooled = null;
+            receiveBuffer = Buffers.EMPTY_BYTE_BUFFER;
+            if (pooled != null) pooled.free();
+        }
+        if (readBuffer.position() == 0) {
+            final Pooled<ByteBuffer> pooled = readPooled;
+            readPooled = null;
+            readBuffer = Buffers.EMPTY_BYTE_BUFFER;
+            if (pooled != null) pooled.free();
+        }
+    }
+
+    /**
+     * Send as much of the send buffer as the TCP channel will take.  Call with the write lock held.
+     *
+     * @return {@code true} if the send buffer was emptied and the TCP channel flushed, {@code false} if it would block
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean sendPending() throws IOException {
+        final ByteBuffer sendBuffer = this.sendBuffer;
+        sendBuffer.flip();
+        try {
+            while (sendBuffer.hasRemaining()) {
+                if (connectedStreamChannel.write(sendBuffer) == 0) {
+                    return false;
+                }
+            }
+            return connectedStreamChannel.flush();
+        } finally {
+            sendBuffer.compact();
+        }
+    }
+
+    /**
+     * Give back the send buffer if it is empty.  Call with the write lock held.
+     */
+    private void releaseSendBuffer() {
+        if (sendBuffer.position() == 0) {
+            final Pooled<ByteBuffer> pooled = sendPooled;
+            sendPooled = null;
+            sendBuffer = Buffers.EMPTY_BYTE_BUFFER;
+            if (pooled != null) pooled.free();
+        }
+    }
+
+    /**
+     * Run the engine's delegated tasks on the task executor.  If the executor is saturated, the tasks are deferred
+     * and retried after a short delay, rather than blocking the calling thread.
+     *
+     * @return {@code true} if the tasks completed before this method returned, {@code false} if they are running in
+     *      the background or were deferred
+     * @throws IOException if the executor rejected the tasks and there is no channel thread to retry them on
+     */
+    private boolean runDelegatedTasks() throws IOException {
+        if (! tasksStateUpdater.compareAndSet(this, TASKS_IDLE, TASKS_RUNNING)) {
+            return false;
+        }
+        final Thread caller = Thread.currentThread();
+        try {
+            taskExecutor.execute(new Runnable() {
+                public void run() {
+                    final SSLEngine sslEngine = ConnectedSslStreamChannelImpl.this.sslEngine;
+                    try {
+                        Runnable task;
+                        while ((task = sslEngine.getDelegatedTask()) != null) {
+                            log.tracef("Running delegated task %s", task);
+                            task.run();
+                            log.tracef("Finished delegated task %s", task);
+                        }
+                    } finally {
+                        tasksState = TASKS_IDLE;
+                        // a caller which ran the tasks itself simply proceeds
+                        if (Thread.currentThread() != caller) {
+                            delegatedTasksDone();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            final ChannelThread thread = getChannelThread();
+            if (thread == null) {
+                tasksState = TASKS_IDLE;
+                throw new IOException("Delegated task executor rejected the handshake tasks and the channel has no thread to retry them", e);
+            }
+            log.tracef("Delegated task executor is saturated; deferring handshake of %s", this);
+            tasksState = TASKS_DEFERRED;
+            thread.executeAfter(taskRetry, TASK_RETRY_DELAY);
+            return false;
+        }
+        return tasksState == TASKS_IDLE;
+    }
+
+    /**
+     * Wake up readers and writers once delegated tasks have completed (or may be retried).  Call without either lock
+     * held.
+     */
+    private void delegatedTasksDone() {
+        boolean runRead = false;
+        boolean runWrite = false;
+        final Lock readLock = this.readLock;
+        readLock.lock();
+        try {
+            readAwaiters.signalAll();
+            if (userReads) {
+                userReads = false;
+                runRead = true;
+            }
+        } finally {
+            readLock.unlock();
+        }
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
+        try {
+            writeAwaiters.signalAll();
+            if (userWrites) {
+                userWrites = false;
+                runWrite = true;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (runRead) triggerReadListener();
+        if (runWrite) triggerWriteListener();
+    }
+
+    private ChannelThread getChannelThread() {
+        final ChannelThread thread = connectedStreamChannel.getReadThread();
+        return thread != null ? thread : connectedStreamChannel.getWriteThread();
+    }
+
+    private void triggerReadListener() {
+        final ReadChannelThread thread = connectedStreamChannel.getReadThread();
+        if (thread == null) {
+            runReadListener();
+        } else {
+            thread.execute(readTriggeredTask);
+        }
+    }
+
+    private void triggerWriteListener() {
+        final WriteChannelThread thread = connectedStreamChannel.getWriteThread();
+        if (thread == null) {
+            runWriteListener();
+        } else {
+            thread.execute(writeTriggeredTask);
+        }
+    }
+
+    /**
+     * Acquire the read lock from a thread which holds the write lock, so that a wrap which requires an unwrap to
+     * proceed can do so.  If the read lock is not immediately available, the write lock is released and both locks
+     * are reacquired in order, in which case the caller must retry its wrap since the engine state may have changed.
+     * Either way, the read lock is held on return.
+     *
+     * @return {@code true} if the write lock was held throughout, {@code false} if it was released and reacquired
+     */
+    private boolean lockReadFromWrite() {
+        final ReentrantLock readLock = this.readLock;
+        if (readLock.tryLock()) {
+            return true;
+        }
+        final ReentrantLock writeLock = this.writeLock;
+        final int holds = writeLock.getHoldCount();
+        for (int i = 0; i < holds; i ++) {
+            writeLock.unlock();
+        }
+        readLock.lock();
+        for (int i = 0; i < holds; i ++) {
+            writeLock.lock();
+        }
+        return false;
+    }
+
+    /**
+     * Report the initial handshake to the statistics if the given result completed it.
+     *
+     * @param result the result of a wrap or unwrap operation
+     */
+    private void checkHandshakeFinished(final SSLEngineResult result) {
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED && handshakeReportedUpdater.compareAndSet(this, 0, 1)) {
+            handshakeStatistics.handshakeCompleted(sslEngine.getSession().getCreationTime() < creationTime);
+            cancelHandshakeTimeout();
+            releaseHandshakeSlot();
+        }
+    }
+
+    /**
+     * Let this channel's handshake proceed.  Called by the throttle once it has given this channel a slot.
+     */
+    void admitHandshake() {
+        throttleSlot = 1;
+        if (tasksStateUpdater.compareAndSet(this, TASKS_AWAITING_ADMISSION, TASKS_IDLE)) {
+            // wake up the user on the channel's own thread rather than the (arbitrary) admitting thread
+            final ChannelThread thread = getChannelThread();
+            if (thread == null) {
+                delegatedTasksDone();
+            } else {
+                thread.execute(admittedTask);
+            }
+        } else {
+            // closed while waiting
+            releaseHandshakeSlot();
+        }
+    }
+
+    private void releaseHandshakeSlot() {
+        if (throttleSlotUpdater.compareAndSet(this, 1, 0)) {
+            throttle.release();
+        }
+    }
+
+    /**
+     * Close this channel if its initial handshake does not complete within the given time.  The timeout runs on the
+     * given thread rather than on one of this channel's threads, since a channel may be accepted without any.
+     *
+     * @param thread the thread to run the timeout on
+     * @param timeout the timeout, in milliseconds
+     */
+    void scheduleHandshakeTimeout(final ChannelThread thread, final long timeout) {
+        handshakeTimeoutKey = thread.executeAfter(handshakeTimeoutTask, timeout);
+    }
+
+    private void cancelHandshakeTimeout() {
+        final ChannelThread.Key key = handshakeTimeoutKey;
+        if (key != null) {
+            key.remove();
+        }
+    }
+
     public boolean isOpen() {
         return connectedStreamChannel.isOpen();
     }
 
     public void close() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        cancelHandshakeTimeout();
+        if (throttle != null) {
+            if (tasksStateUpdater.compareAndSet(this, TASKS_AWAITING_ADMISSION, TASKS_IDLE)) {
+                throttle.remove(this);
+            }
+            releaseHandshakeSlot();
+        }
+        IOException e1 = null;
+        IOException e2 = null;
+        // close the TCP channel first and without our locks, since it waits on the channel threads whose listeners take them
+        try {
+            connectedStreamChannel.close();
+        } catch (IOException e) {
+            e2 = e;
+        }
+        final Lock readLock = this.readLock;
+        final Lock writeLock = this.writeLock;
+        readLock.lock();
+        writeLock.lock();
         try {
             sslEngine.closeOutbound();
-            IOException e1 = null;
-            IOException e2 = null;
             try {
                 sslEngine.closeInbound();
             } catch (IOException e) {
                 e1 = e;
             }
-            try {
-                connectedStreamChannel.close();
-            } catch (IOException e) {
-                e2 = e;
-            }
-            if (e1 != null && e2 != null) {
-                final IOException t = new IOException("Multiple failures on close!  The second exception is: " + e2.toString());
-                t.initCause(e1);
-                throw t;
-            }
-            if (e1 != null) {
-                throw e1;
-            }
-            if (e2 != null) {
-                throw e2;
-            }
         } finally {
-            mainLock.unlock();
+            // nothing more can be sent or received, so give back all buffers
+            receiveBuffer.clear().flip();
+            readBuffer.clear();
+            sendBuffer.clear();
+            releaseReadBuffers();
+            releaseSendBuffer();
+            writeLock.unlock();
+            readLock.unlock();
+        }
+        if (e1 != null && e2 != null) {
+            final IOException t = new IOException("Multiple failures on close!  The second exception is: " + e2.toString());
+            t.initCause(e1);
+            throw t;
+        }
+        if (e1 != null) {
+            throw e1;
+        }
+        if (e2 != null) {
+            throw e2;
         }
     }
 
@@ -429,81 +912,127 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
     }
 
     public void suspendReads() {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
             userReads = false;
         } finally {
-            mainLock.unlock();
+            readLock.unlock();
         }
     }
 
     public void suspendWrites() {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
             userWrites = false;
         } finally {
-            mainLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isReadResumed() {
+        final Lock readLock = this.readLock;
+        readLock.lock();
+        try {
+            return userReads;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public boolean isWriteResumed() {
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
+        try {
+            return userWrites;
+        } finally {
+            writeLock.unlock();
         }
     }
 
     public void resumeReads() {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
-            if (readBuffer.position() > 0 || newReadData) {
+            if (readBuffer.position() > 0 || newReadData || readNeedsTask && tasksState == TASKS_IDLE) {
                 log.tracef("Application resumeReads() -> Execute read handler");
-                executor.execute(readTriggeredTask);
-            } else {
-                userReads = true;
-                if (needsWrap) {
-                    // read can't proceed until stuff is written, so wait for writability and then call the read listener
-                    // during which the user will call read() which really writes... sigh
-                    log.tracef("Application resumeReads() -> SSL resumeWrites()");
-                    connectedStreamChannel.resumeWrites();
-                } else {
-                    log.tracef("Application resumeReads() -> SSL resumeReads()");
-                    connectedStreamChannel.resumeReads();
-                }
+                triggerReadListener();
+                return;
             }
+            userReads = true;
         } finally {
-            mainLock.unlock();
+            readLock.unlock();
+        }
+        // if delegated tasks are pending, the read listener is called when they are done
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForRead();
         }
     }
 
     public void resumeWrites() {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
-            userWrites = true;
-            if (needsUnwrap) {
-                log.tracef("Application resumeWrites() -> SSL resumeReads()");
-                connectedStreamChannel.resumeReads();
-            } else {
-                log.tracef("Application resumeWrites() -> SSL resumeWrites()");
-                connectedStreamChannel.resumeWrites();
+            if (writeNeedsTask && tasksState == TASKS_IDLE) {
+                log.tracef("Application resumeWrites() -> Execute write handler");
+                triggerWriteListener();
+                return;
             }
+            userWrites = true;
         } finally {
-            mainLock.unlock();
+            writeLock.unlock();
+        }
+        // if delegated tasks are pending, the write listener is called when they are done
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForWrite();
+        }
+    }
+
+    /**
+     * Resume the TCP channel so that a pending read can make progress.  This must be called without either lock held,
+     * since resuming may wait for the channel thread, whose listener acquires the locks.
+     */
+    private void resumeTcpForRead() {
+        if (needsWrap) {
+            // read can't proceed until stuff is written, so wait for writability and then call the read listener
+            // during which the user will call read() which really writes... sigh
+            log.tracef("Application read -> SSL resumeWrites()");
+            connectedStreamChannel.resumeWrites();
+        } else {
+            log.tracef("Application read -> SSL resumeReads()");
+            connectedStreamChannel.resumeReads();
+        }
+    }
+
+    /**
+     * Resume the TCP channel so that a pending write can make progress.  This must be called without either lock held.
+     */
+    private void resumeTcpForWrite() {
+        if (needsUnwrap) {
+            log.tracef("Application write -> SSL resumeReads()");
+            connectedStreamChannel.resumeReads();
+        } else {
+            log.tracef("Application write -> SSL resumeWrites()");
+            connectedStreamChannel.resumeWrites();
         }
     }
 
     public void shutdownReads() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
             log.tracef("Shutting down writes");
             connectedStreamChannel.shutdownReads();
             sslEngine.closeInbound();
         } finally {
-            mainLock.unlock();
+            readLock.unlock();
         }
     }
 
     public boolean shutdownWrites() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
             if (flush()) {
                 log.tracef("Shutting down writes");
@@ -513,101 +1042,84 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                 return false;
             }
         } finally {
-            mainLock.unlock();
+            writeLock.unlock();
         }
     }
 
     public void awaitReadable() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        // the TCP channel listener signals readers for as long as it is readable, so a wakeup cannot be missed
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForRead();
+        }
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
             // loop only once so that if the TCP channel becomes readable, control flow can resume
             // spurious wakeups are forgivable
-            if (readBuffer.position() == 0) {
-                try {
-                    if (needsWrap) {
-                        // read can't proceed until stuff is written, so wait for writability
-                        log.tracef("Application awaitReadable() -> SSL resumeWrites()");
-                        connectedStreamChannel.resumeWrites();
-                    } else {
-                        log.tracef("Application awaitReadable() -> SSL resumeReads()");
-                        connectedStreamChannel.resumeReads();
-                    }
-                    readAwaiters.await();
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new InterruptedIOException();
-                }
+            if (readBuffer.position() == 0 && ! (readNeedsTask && tasksState == TASKS_IDLE)) {
+                readAwaiters.await();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         } finally {
-            mainLock.unlock();
+            readLock.unlock();
         }
     }
 
     public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForRead();
+        }
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
             // loop only once so that if the TCP channel becomes readable, control flow can resume
             // spurious wakeups are forgivable
-            if (readBuffer.position() == 0) {
-                try {
-                    if (needsWrap) {
-                        // read can't proceed until stuff is written, so wait for writability
-                        log.tracef("Application awaitReadable() -> SSL resumeWrites()");
-                        connectedStreamChannel.resumeWrites();
-                    } else {
-                        log.tracef("Application awaitReadable() -> SSL resumeReads()");
-                        connectedStreamChannel.resumeReads();
-                    }
-                    readAwaiters.await(time, timeUnit);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    throw new InterruptedIOException();
-                }
+            if (readBuffer.position() == 0 && ! (readNeedsTask && tasksState == TASKS_IDLE)) {
+                readAwaiters.await(time, timeUnit);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
         } finally {
-            mainLock.unlock();
+            readLock.unlock();
         }
     }
 
     public void awaitWritable() throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForWrite();
+        }
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
-            if (needsUnwrap) {
-                log.tracef("Application awaitWritable() -> SSL resumeReads()");
-                connectedStreamChannel.resumeReads();
-            } else {
-                log.tracef("Application awaitWritable() -> SSL resumeWrites()");
-                connectedStreamChannel.resumeWrites();
+            if (! (writeNeedsTask && tasksState == TASKS_IDLE)) {
+                writeAwaiters.await();
             }
-            writeAwaiters.await();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new InterruptedIOException();
         } finally {
-            mainLock.unlock();
+            writeLock.unlock();
         }
     }
 
     public void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        if (tasksState == TASKS_IDLE) {
+            resumeTcpForWrite();
+        }
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
-            if (needsUnwrap) {
-                log.tracef("Application awaitWritable() -> SSL resumeReads()");
-                connectedStreamChannel.resumeReads();
-            } else {
-                log.tracef("Application awaitWritable() -> SSL resumeWrites()");
-                connectedStreamChannel.resumeWrites();
+            if (! (writeNeedsTask && tasksState == TASKS_IDLE)) {
+                writeAwaiters.await(time, timeUnit);
             }
-            writeAwaiters.await(time, timeUnit);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new InterruptedIOException();
         } finally {
-            mainLock.unlock();
+            writeLock.unlock();
         }
     }
 
@@ -620,13 +1132,20 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
             return 0L;
         }
         final SSLEngine sslEngine = this.sslEngine;
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock writeLock = this.writeLock;
+        writeLock.lock();
         try {
+            writeNeedsTask = false;
+            if (tasksState == TASKS_AWAITING_ADMISSION) {
+                log.tracef("Handshake not yet admitted, write cannot proceed");
+                writeNeedsTask = true;
+                return 0L;
+            }
             ByteBuffer sendBuffer = this.sendBuffer;
             WRAP: for (; ;) {
                 log.tracef("Wrapping %s (and possibly more) into send buffer %s", srcs[0], sendBuffer);
                 final SSLEngineResult wrapResult = sslEngine.wrap(srcs, offset, length, sendBuffer);
+                checkHandshakeFinished(wrapResult);
                 log.tracef("Wrap result is %s", wrapResult);
                 final int produced = wrapResult.bytesProduced();
                 final int consumed = wrapResult.bytesConsumed();
@@ -642,7 +1161,7 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                                 // ...but the send buffer should have had plenty of room?
                                 throw new IOException("SSLEngine required a bigger send buffer but our buffer was already big enough");
                             }
-                            log.tracef("Grew send buffer to %s", sendBuffer = this.sendBuffer = ByteBuffer.allocate(reqCap));
+                            log.tracef("Grew send buffer to %s", sendBuffer = growSendBuffer(reqCap));
                         } else {
                             log.tracef("No room in send buffer, flushing");
                             // there's some data in there, so send it first
@@ -678,92 +1197,110 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                             // must be in handshake?
                             switch (wrapResult.getHandshakeStatus()) {
                                 case NEED_TASK: {
-                                    // todo background
-                                    final Runnable task = sslEngine.getDelegatedTask();
-                                    log.tracef("Running delegated task %s", task);
-                                    task.run();
-                                    log.tracef("Finished delegated task %s", task);
-                                    // try again
-                                    continue;
+                                    if (runDelegatedTasks()) {
+                                        // try again
+                                        continue;
+                                    }
+                                    log.tracef("Delegated tasks pending, write cannot proceed");
+                                    writeNeedsTask = true;
+                                    return consumed;
                                 }
                                 case NEED_UNWRAP: {
                                     log.tracef("Unwrap required before write can proceed");
-                                    UNWRAP: for (;;) {
-                                        final ByteBuffer receiveBuffer = this.receiveBuffer;
-                                        final ByteBuffer readBuffer = this.readBuffer;
-                                        final SSLEngineResult unwrapResult;
-                                        log.tracef("Unwrapping from receive buffer %s to read buffer %s", receiveBuffer, readBuffer);
-                                        unwrapResult = sslEngine.unwrap(receiveBuffer, readBuffer);
-                                        log.tracef("Unwrap result is %s", unwrapResult);
-                                        if (! receiveBuffer.hasRemaining()) {
-                                            receiveBuffer.clear().flip();
-                                        }
-                                        readAwaiters.signalAll();
-                                        switch (unwrapResult.getStatus()) {
-                                            case BUFFER_UNDERFLOW: {
-                                                newReadData = false;
-                                                // not enough data.  First, see if there is room left in the receive buf - if not, grow it.
-                                                if (receiveBuffer.position() == 0 && receiveBuffer.limit() == receiveBuffer.capacity()) {
-                                                    log.tracef("Receive buffer is not large enough to feed unwrap, growing from %s", receiveBuffer);
-                                                    // receive buffer is full but it's still not big enough, so grow it
-                                                    final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
-                                                    if (receiveBuffer.capacity() >= pktBufSize) {
+                                    // the peer cannot answer until it has our handshake data, so send it first
+                                    if (sendBuffer.position() > 0 && ! sendPending()) {
+                                        log.tracef("Send (before unwrap) would block, return");
+                                        return consumed;
+                                    }
+                                    final Lock readLock = this.readLock;
+                                    if (! lockReadFromWrite()) {
+                                        // the write lock was released to acquire the read lock; retry the wrap
+                                        readLock.unlock();
+                                        sendBuffer = this.sendBuffer;
+                                        continue;
+                                    }
+                                    try {
+                                        UNWRAP: for (;;) {
+                                            final ByteBuffer receiveBuffer = this.receiveBuffer;
+                                            final ByteBuffer readBuffer = this.readBuffer;
+                                            final SSLEngineResult unwrapResult;
+                                            log.tracef("Unwrapping from receive buffer %s to read buffer %s", receiveBuffer, readBuffer);
+                                            unwrapResult = sslEngine.unwrap(receiveBuffer, readBuffer);
+                                            checkHandshakeFinished(unwrapResult);
+                                            log.tracef("Unwrap result is %s", unwrapResult);
+                                            if (! receiveBuffer.hasRemaining()) {
+                                                receiveBuffer.clear().flip();
+                                            }
+                                            readAwaiters.signalAll();
+                                            switch (unwrapResult.getStatus()) {
+                                                case BUFFER_UNDERFLOW: {
+                                                    newReadData = false;
+                                                    // not enough data.  First, see if there is room left in the receive buf - if not, grow it.
+                                                    if (receiveBuffer.position() == 0 && receiveBuffer.limit() == receiveBuffer.capacity()) {
+                                                        log.tracef("Receive buffer is not large enough to feed unwrap, growing from %s", receiveBuffer);
+                                                        // receive buffer is full but it's still not big enough, so grow it
+                                                        final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
+                                                        if (receiveBuffer.capacity() >= pktBufSize) {
+                                                            // it's already the required size...
+                                                            throw new IOException("Unexpected/inexplicable buffer underflow from the SSL engine");
+                                                        }
+                                                        log.tracef("Grew receive buffer to %s", growReceiveBuffer(pktBufSize));
+                                                        continue UNWRAP;
+                                                    }
+                                                    // not enough data in receive buffer, fill it up
+                                                    receiveBuffer.compact();
+                                                    try {
+                                                        log.tracef("Filling receive buffer (read)");
+                                                        final int res = connectedStreamChannel.read(receiveBuffer);
+                                                        if (res == -1) {
+                                                            log.tracef("End of inbound data");
+                                                            // bad news, end of stream...
+                                                            sslEngine.closeInbound();
+                                                            // but maybe that counts as unwrapping something :)
+                                                            continue WRAP;
+                                                        } else if (res == 0) {
+                                                            log.tracef("Read would block, setting needsUnwrap = true");
+                                                            needsUnwrap = true;
+                                                            return consumed;
+                                                        } else {
+                                                            log.tracef("Read successful, retrying unwrap");
+                                                            // retry the unwrap!
+                                                            newReadData = true;
+                                                            continue UNWRAP;
+                                                        }
+                                                    } finally {
+                                                        receiveBuffer.flip();
+                                                    }
+                                                }
+                                                case BUFFER_OVERFLOW: {
+                                                    // read buffer is not big enough.
+                                                    final int appBufSize = sslEngine.getSession().getApplicationBufferSize();
+                                                    if (readBuffer.capacity() >= appBufSize) {
                                                         // it's already the required size...
-                                                        throw new IOException("Unexpected/inexplicable buffer underflow from the SSL engine");
+                                                        throw new IOException("Unexpected/inexplicable buffer overflow from the SSL engine");
                                                     }
-                                                    log.tracef("Grew receive buffer to %s", this.receiveBuffer = Buffers.flip(ByteBuffer.allocate(pktBufSize).put(receiveBuffer)));
+                                                    log.tracef("Read buffer is too small, growing from %s", readBuffer);
+                                                    log.tracef("Grew read buffer to %s", growReadBuffer(appBufSize));
                                                     continue UNWRAP;
                                                 }
-                                                // not enough data in receive buffer, fill it up
-                                                receiveBuffer.compact();
-                                                try {
-                                                    log.tracef("Filling receive buffer (read)");
-                                                    final int res = connectedStreamChannel.read(receiveBuffer);
-                                                    if (res == -1) {
-                                                        log.tracef("End of inbound data");
-                                                        // bad news, end of stream...
-                                                        sslEngine.closeInbound();
-                                                        // but maybe that counts as unwrapping something :)
-                                                        continue WRAP;
-                                                    } else if (res == 0) {
-                                                        log.tracef("Read would block, setting needsUnwrap = true");
-                                                        needsUnwrap = true;
-                                                        return consumed;
-                                                    } else {
-                                                        log.tracef("Read successful, retrying unwrap");
-                                                        // retry the unwrap!
-                                                        newReadData = true;
-                                                        continue UNWRAP;
-                                                    }
-                                                } finally {
-                                                    receiveBuffer.flip();
+                                                case CLOSED: {
+                                                    log.tracef("Read on closed channel, return");
+                                                    return consumed == 0 ? -1 : consumed;
                                                 }
-                                            }
-                                            case BUFFER_OVERFLOW: {
-                                                // read buffer is not big enough.
-                                                final int appBufSize = sslEngine.getSession().getApplicationBufferSize();
-                                                if (readBuffer.capacity() >= appBufSize) {
-                                                    // it's already the required size...
-                                                    throw new IOException("Unexpected/inexplicable buffer overflow from the SSL engine");
+                                                case OK: {
+                                                    log.tracef("Unwrap succeeded, proceeding with wrap");
+                                                    // great, now we should be able to proceed with wrap
+                                                    continue WRAP;
+                                                }
+                                                default: {
+                                                    throw new IOException("Unexpected unwrap result status " + unwrapResult.getStatus());
                                                 }
-                                                log.tracef("Read buffer is too small, growing from %s", readBuffer);
-                                                log.tracef("Grew read buffer to %s", this.readBuffer = ByteBuffer.allocate(appBufSize).put(flip(readBuffer)));
-                                                continue UNWRAP;
-                                            }
-                                            case CLOSED: {
-                                                log.tracef("Read on closed channel, return");
-                                                return consumed == 0 ? -1 : consumed;
-                                            }
-                                            case OK: {
-                                                log.tracef("Unwrap succeeded, proceeding with wrap");
-                                                // great, now we should be able to proceed with wrap
-                                                continue WRAP;
-                                            }
-                                            default: {
-                                                throw new IOException("Unexpected unwrap result status " + unwrapResult.getStatus());
                                             }
+                                            // not reached
                                         }
-                                        // not reached
+                                    } finally {
+                                        releaseReadBuffers();
+                                        readLock.unlock();
                                     }
                                     // not reached
                                 }
@@ -782,7 +1319,8 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                 }
             }
         } finally {
-            mainLock.unlock();
+            releaseSendBuffer();
+            writeLock.unlock();
         }
     }
 
@@ -798,9 +1336,16 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
         if (dsts.length == 0 || length == 0) {
             return 0L;
         }
-        final Lock mainLock = this.mainLock;
-        mainLock.lock();
+        final Lock readLock = this.readLock;
+        readLock.lock();
         try {
+            readNeedsTask = false;
+            if (tasksState == TASKS_AWAITING_ADMISSION) {
+                // the TCP read listener suspends reads until the handshake is admitted
+                log.tracef("Handshake not yet admitted, read cannot proceed");
+                readNeedsTask = true;
+                return 0L;
+            }
             ByteBuffer readBuffer = this.readBuffer;
             if (readBuffer.position() > 0) {
                 log.tracef("Returning data from read buffer %s", readBuffer);
@@ -811,6 +1356,21 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                     readBuffer.compact();
                 }
             }
+            if (needsWrap) {
+                // handshake data wrapped by an earlier read is still waiting to be sent
+                final Lock writeLock = this.writeLock;
+                writeLock.lock();
+                try {
+                    if (! sendPending()) {
+                        log.tracef("Channel is still not writable, read cannot proceed");
+                        return 0L;
+                    }
+                    needsWrap = false;
+                } finally {
+                    releaseSendBuffer();
+                    writeLock.unlock();
+                }
+            }
             final ConnectedStreamChannel connectedStreamChannel = this.connectedStreamChannel;
             final SSLEngine sslEngine = this.sslEngine;
             UNWRAP: for (;;) {
@@ -818,6 +1378,7 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                 final SSLEngineResult unwrapResult;
                 log.tracef("Unwrapping from %s to %s", receiveBuffer, readBuffer);
                 unwrapResult = sslEngine.unwrap(receiveBuffer, readBuffer);
+                checkHandshakeFinished(unwrapResult);
                 log.tracef("Unwrap result is %s", unwrapResult);
                 final int produced = unwrapResult.bytesProduced();
 
@@ -841,7 +1402,7 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                             // the say the buf is too small, yet it's already at least their required size...?
                             throw new IOException("Unexpected/inexplicable buffer overflow from the SSL engine");
                         }
-                        log.tracef("Grew application readBuffer to %s", readBuffer = this.readBuffer = ByteBuffer.allocate(appBufSize));
+                        log.tracef("Grew application readBuffer to %s", readBuffer = growReadBuffer(appBufSize));
                         // try again with the bigger buffer...
                         continue;
                     }
@@ -856,7 +1417,7 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                                 // it's already the required size...
                                 throw new IOException("Unexpected/inexplicable buffer underflow from the SSL engine");
                             }
-                            log.tracef("Grew receive buffer to %s", this.receiveBuffer = Buffers.flip(ByteBuffer.allocate(pktBufSize).put(receiveBuffer)));
+                            log.tracef("Grew receive buffer to %s", growReceiveBuffer(pktBufSize));
                             continue UNWRAP;
                         }
                         // fill the rest of the buffer, then retry!
@@ -903,64 +1464,89 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
                         } else {
                             // find out why nothing was produced if everything is "OK" :-/
                             switch (unwrapResult.getHandshakeStatus()) {
-                                case NEED_TASK: {
-                                    // todo - background might be tricky, since the channel has to be unreadable until it's done (maybe?)
-                                    final Runnable task = sslEngine.getDelegatedTask();
-                                    log.tracef("Running delegated task %s", task);
-                                    task.run();
-                                    log.tracef("Delegated task %s complete", task);
-                                    // try unwrap again
+                                case NOT_HANDSHAKING:
+                                case FINISHED:
+                                case NEED_UNWRAP: {
+                                    // a non-application record was consumed; keep unwrapping
                                     continue;
                                 }
+                                case NEED_TASK: {
+                                    if (runDelegatedTasks()) {
+                                        // try unwrap again
+                                        continue;
+                                    }
+                                    // the TCP read listener suspends reads until the tasks are done
+                                    log.tracef("Delegated tasks pending, read cannot proceed");
+                                    readNeedsTask = true;
+                                    return 0;
+                                }
                                 case NEED_WRAP: {
                                     log.tracef("Wrap required for read to proceed");
                                     // can't proceed until a message is wrapped!
-                                    WRAP: for (;;) {
-                                        // first wrap an empty buffer into the send buffer
-                                        final ByteBuffer sendBuffer = this.sendBuffer;
-                                        log.tracef("Wrapping empty buffer into %s", sendBuffer);
-                                        final SSLEngineResult wrapResult = sslEngine.wrap(Buffers.EMPTY_BYTE_BUFFER, sendBuffer);
-                                        log.tracef("Wrap result is %s", wrapResult);
-                                        writeAwaiters.signalAll();
-                                        switch (wrapResult.getStatus()) {
-                                            case BUFFER_OVERFLOW: {
-                                                // check to see if the send buffer is too small
-                                                final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
-                                                if (sendBuffer.capacity() < pktBufSize) {
-                                                    log.tracef("Send buffer is too small; resizing from %s", sendBuffer);
-                                                    // our send buffer is too small.  Reallocate and retry the wrap
-                                                    log.tracef("Send buffer resized to %s", (this.sendBuffer = ByteBuffer.allocate(pktBufSize)).put(sendBuffer).flip());
-                                                    continue;
+                                    final Lock writeLock = this.writeLock;
+                                    writeLock.lock();
+                                    try {
+                                        WRAP: for (;;) {
+                                            // first wrap an empty buffer into the send buffer
+                                            final ByteBuffer sendBuffer = this.sendBuffer;
+                                            log.tracef("Wrapping empty buffer into %s", sendBuffer);
+                                            final SSLEngineResult wrapResult = sslEngine.wrap(Buffers.EMPTY_BYTE_BUFFER, sendBuffer);
+                                            checkHandshakeFinished(wrapResult);
+                                            log.tracef("Wrap result is %s", wrapResult);
+                                            writeAwaiters.signalAll();
+                                            switch (wrapResult.getStatus()) {
+                                                case BUFFER_OVERFLOW: {
+                                                    // check to see if the send buffer is too small
+                                                    final int pktBufSize = sslEngine.getSession().getPacketBufferSize();
+                                                    if (sendBuffer.capacity() < pktBufSize) {
+                                                        log.tracef("Send buffer is too small; resizing from %s", sendBuffer);
+                                                        // our send buffer is too small.  Reallocate and retry the wrap
+                                                        log.tracef("Send buffer resized to %s", growSendBuffer(pktBufSize));
+                                                        continue;
+                                                    }
+                                                    // send buffer is not too small, it just doesn't have enough space
+                                                    // thus we have to flush the send buffer
+                                                    sendBuffer.flip();
+                                                    try {
+                                                        log.tracef("Send buffer has insufficient space, flushing");
+                                                        final int res = connectedStreamChannel.write(sendBuffer);
+                                                        if (res == 0) {
+                                                            log.tracef("Channel is not writable, set needsWrap = true");
+                                                            // the channel is not readable until it's writable, what a pain in the ass :(
+                                                            needsWrap = true;
+                                                            return 0;
+                                                        }
+                                                    } finally {
+                                                        sendBuffer.compact();
+                                                    }
+                                                    // OK, we made some space, retry the wrap
+                                                    continue WRAP;
                                                 }
-                                                // send buffer is not too small, it just doesn't have enough space
-                                                // thus we have to flush the send buffer
-                                                sendBuffer.flip();
-                                                try {
-                                                    log.tracef("Send buffer has insufficient space, flushing");
-                                                    final int res = connectedStreamChannel.write(sendBuffer);
-                                                    if (res == 0) {
+                                                case OK: {
+                                                    if (wrapResult.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                                                        // more of this flight to go (e.g. Finished after ChangeCipherSpec)
+                                                        continue WRAP;
+                                                    }
+                                                    // the peer cannot answer until it has our handshake data
+                                                    if (! sendPending()) {
                                                         log.tracef("Channel is not writable, set needsWrap = true");
-                                                        // the channel is not readable until it's writable, what a pain in the ass :(
                                                         needsWrap = true;
                                                         return 0;
                                                     }
-                                                } finally {
-                                                    sendBuffer.compact();
+                                                    log.tracef("Wrap successful, continuing unwrap");
+                                                    // OK, the path is clear! try the read again.
+                                                    needsWrap = false;
+                                                    continue UNWRAP;
+                                                }
+                                                default: {
+                                                    throw new IOException("Unexpected status of " + wrapResult.getStatus() + " while wrapping for an unwrap");
                                                 }
-                                                // OK, we made some space, retry the wrap
-                                                continue WRAP;
-                                            }
-                                            case OK: {
-                                                log.tracef("Wrap successful, continuing unwrap");
-                                                // OK, the path is clear! try the read again.
-                                                needsWrap = false;
-                                                continue UNWRAP;
-                                            }
-                                            default: {
-                                                throw new IOException("Unexpected status of " + wrapResult.getStatus() + " while wrapping for an unwrap");
                                             }
+                                            // not reached
                                         }
-                                        // not reached
+                                    } finally {
+                                        releaseSendBuffer();
+                                        writeLock.unlock();
                                     }
                                     // not reached
                                 }
@@ -982,7 +1568,8 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
             }
             // not reached
         } finally {
-            mainLock.unlock();
+            releaseReadBuffers();
+            readLock.unlock();
         }
         // not reached
     }
@@ -994,27 +1581,38 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
     private class WriteListener implements ChannelListener<ConnectedStreamChannel> {
 
         public void handleEvent(final ConnectedStreamChannel channel) {
+            if (tasksState != TASKS_IDLE) {
+                // nothing can proceed until the delegated tasks are done, so don't spin
+                channel.suspendWrites();
+                return;
+            }
             boolean runRead = false;
             boolean runWrite = false;
-            final Lock mainLock = ConnectedSslStreamChannelImpl.this.mainLock;
-            mainLock.lock();
-            try {
-                if (needsWrap) {
+            if (needsWrap) {
+                final Lock readLock = ConnectedSslStreamChannelImpl.this.readLock;
+                readLock.lock();
+                try {
                     readAwaiters.signalAll();
+                    if (userReads) {
+                        userReads = false;
+                        runRead = true;
+                    }
+                } finally {
+                    readLock.unlock();
                 }
-                if (! needsUnwrap) {
+            }
+            if (! needsUnwrap) {
+                final Lock writeLock = ConnectedSslStreamChannelImpl.this.writeLock;
+                writeLock.lock();
+                try {
                     writeAwaiters.signalAll();
                     if (userWrites) {
                         userWrites = false;
                         runWrite = true;
                     }
+                } finally {
+                    writeLock.unlock();
                 }
-                if (userReads && needsWrap) {
-                    userReads = false;
-                    runRead = true;
-                }
-            } finally {
-                mainLock.unlock();
             }
             if (runRead) runReadListener();
             if (runWrite) runWriteListener();
@@ -1024,27 +1622,38 @@ final class ConnectedSslStreamChannelImpl implements ConnectedSslStreamChannel {
     private class ReadListener implements ChannelListener<ConnectedStreamChannel> {
 
         public void handleEvent(final ConnectedStreamChannel channel) {
+            if (tasksState != TASKS_IDLE) {
+                // nothing can proceed until the delegated tasks are done, so don't spin
+                channel.suspendReads();
+                return;
+            }
             boolean runRead = false;
             boolean runWrite = false;
-            final Lock mainLock = ConnectedSslStreamChannelImpl.this.mainLock;
-            mainLock.lock();
-            try {
-                if (needsUnwrap) {
+            if (needsUnwrap) {
+                final Lock writeLock = ConnectedSslStreamChannelImpl.this.writeLock;
+                writeLock.lock();
+                try {
                     writeAwaiters.signalAll();
+                    if (userWrites) {
+                        userWrites = false;
+                        runWrite = true;
+                    }
+                } finally {
+                    writeLock.unlock();
                 }
-                if (! needsWrap) {
+            }
+            if (! needsWrap) {
+                final Lock readLock = ConnectedSslStreamChannelImpl.this.readLock;
+                readLock.lock();
+                try {
                     readAwaiters.signalAll();
                     if (userReads) {
                         userReads = false;
                         runRead = true;
                     }
+                } finally {
+                    readLock.unlock();
                 }
-                if (userWrites && needsUnwrap) {
-                    userWrites = false;
-                    runWrite = true;
-                }
-            } finally {
-                mainLock.unlock();
             }
             if (runRead) runReadListener();
             if (runWrite) runWriteListener();
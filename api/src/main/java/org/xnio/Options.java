@@ -70,6 +70,27 @@ public final class Options {
      */
     public static final Option<Integer> SEND_BUFFER = Option.simple(Options.class, "SEND_BUFFER", Integer.class);
 
+    /**
+     * Specify that output should be buffered.  Small writes to a corked channel are gathered into a buffer, which is
+     * written out when it fills up, when the channel is flushed, or (for writes made from the channel's write thread)
+     * once the thread has finished its current round of events.  If that last flush cannot send all the buffered
+     * bytes, writes are resumed, and the write listener should call {@code flush()} to send the rest.  Closing the
+     * channel makes a single non-blocking attempt to send the buffered bytes and drops whatever the socket does not
+     * take, so flush a corked channel before closing it to be sure all of its data is sent.  The value type for this
+     * option is {@code boolean}.
+     *
+     * @since 3.0
+     */
+    public static final Option<Boolean> CORK = Option.simple(Options.class, "CORK", Boolean.class);
+
+    /**
+     * The number of write system calls which a corked channel has avoided by gathering writes.  This option is
+     * read-only.
+     *
+     * @since 3.0
+     */
+    public static final Option<Long> SAVED_WRITE_COUNT = Option.simple(Options.class, "SAVED_WRITE_COUNT", Long.class);
+
     /**
      * Configure a TCP socket to disable Nagle's algorithm.  The value type for this option is {@code boolean}.
      */
@@ -80,6 +101,22 @@ public final class Options {
      */
     public static final Option<Integer> MULTICAST_TTL = Option.simple(Options.class, "MULTICAST_TTL", Integer.class);
 
+    /**
+     * The number of recently seen peer addresses which a datagram channel remembers, so that datagrams from the same
+     * peer report the same source address object.  The value type for this option is {@code int}; 0 disables the cache.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> RECEIVE_ADDRESS_CACHE = Option.simple(Options.class, "RECEIVE_ADDRESS_CACHE", Integer.class);
+
+    /**
+     * The number of received datagrams whose source address was found in the receive address cache.  This option is
+     * read-only.
+     *
+     * @since 3.0
+     */
+    public static final Option<Long> RECEIVE_ADDRESS_CACHE_HIT_COUNT = Option.simple(Options.class, "RECEIVE_ADDRESS_CACHE_HIT_COUNT", Long.class);
+
     /**
      * Set the IP traffic class/type-of-service for the channel.  The value type for this option is {@code int}.
      */
@@ -110,6 +147,39 @@ public final class Options {
      */
     public static final Option<Boolean> MANAGE_CONNECTIONS = Option.simple(Options.class, "MANAGE_CONNECTIONS", Boolean.class);
 
+    /**
+     * The high water mark for a server's connections.  Once this number of connections have been accepted and are
+     * still open, accepts will be suspended for that server.  For a server which accepts on several threads, the
+     * mark applies to each thread's acceptor separately.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> CONNECTION_HIGH_WATER = Option.simple(Options.class, "CONNECTION_HIGH_WATER", Integer.class);
+
+    /**
+     * The low water mark for a server's connections.  Once the number of active connections have dropped below this
+     * number, accepts can be resumed for that server.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> CONNECTION_LOW_WATER = Option.simple(Options.class, "CONNECTION_LOW_WATER", Integer.class);
+
+    /**
+     * The number of connections accepted by a server which are still open.  This option is read-only.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> CONNECTION_COUNT = Option.simple(Options.class, "CONNECTION_COUNT", Integer.class);
+
+    /**
+     * The number of times a server has reached its connection high water mark and suspended accepts.  Connections
+     * which arrive while accepts are suspended are not refused; they wait in the backlog until the connection count
+     * drops to the low water mark.  This option is read-only.
+     *
+     * @since 3.0
+     */
+    public static final Option<Long> CONNECTION_LIMITED_COUNT = Option.simple(Options.class, "CONNECTION_LIMITED_COUNT", Long.class);
+
     /**
      * The number of read threads to create.
      *
@@ -197,21 +267,25 @@ public final class Options {
     public static final Option<String> SSL_PROVIDER = Option.simple(Options.class, "SSL_PROVIDER", String.class);
 
     /**
-     * Specify the protocol name for an SSL context.
+     * Specify the protocol name for an SSL context.  The context is initialized with the key and trust stores named by
+     * the standard {@code javax.net.ssl} system properties, as the default context is.
      *
      * @since 2.1
      */
     public static final Option<String> SSL_PROTOCOL = Option.simple(Options.class, "SSL_PROTOCOL", String.class);
 
     /**
-     * Specify the SSL send buffer size.
+     * Specify the SSL send buffer size.  SSL channels borrow their send buffers from a shared pool of direct buffers
+     * of this size, and return them whenever they are empty.  If the size is smaller than the SSL session requires,
+     * an unpooled buffer is used instead.
      *
      * @since 2.0
      */
     public static final Option<Integer> SSL_SEND_BUFFER = Option.simple(Options.class, "SSL_SEND_BUFFER", Integer.class);
 
     /**
-     * Specify the SSL receive buffer size.
+     * Specify the SSL receive buffer size.  SSL channels borrow their receive and application read buffers from a
+     * shared pool of direct buffers of this size, and return them whenever they are empty.
      *
      * @since 2.0
      */
@@ -231,6 +305,41 @@ public final class Options {
      */
     public static final Option<Boolean> SSL_USE_CLIENT_MODE = Option.simple(Options.class, "SSL_USE_CLIENT_MODE", Boolean.class);
 
+    /**
+     * Specify the maximum number of client SSL sessions to keep for resumption, or {@code 0} for no limit.  Connections
+     * which set this option or {@link #SSL_CLIENT_SESSION_TIMEOUT} share a session cache of their own rather than that
+     * of the JVM-wide default SSL context.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> SSL_CLIENT_SESSION_CACHE_SIZE = Option.simple(Options.class, "SSL_CLIENT_SESSION_CACHE_SIZE", Integer.class);
+
+    /**
+     * Specify how long a cached client SSL session may be resumed, in seconds, or {@code 0} for no limit.
+     *
+     * @see #SSL_CLIENT_SESSION_CACHE_SIZE
+     * @since 3.0
+     */
+    public static final Option<Integer> SSL_CLIENT_SESSION_TIMEOUT = Option.simple(Options.class, "SSL_CLIENT_SESSION_TIMEOUT", Integer.class);
+
+    /**
+     * Specify the maximum number of handshakes which an SSL server runs at once.  Further accepted connections wait,
+     * with reads on their TCP channel suspended, until a running handshake completes or its connection is closed.
+     * By default there is no limit.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> SSL_MAX_CONCURRENT_HANDSHAKES = Option.simple(Options.class, "SSL_MAX_CONCURRENT_HANDSHAKES", Integer.class);
+
+    /**
+     * Specify the time, in milliseconds, within which a connection accepted by an SSL server must complete its
+     * handshake; a connection which does not is closed.  The time includes any wait for admission.  By default there
+     * is no timeout.
+     *
+     * @since 3.0
+     */
+    public static final Option<Integer> SSL_HANDSHAKE_TIMEOUT = Option.simple(Options.class, "SSL_HANDSHAKE_TIMEOUT", Integer.class);
+
     /**
      * Determine whether the channel is encrypted, or employs some other level of security.  The interpretation of this flag
      * is specific to the channel in question; however, whatever the channel type, this flag is generally read-only.
@@ -316,4 +425,20 @@ public final class Options {
      * The file access mode to use when opening a file.
      */
     public static final Option<FileAccess> FILE_ACCESS = Option.simple(Options.class, "FILE_ACCESS", FileAccess.class);
+
+    /**
+     * The number of bytes a channel listener may move in the handling of one event on a channel thread before it should
+     * yield to other channels.  See {@link ChannelThread#consumeQuota(long)}.
+     *
+     * @since 3.0
+     */
+    public static final Option<Long> EVENT_BYTE_QUOTA = Option.simple(Options.class, "EVENT_BYTE_QUOTA", Long.class);
+
+    /**
+     * The time in microseconds which a channel listener may spend in the handling of one event on a channel thread
+     * before it should yield to other channels.  See {@link ChannelThread#consumeQuota(long)}.
+     *
+     * @since 3.0
+     */
+    public static final Option<Long> EVENT_TIME_QUOTA = Option.simple(Options.class, "EVENT_TIME_QUOTA", Long.class);
 }
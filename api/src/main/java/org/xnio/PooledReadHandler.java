@@ -0,0 +1,65 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.util.EventListener;
+
+/**
+ * A handler for data read on behalf of a channel into pooled buffers.  Such a handler is driven by a read listener
+ * created with {@link ChannelListeners#pooledReadListener(Pool, Pool, PooledReadHandler)}, which only borrows a
+ * buffer when the channel is readable, so that idle channels hold no buffer memory.
+ *
+ * @param <T> the channel type
+ *
+ * @since 3.0
+ */
+public interface PooledReadHandler<T extends Channel> extends EventListener {
+
+    /**
+     * Handle data read from the channel.  The buffer is flipped and ready to be consumed.  Ownership of the pooled
+     * buffer passes to the handler, which must free or discard it when it is done with it.  If the handler suspends
+     * reads or closes the channel, no more data is read until reads are resumed.
+     *
+     * @param channel the channel that was read from
+     * @param buffer the buffer containing the data read
+     */
+    void handleRead(T channel, Pooled<ByteBuffer> buffer);
+
+    /**
+     * Handle the end of the input stream.  Reads are suspended before this method is called.
+     *
+     * @param channel the channel that was read from
+     */
+    void handleEof(T channel);
+
+    /**
+     * Handle a read failure.  Reads are suspended before this method is called.
+     *
+     * @param channel the channel that was read from
+     * @param exception the exception that occurred
+     */
+    void handleException(T channel, IOException exception);
+}
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Handshake counters for the SSL channels of an XNIO provider.  A handshake is counted as resumed if it reused an
+ * SSL session which was established before the handshake began, which saves the key exchange of a full handshake.
+ * This holds for TLS 1.3 as well, where the resumed session is a copy carrying the original session's creation time.
+ * Note that a TLS 1.3 server hands out its session ticket only after the handshake, so a client which never reads
+ * from its connection never receives one, and its next connection does a full handshake.
+ * Servers which limit their concurrent handshakes also count the handshakes which had to wait for admission, and
+ * servers with a handshake timeout count the handshakes which timed out.
+ *
+ * @see Xnio#getSslHandshakeStatistics()
+ */
+public final class SslHandshakeStatistics {
+
+    private volatile long handshakeCount;
+    private volatile long resumedCount;
+    private volatile long queuedCount;
+    private volatile long timedOutCount;
+
+    private static final AtomicLongFieldUpdater<SslHandshakeStatistics> handshakeCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatistics.class, "handshakeCount");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatistics> resumedCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatistics.class, "resumedCount");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatistics> queuedCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatistics.class, "queuedCount");
+    private static final AtomicLongFieldUpdater<SslHandshakeStatistics> timedOutCountUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeStatistics.class, "timedOutCount");
+
+    SslHandshakeStatistics() {
+    }
+
+    void handshakeCompleted(final boolean resumed) {
+        handshakeCountUpdater.incrementAndGet(this);
+        if (resumed) {
+            resumedCountUpdater.incrementAndGet(this);
+        }
+    }
+
+    void handshakeQueued() {
+        queuedCountUpdater.incrementAndGet(this);
+    }
+
+    void handshakeTimedOut() {
+        timedOutCountUpdater.incrementAndGet(this);
+    }
+
+    /**
+     * Get the number of completed initial handshakes.
+     *
+     * @return the number of completed handshakes
+     */
+    public long getHandshakeCount() {
+        return handshakeCount;
+    }
+
+    /**
+     * Get the number of completed handshakes which resumed an existing session.  A resumed session is recognized by
+     * its creation time, which is that of the original session under TLS 1.3 as well as earlier protocols.
+     *
+     * @return the number of resumed handshakes
+     */
+    public long getResumedHandshakeCount() {
+        return resumedCount;
+    }
+
+    /**
+     * Get the number of completed handshakes which established a new session.
+     *
+     * @return the number of full handshakes
+     */
+    public long getFullHandshakeCount() {
+        // read the resumed count first so that a concurrent update cannot make the result negative
+        final long resumed = resumedCount;
+        return handshakeCount - resumed;
+    }
+
+    /**
+     * Get the fraction of completed handshakes which resumed an existing session.
+     *
+     * @return the resumption rate, between {@code 0.0} and {@code 1.0}
+     */
+    public double getResumptionRate() {
+        final long resumed = resumedCount;
+        final long handshakes = handshakeCount;
+        return handshakes == 0L ? 0.0 : (double) resumed / (double) handshakes;
+    }
+
+    /**
+     * Get the number of handshakes which could not start when their connection was accepted, because the server's
+     * {@linkplain Options#SSL_MAX_CONCURRENT_HANDSHAKES maximum} number of handshakes were already in progress, and
+     * which were queued instead.
+     *
+     * @return the number of queued handshakes
+     */
+    public long getQueuedHandshakeCount() {
+        return queuedCount;
+    }
+
+    /**
+     * Get the number of handshakes whose connection was closed because they did not complete within the server's
+     * {@linkplain Options#SSL_HANDSHAKE_TIMEOUT handshake timeout}.
+     *
+     * @return the number of timed out handshakes
+     */
+    public long getTimedOutHandshakeCount() {
+        return timedOutCount;
+    }
+
+    /**
+     * Get a string representation of this object.
+     *
+     * @return the string
+     */
+    public String toString() {
+        return "SSL handshake statistics: " + handshakeCount + " handshakes, " + resumedCount + " resumed, " + queuedCount + " queued, " + timedOutCount + " timed out";
+    }
+}
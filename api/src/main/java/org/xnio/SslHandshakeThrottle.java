@@ -0,0 +1,108 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Admission control for the handshakes of the connections accepted by an SSL server.  At most a fixed number of
+ * handshakes are in flight at once; channels beyond that wait in arrival order, and are admitted as running handshakes
+ * complete or their channels are closed.
+ */
+final class SslHandshakeThrottle {
+
+    private final int maxHandshakes;
+    private final SslHandshakeStatistics statistics;
+    private final Queue<ConnectedSslStreamChannelImpl> waiting = new ConcurrentLinkedQueue<ConnectedSslStreamChannelImpl>();
+
+    private volatile int inFlight;
+
+    private static final AtomicIntegerFieldUpdater<SslHandshakeThrottle> inFlightUpdater = AtomicIntegerFieldUpdater.newUpdater(SslHandshakeThrottle.class, "inFlight");
+
+    SslHandshakeThrottle(final int maxHandshakes, final SslHandshakeStatistics statistics) {
+        if (maxHandshakes < 1) {
+            throw new IllegalArgumentException("Maximum concurrent handshakes must be at least 1");
+        }
+        this.maxHandshakes = maxHandshakes;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Admit the handshake of a newly accepted channel, or queue the channel if too many handshakes are in flight.
+     *
+     * @param channel the channel, which must be awaiting admission
+     */
+    void acquire(final ConnectedSslStreamChannelImpl channel) {
+        if (tryAcquire()) {
+            channel.admitHandshake();
+            return;
+        }
+        statistics.handshakeQueued();
+        waiting.add(channel);
+        // a handshake may have completed before the channel was queued
+        admitWaiting();
+    }
+
+    /**
+     * Release the slot of a completed or abandoned handshake, admitting a waiting channel if there is one.
+     */
+    void release() {
+        inFlightUpdater.decrementAndGet(this);
+        admitWaiting();
+    }
+
+    /**
+     * Remove a closed channel which is still waiting for admission.
+     *
+     * @param channel the channel
+     */
+    void remove(final ConnectedSslStreamChannelImpl channel) {
+        waiting.remove(channel);
+    }
+
+    private boolean tryAcquire() {
+        int n;
+        do {
+            n = inFlight;
+            if (n >= maxHandshakes) {
+                return false;
+            }
+        } while (! inFlightUpdater.compareAndSet(this, n, n + 1));
+        return true;
+    }
+
+    private void admitWaiting() {
+        final Queue<ConnectedSslStreamChannelImpl> waiting = this.waiting;
+        while (! waiting.isEmpty() && tryAcquire()) {
+            final ConnectedSslStreamChannelImpl channel = waiting.poll();
+            if (channel == null) {
+                // another thread admitted the last one
+                inFlightUpdater.decrementAndGet(this);
+                continue;
+            }
+            channel.admitHandshake();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A bounded executor for the delegated tasks of an {@code SSLEngine}.  Handshake tasks, such as key exchange
+ * computations, are run on a small set of worker threads rather than on a channel thread.  The task queue is bounded;
+ * once it is full, {@link #execute(Runnable)} throws {@link RejectedExecutionException}, and SSL channels defer their
+ * handshake until there is room again rather than blocking their channel thread.
+ */
+public final class SslTaskExecutor implements Executor {
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile long executedCount;
+    private volatile long rejectedCount;
+    private volatile long totalWaitTime;
+    private volatile long totalRunTime;
+
+    private static final AtomicLongFieldUpdater<SslTaskExecutor> executedCountUpdater = AtomicLongFieldUpdater.newUpdater(SslTaskExecutor.class, "executedCount");
+    private static final AtomicLongFieldUpdater<SslTaskExecutor> rejectedCountUpdater = AtomicLongFieldUpdater.newUpdater(SslTaskExecutor.class, "rejectedCount");
+    private static final AtomicLongFieldUpdater<SslTaskExecutor> totalWaitTimeUpdater = AtomicLongFieldUpdater.newUpdater(SslTaskExecutor.class, "totalWaitTime");
+    private static final AtomicLongFieldUpdater<SslTaskExecutor> totalRunTimeUpdater = AtomicLongFieldUpdater.newUpdater(SslTaskExecutor.class, "totalRunTime");
+
+    /**
+     * Construct a new instance.  Idle worker threads exit after a short time.
+     *
+     * @param threadFactory the thread factory to use for worker threads
+     * @param threads the maximum number of worker threads
+     * @param queueSize the maximum number of tasks waiting for a worker thread
+     */
+    public SslTaskExecutor(final ThreadFactory threadFactory, final int threads, final int queueSize) {
+        if (threadFactory == null) {
+            throw new IllegalArgumentException("threadFactory is null");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Queue size must be at least 1");
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        this.executor = executor;
+    }
+
+    /**
+     * Execute a delegated task.
+     *
+     * @param command the task
+     * @throws RejectedExecutionException if the queue is full or the executor has been shut down
+     */
+    public void execute(final Runnable command) throws RejectedExecutionException {
+        final long queued = System.nanoTime();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    final long start = System.nanoTime();
+                    totalWaitTimeUpdater.addAndGet(SslTaskExecutor.this, start - queued);
+                    try {
+                        command.run();
+                    } finally {
+                        totalRunTimeUpdater.addAndGet(SslTaskExecutor.this, System.nanoTime() - start);
+                        executedCountUpdater.incrementAndGet(SslTaskExecutor.this);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCountUpdater.incrementAndGet(this);
+            throw e;
+        }
+    }
+
+    /**
+     * Get the number of tasks currently waiting for a worker thread.
+     *
+     * @return the number of queued tasks
+     */
+    public int getQueuedTaskCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Get the number of tasks currently running.
+     *
+     * @return the number of running tasks
+     */
+    public int getActiveTaskCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the number of tasks which have been run to completion.
+     *
+     * @return the number of executed tasks
+     */
+    public long getExecutedTaskCount() {
+        return executedCount;
+    }
+
+    /**
+     * Get the number of tasks which were rejected because the queue was full or the executor was shut down.
+     *
+     * @return the number of rejected tasks
+     */
+    public long getRejectedTaskCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * Get the total time that executed tasks spent waiting in the queue.
+     *
+     * @param unit the time unit of the result
+     * @return the total wait time
+     */
+    public long getTotalWaitTime(final TimeUnit unit) {
+        return unit.convert(totalWaitTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Get the total time spent running tasks.
+     *
+     * @param unit the time unit of the result
+     * @return the total run time
+     */
+    public long getTotalRunTime(final TimeUnit unit) {
+        return unit.convert(totalRunTime, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Shut down this executor.  Queued tasks are still run; new tasks are rejected.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for this executor to terminate after it has been shut down.
+     *
+     * @param time the maximum time to wait
+     * @param unit the time unit
+     * @return {@code true} if the executor terminated, {@code false} if the time elapsed first
+     * @throws InterruptedException if the current thread was interrupted while waiting
+     */
+    public boolean awaitTermination(final long time, final TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(time, unit);
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import org.xnio.channels.ConnectedStreamChannel;
+
+/**
+ * A pool of outbound stream connections, keyed by destination address.  Connections are established through a
+ * {@link Connector} (such as one returned by {@link Xnio#createStreamConnector(SocketAddress, ConnectionChannelThread, ReadChannelThread, WriteChannelThread, OptionMap)})
+ * and are leased to one user at a time.  A leased connection must be given back with {@link #release(ConnectedStreamChannel)}
+ * if it may be reused, or with {@link #discard(ConnectedStreamChannel)} if it may not.
+ * <p>
+ * At most {@code maxPerHost} connections (idle, leased, or being established) exist for each destination; further
+ * lease requests wait for a connection to be released.  Idle connections are closed after the idle timeout, which is
+ * timed by each connection's read thread, and are checked for a closed or misbehaving peer before they are leased
+ * again.
+ */
+public final class StreamConnectionPool implements Closeable {
+
+    private final Connector<ConnectedStreamChannel> connector;
+    private final int maxPerHost;
+    private final long idleTimeout;
+    private final ConcurrentMap<SocketAddress, Host> hosts = new ConcurrentHashMap<SocketAddress, Host>();
+    private final Map<ConnectedStreamChannel, Host> leased = Collections.synchronizedMap(new IdentityHashMap<ConnectedStreamChannel, Host>());
+    private volatile boolean closed;
+
+    @SuppressWarnings("unused")
+    private volatile long hitCount;
+    @SuppressWarnings("unused")
+    private volatile long missCount;
+    @SuppressWarnings("unused")
+    private volatile long evictionCount;
+
+    private static final AtomicLongFieldUpdater<StreamConnectionPool> hitCountUpdater = AtomicLongFieldUpdater.newUpdater(StreamConnectionPool.class, "hitCount");
+    private static final AtomicLongFieldUpdater<StreamConnectionPool> missCountUpdater = AtomicLongFieldUpdater.newUpdater(StreamConnectionPool.class, "missCount");
+    private static final AtomicLongFieldUpdater<StreamConnectionPool> evictionCountUpdater = AtomicLongFieldUpdater.newUpdater(StreamConnectionPool.class, "evictionCount");
+
+    /**
+     * Construct a new instance.
+     *
+     * @param connector the connector to use to establish new connections
+     * @param maxPerHost the maximum number of connections to each destination
+     * @param idleTimeout the time in milliseconds after which an idle connection is closed, or 0 to keep idle
+     *      connections until the pool is closed
+     */
+    public StreamConnectionPool(final Connector<ConnectedStreamChannel> connector, final int maxPerHost, final long idleTimeout) {
+        if (connector == null) {
+            throw new IllegalArgumentException("connector is null");
+        }
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be at least 1");
+        }
+        if (idleTimeout < 0L) {
+            throw new IllegalArgumentException("idleTimeout is negative");
+        }
+        this.connector = connector;
+        this.maxPerHost = maxPerHost;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Lease a connection to the given destination.  An idle connection is reused if a healthy one is available;
+     * otherwise a new connection is established if the per-destination limit allows, and if not, the request waits
+     * until another lease on the destination ends.  Cancelling the returned future abandons the request.
+     *
+     * @param destination the destination address
+     * @return the future leased connection
+     */
+    public IoFuture<ConnectedStreamChannel> acquire(final SocketAddress destination) {
+        if (destination == null) {
+            throw new IllegalArgumentException("destination is null");
+        }
+        if (closed) {
+            return new FailedIoFuture<ConnectedStreamChannel>(new IOException("Connection pool is closed"));
+        }
+        final Host host = getHost(destination);
+        for (;;) {
+            final ConnectedStreamChannel channel;
+            final FutureResult<ConnectedStreamChannel> futureResult;
+            synchronized (host) {
+                final Idle idle = host.idle.pollLast();
+                if (idle != null) {
+                    idle.key.remove();
+                    channel = idle.channel;
+                    futureResult = null;
+                } else {
+                    channel = null;
+                    futureResult = new FutureResult<ConnectedStreamChannel>();
+                    if (host.count < maxPerHost) {
+                        host.count++;
+                    } else {
+                        host.waiters.add(futureResult);
+                        futureResult.addCancelHandler(new Cancellable() {
+                            public Cancellable cancel() {
+                                synchronized (host) {
+                                    host.waiters.remove(futureResult);
+                                }
+                                futureResult.setCancelled();
+                                return this;
+                            }
+                        });
+                        return futureResult.getIoFuture();
+                    }
+                }
+            }
+            if (futureResult != null) {
+                missCountUpdater.getAndIncrement(this);
+                connect(host, futureResult);
+                return futureResult.getIoFuture();
+            }
+            if (isHealthy(channel)) {
+                hitCountUpdater.getAndIncrement(this);
+                leased.put(channel, host);
+                return new FinishedIoFuture<ConnectedStreamChannel>(channel);
+            }
+            IoUtils.safeClose(channel);
+            connectionLost(host);
+            if (closed) {
+                return new FailedIoFuture<ConnectedStreamChannel>(new IOException("Connection pool is closed"));
+            }
+        }
+    }
+
+    /**
+     * End the lease on a connection, making it available for reuse.  Reads and writes on the connection are suspended.
+     * If the connection has been closed, or the pool has been closed, the connection is discarded instead.
+     *
+     * @param channel the leased connection
+     * @throws IllegalArgumentException if the connection is not leased from this pool
+     */
+    public void release(final ConnectedStreamChannel channel) {
+        final Host host = leased.remove(channel);
+        if (host == null) {
+            throw new IllegalArgumentException("Channel is not leased from this pool");
+        }
+        if (closed || ! channel.isOpen()) {
+            IoUtils.safeClose(channel);
+            connectionLost(host);
+            return;
+        }
+        channel.suspendReads();
+        channel.suspendWrites();
+        for (;;) {
+            final FutureResult<ConnectedStreamChannel> waiter;
+            synchronized (host) {
+                if (closed) {
+                    // close() may already have emptied this host, and would never see a connection parked now
+                    waiter = null;
+                } else {
+                    waiter = host.waiters.poll();
+                    if (waiter == null) {
+                        final Idle idle = new Idle(host, channel);
+                        final ReadChannelThread thread = channel.getReadThread();
+                        if (idleTimeout > 0L && thread != null) {
+                            try {
+                                idle.key = thread.executeAfter(idle, idleTimeout);
+                            } catch (RejectedExecutionException e) {
+                                // the read thread is shutting down, so the connection cannot be kept
+                                idle.key = null;
+                            }
+                        }
+                        if (idle.key != null) {
+                            host.idle.addLast(idle);
+                            return;
+                        }
+                    }
+                }
+            }
+            if (waiter == null) {
+                IoUtils.safeClose(channel);
+                connectionLost(host);
+                return;
+            }
+            hitCountUpdater.getAndIncrement(this);
+            leased.put(channel, host);
+            if (waiter.setResult(channel)) {
+                return;
+            }
+            // the waiter was cancelled meanwhile
+            leased.remove(channel);
+        }
+    }
+
+    /**
+     * End the lease on a connection which must not be reused, closing it.
+     *
+     * @param channel the leased connection
+     * @throws IllegalArgumentException if the connection is not leased from this pool
+     */
+    public void discard(final ConnectedStreamChannel channel) {
+        final Host host = leased.remove(channel);
+        if (host == null) {
+            throw new IllegalArgumentException("Channel is not leased from this pool");
+        }
+        IoUtils.safeClose(channel);
+        connectionLost(host);
+    }
+
+    /**
+     * Close this pool.  Idle connections are closed, waiting lease requests fail, and connections which are released
+     * from now on are closed.
+     */
+    public void close() {
+        closed = true;
+        final List<ConnectedStreamChannel> channels = new ArrayList<ConnectedStreamChannel>();
+        final List<FutureResult<ConnectedStreamChannel>> waiters = new ArrayList<FutureResult<ConnectedStreamChannel>>();
+        for (Host host : hosts.values()) {
+            synchronized (host) {
+                Idle idle;
+                while ((idle = host.idle.poll()) != null) {
+                    idle.key.remove();
+                    channels.add(idle.channel);
+                    host.count--;
+                }
+                waiters.addAll(host.waiters);
+                host.waiters.clear();
+            }
+        }
+        for (ConnectedStreamChannel channel : channels) {
+            IoUtils.safeClose(channel);
+        }
+        for (FutureResult<ConnectedStreamChannel> waiter : waiters) {
+            waiter.setException(new IOException("Connection pool is closed"));
+        }
+    }
+
+    /**
+     * Get the number of leases which were satisfied by a pooled connection.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of leases which required a new connection to be established.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of idle connections which were closed because their idle timeout expired.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the number of connections to the given destination which are currently idle in this pool.
+     *
+     * @param destination the destination address
+     * @return the idle connection count
+     */
+    public int getIdleCount(final SocketAddress destination) {
+        final Host host = hosts.get(destination);
+        if (host == null) {
+            return 0;
+        }
+        synchronized (host) {
+            return host.idle.size();
+        }
+    }
+
+    private Host getHost(final SocketAddress destination) {
+        final Host host = hosts.get(destination);
+        if (host != null) {
+            return host;
+        }
+        final Host newHost = new Host(destination);
+        final Host appearing = hosts.putIfAbsent(destination, newHost);
+        return appearing == null ? newHost : appearing;
+    }
+
+    private void connect(final Host host, final FutureResult<ConnectedStreamChannel> futureResult) {
+        final IoFuture<ConnectedStreamChannel> future;
+        try {
+            future = connector.connectTo(host.destination, null, null);
+        } catch (RuntimeException e) {
+            connectionLost(host);
+            throw e;
+        }
+        futureResult.addCancelHandler(future);
+        future.addNotifier(new IoFuture.HandlingNotifier<ConnectedStreamChannel, FutureResult<ConnectedStreamChannel>>() {
+            public void handleCancelled(final FutureResult<ConnectedStreamChannel> result) {
+                result.setCancelled();
+                connectionLost(host);
+            }
+
+            public void handleFailed(final IOException exception, final FutureResult<ConnectedStreamChannel> result) {
+                result.setException(exception);
+                connectionLost(host);
+            }
+
+            public void handleDone(final ConnectedStreamChannel channel, final FutureResult<ConnectedStreamChannel> result) {
+                leased.put(channel, host);
+                if (! result.setResult(channel)) {
+                    // the request was cancelled too late; keep the connection for someone else
+                    release(channel);
+                }
+            }
+        }, futureResult);
+    }
+
+    /**
+     * Account for a connection to the host which no longer exists, and establish a replacement for a waiting lease
+     * request if there is one.
+     */
+    private void connectionLost(final Host host) {
+        final FutureResult<ConnectedStreamChannel> waiter;
+        synchronized (host) {
+            host.count--;
+            waiter = host.waiters.poll();
+            if (waiter == null) {
+                return;
+            }
+            host.count++;
+        }
+        missCountUpdater.getAndIncrement(this);
+        connect(host, waiter);
+    }
+
+    /**
+     * Check an idle connection before it is leased again.  A healthy idle connection has nothing to read; if the
+     * peer has closed the connection or sent unsolicited data, the connection is not usable.
+     */
+    private static boolean isHealthy(final ConnectedStreamChannel channel) {
+        if (! channel.isOpen()) {
+            return false;
+        }
+        try {
+            final ByteBuffer probe = HEALTH_PROBE.get();
+            probe.clear();
+            return channel.read(probe) == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The target of health check reads, whose contents are never looked at.  Each thread has its own, because a
+     * shared buffer filled by another thread's read would make a read here return 0 without touching the socket.
+     */
+    private static final ThreadLocal<ByteBuffer> HEALTH_PROBE = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(1);
+        }
+    };
+
+    private static final class Host {
+        private final SocketAddress destination;
+        private final ArrayDeque<Idle> idle = new ArrayDeque<Idle>();
+        private final ArrayDeque<FutureResult<ConnectedStreamChannel>> waiters = new ArrayDeque<FutureResult<ConnectedStreamChannel>>();
+        // protected by "this"
+        private int count;
+
+        Host(final SocketAddress destination) {
+            this.destination = destination;
+        }
+    }
+
+    private final class Idle implements Runnable {
+        private final Host host;
+        private final ConnectedStreamChannel channel;
+        // protected by host
+        private ChannelThread.Key key = ChannelThread.Key.IMMEDIATE;
+
+        Idle(final Host host, final ConnectedStreamChannel channel) {
+            this.host = host;
+            this.channel = channel;
+        }
+
+        public void run() {
+            synchronized (host) {
+                if (! host.idle.remove(this)) {
+                    // leased again meanwhile
+                    return;
+                }
+            }
+            evictionCountUpdater.getAndIncrement(StreamConnectionPool.this);
+            IoUtils.safeClose(channel);
+            connectionLost(host);
+        }
+    }
+}
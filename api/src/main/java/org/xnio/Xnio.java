@@ -23,12 +23,17 @@
 package org.xnio;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.AccessController;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.PrivilegedAction;
@@ -36,11 +41,16 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jboss.logging.Logger;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.channels.BoundChannel;
@@ -54,8 +64,13 @@ import org.xnio.channels.StreamSinkChannel;
 import org.xnio.channels.StreamSourceChannel;
 import org.xnio.channels.UnsupportedOptionException;
 
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
 
 /**
  * The XNIO provider class.
@@ -77,11 +92,46 @@ public abstract class Xnio {
         FILE_ACCESS_OPTION_MAPS = map;
     }
 
+    /**
+     * The default size of the pooled SSL send and receive buffers; enough to hold one maximum-size TLS record.
+     */
+    private static final int DEFAULT_SSL_BUFFER_SIZE = 17 * 1024;
+
+    /**
+     * The maximum number of SSL contexts to keep; the least recently used context is dropped beyond this.
+     */
+    private static final int MAX_SSL_CONTEXTS = 16;
+
     /**
      * The name of this provider instance.
      */
     private final String name;
 
+    /**
+     * The direct buffer pools for SSL channels, keyed by buffer size.
+     */
+    private final ConcurrentMap<Integer, Pool<ByteBuffer>> sslBufferPools = new ConcurrentHashMap<Integer, Pool<ByteBuffer>>();
+
+    /**
+     * The default SSL task executor, created on first use.
+     */
+    private volatile SslTaskExecutor sslTaskExecutor;
+
+    /**
+     * The SSL contexts, keyed by the options which configure them, so that SSL channels with the same configuration
+     * share one session cache.  Kept in access order, and guarded by its own monitor.
+     */
+    private final Map<SslContextKey, SSLContext> sslContexts = new LinkedHashMap<SslContextKey, SSLContext>(MAX_SSL_CONTEXTS, 0.75f, true) {
+        protected boolean removeEldestEntry(final Map.Entry<SslContextKey, SSLContext> eldest) {
+            return size() > MAX_SSL_CONTEXTS;
+        }
+    };
+
+    /**
+     * The handshake statistics of the SSL channels of this provider.
+     */
+    private final SslHandshakeStatistics sslHandshakeStatistics = new SslHandshakeStatistics();
+
     /**
      * Construct an XNIO provider instance.
      *
@@ -159,9 +209,95 @@ public abstract class Xnio {
     //
     //==================================================
 
-    static ConnectedSslStreamChannel createSslConnectedStreamChannel(final SSLContext sslContext, final ConnectedStreamChannel tcpChannel, final Executor executor, final OptionMap optionMap, final boolean server) {
-        final InetSocketAddress peerAddress = tcpChannel.getPeerAddress(InetSocketAddress.class);
-        final SSLEngine engine = sslContext.createSSLEngine(peerAddress.getHostName(), peerAddress.getPort());
+    /**
+     * Get the default executor for SSL delegated tasks, which is used when no executor is given when creating an
+     * SSL channel.  It runs tasks on one daemon thread per processor with a bounded queue.
+     *
+     * @return the default SSL task executor
+     */
+    public SslTaskExecutor getSslTaskExecutor() {
+        SslTaskExecutor executor = sslTaskExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = sslTaskExecutor;
+                if (executor == null) {
+                    final int threads = Runtime.getRuntime().availableProcessors();
+                    sslTaskExecutor = executor = new SslTaskExecutor(new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "XNIO SSL task thread " + count.incrementAndGet() + " (" + name + ")");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, threads, threads * 64);
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Get the handshake statistics of the SSL channels created by this provider.
+     *
+     * @return the handshake statistics
+     */
+    public SslHandshakeStatistics getSslHandshakeStatistics() {
+        return sslHandshakeStatistics;
+    }
+
+    /**
+     * Get the shared direct buffer pool for SSL buffers of the given size.
+     *
+     * @param size the buffer size
+     * @return the buffer pool
+     */
+    Pool<ByteBuffer> getSslBufferPool(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("SSL buffer size must be greater than zero");
+        }
+        final Integer key = Integer.valueOf(size);
+        final ConcurrentMap<Integer, Pool<ByteBuffer>> sslBufferPools = this.sslBufferPools;
+        Pool<ByteBuffer> pool = sslBufferPools.get(key);
+        if (pool == null) {
+            final Pool<ByteBuffer> newPool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, size, size * 16);
+            pool = sslBufferPools.putIfAbsent(key, newPool);
+            if (pool == null) {
+                pool = newPool;
+            }
+        }
+        return pool;
+    }
+
+    Pool<ByteBuffer> getSslSendBufferPool(final OptionMap optionMap) {
+        return getSslBufferPool(optionMap.get(Options.SSL_SEND_BUFFER, DEFAULT_SSL_BUFFER_SIZE));
+    }
+
+    Pool<ByteBuffer> getSslReceiveBufferPool(final OptionMap optionMap) {
+        return getSslBufferPool(optionMap.get(Options.SSL_RECEIVE_BUFFER, DEFAULT_SSL_BUFFER_SIZE));
+    }
+
+    /**
+     * Get the host name of an address as it was given, or its literal IP address if no name was given, without doing
+     * a reverse name lookup.
+     *
+     * @param address the address
+     * @return the host string
+     */
+    static String getHostString(final InetSocketAddress address) {
+        final InetAddress inetAddress = address.getAddress();
+        if (inetAddress == null) {
+            return address.getHostName();
+        }
+        // the string form is "name/literal", where the name is empty unless it was given or already looked up
+        final String string = inetAddress.toString();
+        final int idx = string.lastIndexOf('/');
+        return idx > 0 ? string.substring(0, idx) : inetAddress.getHostAddress();
+    }
+
+    static ConnectedSslStreamChannel createSslConnectedStreamChannel(final SSLContext sslContext, final ConnectedStreamChannel tcpChannel, final InetSocketAddress peerAddress, final Executor executor, final Pool<ByteBuffer> sendPool, final Pool<ByteBuffer> receivePool, final SslHandshakeStatistics handshakeStatistics, final OptionMap optionMap, final boolean server) {
+        // the peer host and port let the engine find a session to resume
+        final SSLEngine engine = sslContext.createSSLEngine(getHostString(peerAddress), peerAddress.getPort());
         final boolean clientMode = optionMap.get(Options.SSL_USE_CLIENT_MODE, ! server);
         engine.setUseClientMode(clientMode);
         if (! clientMode) {
@@ -202,23 +338,179 @@ public abstract class Xnio {
             }
             engine.setEnabledProtocols(finalList.toArray(new String[finalList.size()]));
         }
-        return new ConnectedSslStreamChannelImpl(tcpChannel, engine, executor);
+        return new ConnectedSslStreamChannelImpl(tcpChannel, engine, executor, sendPool, receivePool, handshakeStatistics, null);
     }
 
-    private static SSLContext getSSLContext(final OptionMap optionMap) throws NoSuchAlgorithmException, NoSuchProviderException {
-        final String provider = optionMap.get(Options.SSL_PROVIDER);
-        final String protocol = optionMap.get(Options.SSL_PROTOCOL);
+    /**
+     * Get the cached SSL context for the SSL context options in the given option map, creating it if needed.
+     *
+     * @param optionMap the option map
+     * @return the SSL context
+     * @throws NoSuchProviderException if an SSL provider was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
+     */
+    private SSLContext getSSLContext(final OptionMap optionMap) throws NoSuchAlgorithmException, NoSuchProviderException {
+        final SslContextKey key = new SslContextKey(optionMap);
+        final Map<SslContextKey, SSLContext> sslContexts = this.sslContexts;
+        SSLContext sslContext;
+        synchronized (sslContexts) {
+            sslContext = sslContexts.get(key);
+        }
+        if (sslContext != null) {
+            return sslContext;
+        }
+        // provider lookup may be slow, so create the context without holding the lock
+        final SSLContext newContext = createSSLContext(key);
+        synchronized (sslContexts) {
+            sslContext = sslContexts.get(key);
+            if (sslContext == null) {
+                sslContexts.put(key, newContext);
+                sslContext = newContext;
+            }
+        }
+        return sslContext;
+    }
+
+    private static SSLContext createSSLContext(final SslContextKey key) throws NoSuchAlgorithmException, NoSuchProviderException {
+        final String provider = key.provider;
+        final String protocol = key.protocol;
+        final Integer sessionCacheSize = key.sessionCacheSize;
+        final Integer sessionTimeout = key.sessionTimeout;
+        if (protocol == null && sessionCacheSize == null && sessionTimeout == null) {
+            return SSLContext.getDefault();
+        }
         final SSLContext sslContext;
         if (protocol == null) {
-            sslContext = SSLContext.getDefault();
-        } else if (provider == null) {
-            sslContext = SSLContext.getInstance(protocol);
+            // a separate instance of the default context, so that its session cache can be configured
+            sslContext = SSLContext.getInstance("Default");
         } else {
-            sslContext = SSLContext.getInstance(protocol, provider);
+            if (provider == null) {
+                sslContext = SSLContext.getInstance(protocol);
+            } else {
+                sslContext = SSLContext.getInstance(protocol, provider);
+            }
+            if (! "Default".equals(protocol)) {
+                // use the same key and trust material as the default context
+                // failures are reported the way SSLContext.getDefault() reports them for the default context
+                try {
+                    sslContext.init(getDefaultKeyManagers(), getDefaultTrustManagers(), null);
+                } catch (GeneralSecurityException e) {
+                    throw new NoSuchAlgorithmException("Failed to initialize SSL context", e);
+                } catch (IOException e) {
+                    throw new NoSuchAlgorithmException("Failed to load SSL key store", e);
+                }
+            }
+        }
+        final SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        if (sessionCacheSize != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize.intValue());
+        }
+        if (sessionTimeout != null) {
+            sessionContext.setSessionTimeout(sessionTimeout.intValue());
         }
         return sslContext;
     }
 
+    /**
+     * Get the key managers for the key store named by the standard {@code javax.net.ssl.keyStore},
+     * {@code javax.net.ssl.keyStoreType}, {@code javax.net.ssl.keyStoreProvider} and
+     * {@code javax.net.ssl.keyStorePassword} system properties, as the default SSL context does.
+     *
+     * @return the key managers
+     * @throws GeneralSecurityException if the key store or key manager could not be created
+     * @throws IOException if the key store could not be read
+     */
+    private static KeyManager[] getDefaultKeyManagers() throws GeneralSecurityException, IOException {
+        final String keyStoreName = getSystemProperty("javax.net.ssl.keyStore", "");
+        final String keyStoreType = getSystemProperty("javax.net.ssl.keyStoreType", KeyStore.getDefaultType());
+        final String keyStoreProvider = getSystemProperty("javax.net.ssl.keyStoreProvider", "");
+        final String keyStorePassword = getSystemProperty("javax.net.ssl.keyStorePassword", "");
+        final char[] password = keyStorePassword.length() == 0 ? null : keyStorePassword.toCharArray();
+        KeyStore keyStore = null;
+        if (keyStoreName.length() > 0) {
+            keyStore = keyStoreProvider.length() == 0 ? KeyStore.getInstance(keyStoreType) : KeyStore.getInstance(keyStoreType, keyStoreProvider);
+            if ("NONE".equals(keyStoreName)) {
+                // a key store which is not file based, such as a PKCS#11 token
+                keyStore.load(null, password);
+            } else {
+                final FileInputStream is = new FileInputStream(keyStoreName);
+                try {
+                    keyStore.load(is, password);
+                } finally {
+                    IoUtils.safeClose(is);
+                }
+            }
+        }
+        final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+        return keyManagerFactory.getKeyManagers();
+    }
+
+    /**
+     * Get the default trust managers, which use the trust store named by the standard
+     * {@code javax.net.ssl.trustStore} system properties, or the JRE's {@code cacerts} file if there is none.
+     *
+     * @return the trust managers
+     * @throws GeneralSecurityException if the trust manager could not be created
+     */
+    private static TrustManager[] getDefaultTrustManagers() throws GeneralSecurityException {
+        final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init((KeyStore) null);
+        return trustManagerFactory.getTrustManagers();
+    }
+
+    private static String getSystemProperty(final String name, final String defaultValue) {
+        final SecurityManager sm = System.getSecurityManager();
+        if (sm != null) {
+            return AccessController.doPrivileged(new GetPropertyAction(name, defaultValue));
+        } else {
+            return System.getProperty(name, defaultValue);
+        }
+    }
+
+    /**
+     * The options which select and configure an SSL context.
+     */
+    private static final class SslContextKey {
+        private final String provider;
+        private final String protocol;
+        private final Integer sessionCacheSize;
+        private final Integer sessionTimeout;
+        private final int hashCode;
+
+        SslContextKey(final OptionMap optionMap) {
+            provider = optionMap.get(Options.SSL_PROVIDER);
+            protocol = optionMap.get(Options.SSL_PROTOCOL);
+            sessionCacheSize = optionMap.get(Options.SSL_CLIENT_SESSION_CACHE_SIZE);
+            sessionTimeout = optionMap.get(Options.SSL_CLIENT_SESSION_TIMEOUT);
+            int hc = hashCode(provider);
+            hc = hc * 31 + hashCode(protocol);
+            hc = hc * 31 + hashCode(sessionCacheSize);
+            hc = hc * 31 + hashCode(sessionTimeout);
+            hashCode = hc;
+        }
+
+        private static int hashCode(final Object o) {
+            return o == null ? 0 : o.hashCode();
+        }
+
+        private static boolean equals(final Object a, final Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof SslContextKey && equals((SslContextKey) obj);
+        }
+
+        public boolean equals(final SslContextKey other) {
+            return this == other || other != null && hashCode == other.hashCode && equals(provider, other.provider) && equals(protocol, other.protocol) && equals(sessionCacheSize, other.sessionCacheSize) && equals(sessionTimeout, other.sessionTimeout);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     /**
      * Create an SSL connection to a remote host.
      *
@@ -236,9 +528,11 @@ public abstract class Xnio {
      */
     IoFuture<ConnectedSslStreamChannel> connectSsl(final InetSocketAddress bindAddress, final InetSocketAddress destination, final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final SSLContext sslContext, final Executor executor, final ChannelListener<? super ConnectedSslStreamChannel> openListener, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) {
         final FutureResult<ConnectedSslStreamChannel> futureResult = new FutureResult<ConnectedSslStreamChannel>(IoUtils.directExecutor());
+        final Pool<ByteBuffer> sendPool = getSslSendBufferPool(optionMap);
+        final Pool<ByteBuffer> receivePool = getSslReceiveBufferPool(optionMap);
         connectStream(bindAddress, destination, thread, readThread, writeThread, new ChannelListener<ConnectedStreamChannel>() {
             public void handleEvent(final ConnectedStreamChannel tcpChannel) {
-                final ConnectedSslStreamChannel channel = createSslConnectedStreamChannel(sslContext, tcpChannel, executor, optionMap, false);
+                final ConnectedSslStreamChannel channel = createSslConnectedStreamChannel(sslContext, tcpChannel, destination, executor, sendPool, receivePool, sslHandshakeStatistics, optionMap, false);
                 futureResult.setResult(channel);
                 ChannelListeners.invokeChannelListener(channel, openListener);
             }
@@ -267,7 +561,7 @@ public abstract class Xnio {
      * @param bindListener the bind listener
      * @param optionMap the option map
      * @return the SSL connection
-     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable
+     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable, or if the key or trust store for the SSL context could not be loaded
      * @throws NoSuchProviderException if the selected provider is unavailable
      */
     public IoFuture<ConnectedSslStreamChannel> connectSsl(final InetSocketAddress bindAddress, final InetSocketAddress destination, final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final Executor executor, final ChannelListener<? super ConnectedSslStreamChannel> openListener, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
@@ -286,11 +580,11 @@ public abstract class Xnio {
      * @param bindListener the bind listener
      * @param optionMap the option map
      * @return the SSL connection
-     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable
+     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable, or if the key or trust store for the SSL context could not be loaded
      * @throws NoSuchProviderException if the selected provider is unavailable
      */
     public IoFuture<ConnectedSslStreamChannel> connectSsl(final InetSocketAddress bindAddress, final InetSocketAddress destination, final ConnectionChannelThread thread, final ChannelListener<? super ConnectedSslStreamChannel> openListener, ReadChannelThread readThread, WriteChannelThread writeThread, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
-        return connectSsl(bindAddress, destination, thread, readThread, writeThread, getSSLContext(optionMap), IoUtils.directExecutor(), openListener, bindListener, optionMap);
+        return connectSsl(bindAddress, destination, thread, readThread, writeThread, getSSLContext(optionMap), getSslTaskExecutor(), openListener, bindListener, optionMap);
     }
 
     /**
@@ -304,11 +598,11 @@ public abstract class Xnio {
      * @param bindListener the bind listener
      * @param optionMap the option map
      * @return the SSL connection
-     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable
+     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable, or if the key or trust store for the SSL context could not be loaded
      * @throws NoSuchProviderException if the selected provider is unavailable
      */
     public IoFuture<ConnectedSslStreamChannel> connectSsl(final InetSocketAddress destination, final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final ChannelListener<? super ConnectedSslStreamChannel> openListener, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
-        return connectSsl(new InetSocketAddress(0), destination, thread, readThread, writeThread, getSSLContext(optionMap), IoUtils.directExecutor(), openListener, bindListener, optionMap);
+        return connectSsl(new InetSocketAddress(0), destination, thread, readThread, writeThread, getSSLContext(optionMap), getSslTaskExecutor(), openListener, bindListener, optionMap);
     }
 
     /**
@@ -321,11 +615,11 @@ public abstract class Xnio {
      * @param openListener the initial open-connection listener
      * @param optionMap the option map
      * @return the SSL connection
-     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable
+     * @throws NoSuchAlgorithmException if the selected algorithm is unavailable, or if the key or trust store for the SSL context could not be loaded
      * @throws NoSuchProviderException if the selected provider is unavailable
      */
     public IoFuture<ConnectedSslStreamChannel> connectSsl(final InetSocketAddress destination, final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final ChannelListener<? super ConnectedSslStreamChannel> openListener, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
-        return connectSsl(new InetSocketAddress(0), destination, thread, readThread, writeThread, getSSLContext(optionMap), IoUtils.directExecutor(), openListener, null, optionMap);
+        return connectSsl(new InetSocketAddress(0), destination, thread, readThread, writeThread, getSSLContext(optionMap), getSslTaskExecutor(), openListener, null, optionMap);
     }
 
     /**
@@ -338,7 +632,7 @@ public abstract class Xnio {
      * @param optionMap the initial configuration for the server
      * @return the unbound TCP SSL server
      * @throws NoSuchProviderException if an SSL provider was selected which is not supported
-     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
      * @throws IOException if the server could not be created
      *
      * @since 3.0
@@ -346,13 +640,13 @@ public abstract class Xnio {
     public AcceptingChannel<ConnectedSslStreamChannel> createSslTcpServer(InetSocketAddress bindAddress, ConnectionChannelThread thread, Executor executor, ChannelListener<? super AcceptingChannel<ConnectedSslStreamChannel>> acceptListener, OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
         final SSLContext sslContext = getSSLContext(optionMap);
         
-        final AcceptingSslStreamChannel server = new AcceptingSslStreamChannel(sslContext, createStreamServer(bindAddress, thread, null, optionMap), executor, optionMap);
+        final AcceptingSslStreamChannel server = new AcceptingSslStreamChannel(sslContext, createStreamServer(bindAddress, thread, null, optionMap), thread, executor, getSslSendBufferPool(optionMap), getSslReceiveBufferPool(optionMap), sslHandshakeStatistics, optionMap);
         if (acceptListener != null) server.getAcceptSetter().set(acceptListener);
         return server;
     }
 
     /**
-     * Create a bound TCP SSL server.  A direct executor will be used to execute SSL tasks.
+     * Create a bound TCP SSL server.  The {@linkplain #getSslTaskExecutor() default SSL task executor} will be used to execute SSL tasks.
      *
      * @param bindAddress the address to bind to
      * @param thread the connection channel thread to use for this connection
@@ -360,13 +654,13 @@ public abstract class Xnio {
      * @param optionMap the initial configuration for the server
      * @return the unbound TCP SSL server
      * @throws NoSuchProviderException if an SSL provider was selected which is not supported
-     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
      * @throws IOException if the server could not be created
      *
      * @since 3.0
      */
     public AcceptingChannel<ConnectedSslStreamChannel> createSslTcpServer(InetSocketAddress bindAddress, ConnectionChannelThread thread, ChannelListener<? super AcceptingChannel<ConnectedSslStreamChannel>> acceptListener, OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException, IOException {
-        return createSslTcpServer(bindAddress, thread, IoUtils.directExecutor(), acceptListener, optionMap);
+        return createSslTcpServer(bindAddress, thread, getSslTaskExecutor(), acceptListener, optionMap);
     }
 
     /**
@@ -380,7 +674,7 @@ public abstract class Xnio {
      * @param optionMap the initial configuration for the connector
      * @return the SSL TCP connector
      * @throws NoSuchProviderException if an SSL provider was selected which is not supported
-     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
      *
      * @since 2.1
      */
@@ -394,7 +688,7 @@ public abstract class Xnio {
     }
 
     /**
-     * Create an SSL TCP connector.  A direct executor will be used to execute SSL tasks.
+     * Create an SSL TCP connector.  The {@linkplain #getSslTaskExecutor() default SSL task executor} will be used to execute SSL tasks.
      *
      * @param src the source address for connections
      * @param thread the connection channel thread to use for this connection
@@ -403,12 +697,12 @@ public abstract class Xnio {
      * @param optionMap the initial configuration for the connector
      * @return the SSL TCP connector
      * @throws NoSuchProviderException if an SSL provider was selected which is not supported
-     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
      *
      * @since 2.1
      */
     public Connector<ConnectedSslStreamChannel> createSslTcpConnector(final InetSocketAddress src, final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
-        return createSslTcpConnector(src, thread, readThread, writeThread, IoUtils.directExecutor(), optionMap);
+        return createSslTcpConnector(src, thread, readThread, writeThread, getSslTaskExecutor(), optionMap);
     }
 
     /**
@@ -420,12 +714,12 @@ public abstract class Xnio {
      * @param optionMap the initial configuration for the connector
      * @return the SSL TCP connector
      * @throws NoSuchProviderException if an SSL provider was selected which is not supported
-     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported
+     * @throws NoSuchAlgorithmException if an SSL algorithm was selected which is not supported, or if the key or trust store for the SSL context could not be loaded
      *
      * @since 2.1
      */
     public Connector<ConnectedSslStreamChannel> createSslTcpConnector(final ConnectionChannelThread thread, ReadChannelThread readThread, WriteChannelThread writeThread, final OptionMap optionMap) throws NoSuchProviderException, NoSuchAlgorithmException {
-        return createSslTcpConnector(ANY_INET_ADDRESS, thread, readThread, writeThread, IoUtils.directExecutor(), optionMap);
+        return createSslTcpConnector(ANY_INET_ADDRESS, thread, readThread, writeThread, getSslTaskExecutor(), optionMap);
     }
 
     //==================================================
@@ -461,6 +755,42 @@ public abstract class Xnio {
         }
     }
 
+    /**
+     * Create a stream server which accepts connections on several connection channel threads at once.  On platforms
+     * which support it, a separate listening socket is bound to the same address for each thread (with
+     * {@code SO_REUSEPORT}), allowing the operating system to balance incoming connections among them; otherwise all the
+     * threads share a single listening socket.  In either case, the acceptors are exposed as a single channel.
+     * <p>
+     * The given options are applied to every acceptor.  Each acceptor counts its own connections, so the
+     * {@link Options#CONNECTION_HIGH_WATER} and {@link Options#CONNECTION_LOW_WATER} marks apply to each of them
+     * separately: a server with {@code N} threads may hold up to {@code N} times the high water mark in connections.
+     *
+     * @param bindAddress the address to bind to
+     * @param threads the connection channel threads to accept on
+     * @param acceptListener the initial accept listener
+     * @param optionMap the initial configuration for the server
+     * @return the acceptor
+     * @throws IOException if the server could not be created
+     *
+     * @since 3.0
+     */
+    public AcceptingChannel<? extends ConnectedStreamChannel> createStreamServer(SocketAddress bindAddress, ConnectionChannelThread[] threads, ChannelListener<? super AcceptingChannel<ConnectedStreamChannel>> acceptListener, OptionMap optionMap) throws IOException {
+        if (bindAddress == null) {
+            throw new IllegalArgumentException("bindAddress is null");
+        }
+        if (threads == null || threads.length == 0) {
+            throw new IllegalArgumentException("At least one connection channel thread is required");
+        }
+        if (threads.length == 1) {
+            return createStreamServer(bindAddress, threads[0], acceptListener, optionMap);
+        }
+        if (bindAddress instanceof InetSocketAddress) {
+            return createTcpServer((InetSocketAddress) bindAddress, threads, acceptListener, optionMap);
+        } else {
+            throw new UnsupportedOperationException("Unsupported socket address for a multi-acceptor server " + bindAddress.getClass());
+        }
+    }
+
     /**
      * Implementation helper method to create a TCP stream server.
      *
@@ -478,6 +808,23 @@ public abstract class Xnio {
         throw new UnsupportedOperationException("TCP server");
     }
 
+    /**
+     * Implementation helper method to create a TCP stream server which accepts on several connection channel threads.
+     *
+     * @param bindAddress the address to bind to
+     * @param threads the connection channel threads to accept on
+     * @param acceptListener the initial accept listener
+     * @param optionMap the initial configuration for the server
+     * @return the acceptor
+     * @throws IOException if the server could not be created
+     *
+     * @since 3.0
+     */
+    @SuppressWarnings({ "unused" })
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createTcpServer(InetSocketAddress bindAddress, ConnectionChannelThread[] threads, ChannelListener<? super AcceptingChannel<ConnectedStreamChannel>> acceptListener, OptionMap optionMap) throws IOException {
+        throw new UnsupportedOperationException("Multi-acceptor TCP server");
+    }
+
     /**
      * Implementation helper method to create a UNIX domain stream server.
      *
@@ -1108,6 +1455,22 @@ public abstract class Xnio {
      */
     public abstract ReadChannelThread createReadChannelThread(ThreadFactory threadFactory) throws IOException;
 
+    /**
+     * Create a read channel thread with the given configuration.  Channel threads support the {@link Options#EVENT_BYTE_QUOTA}
+     * and {@link Options#EVENT_TIME_QUOTA} options.  Providers which do not support any channel thread options need
+     * not override this method, which ignores the options.
+     *
+     * @param threadFactory the thread factory to use for creating the thread
+     * @param optionMap the thread configuration
+     * @return the read channel thread
+     * @throws IOException if the thread could not be created
+     *
+     * @since 3.0
+     */
+    public ReadChannelThread createReadChannelThread(ThreadFactory threadFactory, OptionMap optionMap) throws IOException {
+        return createReadChannelThread(threadFactory);
+    }
+
     /**
      * Create a write channel thread.
      *
@@ -1117,6 +1480,22 @@ public abstract class Xnio {
      */
     public abstract WriteChannelThread createWriteChannelThread(ThreadFactory threadFactory) throws IOException;
 
+    /**
+     * Create a write channel thread with the given configuration.  Channel threads support the {@link Options#EVENT_BYTE_QUOTA}
+     * and {@link Options#EVENT_TIME_QUOTA} options.  Providers which do not support any channel thread options need
+     * not override this method, which ignores the options.
+     *
+     * @param threadFactory the thread factory to use for creating the thread
+     * @param optionMap the thread configuration
+     * @return the write channel thread
+     * @throws IOException if the thread could not be created
+     *
+     * @since 3.0
+     */
+    public WriteChannelThread createWriteChannelThread(ThreadFactory threadFactory, OptionMap optionMap) throws IOException {
+        return createWriteChannelThread(threadFactory);
+    }
+
     /**
      * Create a connection channel thread.
      *
@@ -1126,6 +1505,22 @@ public abstract class Xnio {
      */
     public abstract ConnectionChannelThread createConnectionChannelThread(ThreadFactory threadFactory) throws IOException;
 
+    /**
+     * Create a connection channel thread with the given configuration.  Channel threads support the {@link Options#EVENT_BYTE_QUOTA}
+     * and {@link Options#EVENT_TIME_QUOTA} options.  Providers which do not support any channel thread options need
+     * not override this method, which ignores the options.
+     *
+     * @param threadFactory the thread factory to use for creating the thread
+     * @param optionMap the thread configuration
+     * @return the connection channel thread
+     * @throws IOException if the thread could not be created
+     *
+     * @since 3.0
+     */
+    public ConnectionChannelThread createConnectionChannelThread(ThreadFactory threadFactory, OptionMap optionMap) throws IOException {
+        return createConnectionChannelThread(threadFactory);
+    }
+
     /**
      * Get the name of this XNIO provider.
      *
@@ -24,7 +24,13 @@ package org.xnio.channels;
 
 import java.io.InterruptedIOException;
 import java.nio.channels.FileChannel;
+import java.nio.channels.Channel;
 import org.xnio.Buffers;
+import org.xnio.Cancellable;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelThread;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -556,4 +562,276 @@ public final class Channels {
             startPosition += res;
         }
     }
+
+    /**
+     * Asynchronously send part of a file to a stream channel.  The bytes are transferred by the channel's write thread
+     * each time the channel becomes writable, using {@link StreamSinkChannel#transferFrom(FileChannel, long, long)} so
+     * that the file contents need not be copied through user space where the platform supports it.  No thread waits
+     * for the transfer to complete.
+     * <p>
+     * The channel's write listener is replaced for the duration of the transfer; once the transfer finishes, writes are
+     * suspended and the write listener is cleared, and the returned future is completed.  The future's result is the
+     * number of bytes sent, which is less than {@code count} only if the end of the file was reached first.  The
+     * channel must not be written to by any other means until the future is done.  Cancelling the future stops the
+     * transfer.
+     *
+     * @param channel the destination channel, which must have a write thread
+     * @param source the source file channel
+     * @param position the position in the file to start from
+     * @param count the number of bytes to send
+     * @return the future result of the transfer
+     *
+     * @since 3.0
+     */
+    public static IoFuture<Long> sendFile(final StreamSinkChannel channel, final FileChannel source, final long position, final long count) {
+        final FutureResult<Long> futureResult = new FutureResult<Long>();
+        final FileSendListener listener = new FileSendListener(channel, futureResult, source, position, count);
+        futureResult.addCancelHandler(listener);
+        channel.getWriteSetter().set(listener);
+        channel.resumeWrites();
+        return futureResult.getIoFuture();
+    }
+
+    /**
+     * The shared state and event loop of {@link #sendFile(StreamSinkChannel, FileChannel, long, long) sendFile} and
+     * {@link #receiveToFile(StreamSourceChannel, FileChannel, long, long, boolean) receiveToFile}.
+     *
+     * @param <C> the channel type
+     */
+    private abstract static class FileTransferListener<C extends Channel> implements ChannelListener<C>, Cancellable, Runnable {
+
+        /**
+         * The most bytes to move in one event, so that one transfer cannot monopolize the channel thread.
+         */
+        private static final long MAX_BYTES_PER_EVENT = 1L << 20;
+
+        final C channel;
+        private final FutureResult<Long> futureResult;
+        private final long count;
+        private volatile boolean cancelled;
+
+        // accessed by the channel thread only
+        private long position;
+        private long transferred;
+        private boolean done;
+
+        FileTransferListener(final C channel, final FutureResult<Long> futureResult, final long position, final long count) {
+            this.channel = channel;
+            this.futureResult = futureResult;
+            this.position = position;
+            this.count = count;
+        }
+
+        /**
+         * Move up to {@code max} bytes between the channel and the file.
+         *
+         * @param position the file position
+         * @param max the most bytes to move
+         * @return the number of bytes moved, 0 if the channel is not ready, or -1 if the source has no more data
+         * @throws IOException if an I/O error occurs
+         */
+        abstract long transfer(long position, long max) throws IOException;
+
+        /**
+         * Called once all the bytes have been moved, before the future is completed.
+         *
+         * @throws IOException if an I/O error occurs
+         */
+        void complete() throws IOException {
+        }
+
+        /**
+         * Suspend the channel and clear its listener.
+         */
+        abstract void release();
+
+        abstract ChannelThread getChannelThread();
+
+        public void handleEvent(final C channel) {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                futureResult.setCancelled();
+                return;
+            }
+            long budget = MAX_BYTES_PER_EVENT;
+            try {
+                while (transferred < count) {
+                    final long res = transfer(position, Math.min(count - transferred, budget));
+                    if (res == -1L) {
+                        break;
+                    } else if (res == 0L) {
+                        // wait for the next event
+                        return;
+                    }
+                    position += res;
+                    transferred += res;
+                    budget -= res;
+                    if ((budget <= 0L || ! getChannelThread().consumeQuota(res)) && transferred < count) {
+                        // the channel remains resumed, so we are called again after the other ready channels
+                        return;
+                    }
+                }
+                complete();
+            } catch (IOException e) {
+                finish();
+                futureResult.setException(e);
+                return;
+            }
+            finish();
+            futureResult.setResult(Long.valueOf(transferred));
+        }
+
+        private void finish() {
+            done = true;
+            release();
+        }
+
+        public Cancellable cancel() {
+            cancelled = true;
+            final ChannelThread thread = getChannelThread();
+            if (thread == null) {
+                // no thread will deliver another event, so cancel right here
+                run();
+            } else {
+                thread.execute(this);
+            }
+            return this;
+        }
+
+        public void run() {
+            handleEvent(channel);
+        }
+    }
+
+    private static final class FileSendListener extends FileTransferListener<StreamSinkChannel> {
+        private final FileChannel source;
+
+        FileSendListener(final StreamSinkChannel channel, final FutureResult<Long> futureResult, final FileChannel source, final long position, final long count) {
+            super(channel, futureResult, position, count);
+            this.source = source;
+        }
+
+        long transfer(final long position, final long max) throws IOException {
+            final long res = channel.transferFrom(source, position, max);
+            if (res == 0L && position >= source.size()) {
+                // the file is shorter than expected
+                return -1L;
+            }
+            return res;
+        }
+
+        void release() {
+            channel.suspendWrites();
+            channel.getWriteSetter().set(null);
+        }
+
+        ChannelThread getChannelThread() {
+            return channel.getWriteThread();
+        }
+    }
+
+    /**
+     * Asynchronously receive part of a stream channel's data into a file.  The bytes are transferred by the channel's
+     * read thread each time the channel becomes readable, using {@link StreamSourceChannel#transferTo(long, long, FileChannel)}
+     * so that the data need not be copied through user space where the platform supports it.  No thread waits for the
+     * transfer to complete.
+     * <p>
+     * The channel's read listener is replaced for the duration of the transfer; once the transfer finishes, reads are
+     * suspended and the read listener is cleared, and the returned future is completed.  The future's result is the
+     * number of bytes received, which is less than {@code count} only if the end of the stream was reached first.  The
+     * channel must not be read from by any other means until the future is done.  Cancelling the future stops the
+     * transfer.
+     *
+     * @param channel the source channel, which must have a read thread
+     * @param target the target file channel
+     * @param position the position in the file to start writing at
+     * @param count the number of bytes to receive
+     * @param force {@code true} to {@link FileChannel#force(boolean) force} the received data to the storage device
+     *      before the future is completed
+     * @return the future result of the transfer
+     *
+     * @since 3.0
+     */
+    public static IoFuture<Long> receiveToFile(final StreamSourceChannel channel, final FileChannel target, final long position, final long count, final boolean force) {
+        final FutureResult<Long> futureResult = new FutureResult<Long>();
+        final FileReceiveListener listener = new FileReceiveListener(channel, futureResult, target, position, count, force);
+        futureResult.addCancelHandler(listener);
+        channel.getReadSetter().set(listener);
+        channel.resumeReads();
+        return futureResult.getIoFuture();
+    }
+
+    /**
+     * Asynchronously receive part of a stream channel's data into a file, without forcing it to the storage device.
+     *
+     * @param channel the source channel, which must have a read thread
+     * @param target the target file channel
+     * @param position the position in the file to start writing at
+     * @param count the number of bytes to receive
+     * @return the future result of the transfer
+     * @see #receiveToFile(StreamSourceChannel, FileChannel, long, long, boolean)
+     *
+     * @since 3.0
+     */
+    public static IoFuture<Long> receiveToFile(final StreamSourceChannel channel, final FileChannel target, final long position, final long count) {
+        return receiveToFile(channel, target, position, count, false);
+    }
+
+    private static final class FileReceiveListener extends FileTransferListener<StreamSourceChannel> {
+        private final FileChannel target;
+        private final boolean force;
+
+        // accessed by the read thread only
+        private ByteBuffer probe;
+
+        FileReceiveListener(final StreamSourceChannel channel, final FutureResult<Long> futureResult, final FileChannel target, final long position, final long count, final boolean force) {
+            super(channel, futureResult, position, count);
+            this.target = target;
+            this.force = force;
+        }
+
+        long transfer(final long position, final long max) throws IOException {
+            final long res = channel.transferTo(position, max, target);
+            if (res == 0L) {
+                // the file channel cannot tell us about EOF, so read one byte to find out
+                return readProbe(position);
+            }
+            return res;
+        }
+
+        private long readProbe(final long position) throws IOException {
+            ByteBuffer probe = this.probe;
+            if (probe == null) {
+                probe = this.probe = ByteBuffer.allocate(1);
+            }
+            probe.clear();
+            final int res = channel.read(probe);
+            if (res <= 0) {
+                return res;
+            }
+            probe.flip();
+            while (probe.hasRemaining()) {
+                target.write(probe, position);
+            }
+            return res;
+        }
+
+        void complete() throws IOException {
+            if (force) {
+                target.force(false);
+            }
+        }
+
+        void release() {
+            channel.suspendReads();
+            channel.getReadSetter().set(null);
+        }
+
+        ChannelThread getChannelThread() {
+            return channel.getReadThread();
+        }
+    }
 }
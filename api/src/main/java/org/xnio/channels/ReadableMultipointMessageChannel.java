@@ -74,6 +74,25 @@ public interface ReadableMultipointMessageChannel extends SuspendableReadChannel
      */
     long receiveFrom(SocketAddressBuffer addressBuffer, ByteBuffer[] buffers, int offs, int len) throws IOException;
 
+    /**
+     * Receive as many messages as are immediately available, up to the given number.
+     *
+     * Each message is written into its own buffer, in order, and its source and destination addresses (if available)
+     * are read into the address buffer with the same index.  Receiving stops once no message is immediately available,
+     * so that a read listener can drain the channel in one call.
+     *
+     * @param addressBuffers the address buffers into which the addresses of each message should be written ({@code null}
+     *      to discard that information for all messages, or a {@code null} element to discard it for one message)
+     * @param buffers the buffers into which the messages should be read, one per message
+     * @param offs the offset into the arrays of the first buffer to read into
+     * @param len the most messages to receive
+     * @return the number of messages received, which is 0 if no message is available
+     * @throws IOException if an I/O error occurs
+     *
+     * @since 3.0
+     */
+    int receiveMany(SocketAddressBuffer[] addressBuffers, ByteBuffer[] buffers, int offs, int len) throws IOException;
+
     /** {@inheritDoc} */
     ChannelListener.Setter<? extends ReadableMultipointMessageChannel> getReadSetter();
 
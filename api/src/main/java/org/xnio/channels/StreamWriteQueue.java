@@ -0,0 +1,315 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.channels;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.FailedIoFuture;
+import org.xnio.FutureResult;
+import org.xnio.IoFuture;
+import org.xnio.Pooled;
+import org.xnio.WriteChannelThread;
+
+/**
+ * A queue of outbound messages for a stream channel, which any thread may add to.  The queue is drained by the
+ * channel's write thread using gathering writes, and each message's future is completed once the message has been
+ * written in full.  Pooled buffers are freed as soon as they have been written.
+ * <p>
+ * The queue takes over the channel's write and close listeners; the channel must not be written to by any other
+ * means while the queue is in use, and a close listener should be set through {@link #getCloseSetter()} instead.
+ * When the channel is closed, every message still in the queue fails with a {@link ClosedChannelException} and its
+ * buffers are freed, and messages added afterwards are refused.  To bound memory use, the queue holds at most a configured number of bytes; a message which
+ * would exceed the limit is refused, unless the queue is empty.
+ *
+ * @since 3.0
+ */
+public final class StreamWriteQueue {
+
+    /**
+     * The most buffers to pass to a single gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    private final StreamSinkChannel channel;
+    private final long maxQueuedBytes;
+    private final Queue<Message> queue = new ConcurrentLinkedQueue<Message>();
+    private final ChannelListener<StreamSinkChannel> writeListener = new ChannelListener<StreamSinkChannel>() {
+        public void handleEvent(final StreamSinkChannel channel) {
+            drain();
+        }
+    };
+    private final AtomicReference<ChannelListener<? super StreamSinkChannel>> closeListener = new AtomicReference<ChannelListener<? super StreamSinkChannel>>();
+    private final ChannelListener<StreamSinkChannel> channelCloseListener = new ChannelListener<StreamSinkChannel>() {
+        public void handleEvent(final StreamSinkChannel channel) {
+            // the write thread may be draining the queue, so the messages are failed there
+            final Runnable task = new Runnable() {
+                public void run() {
+                    if (failure == null) {
+                        failure = new ClosedChannelException();
+                    }
+                    failAll(failure);
+                }
+            };
+            final WriteChannelThread thread = channel.getWriteThread();
+            boolean queued = false;
+            if (thread != null) {
+                try {
+                    thread.execute(task);
+                    queued = true;
+                } catch (RejectedExecutionException e) {
+                    // the write thread is shutting down and will not drain the queue again
+                }
+            }
+            if (! queued) {
+                task.run();
+            }
+            ChannelListeners.invokeChannelListener(channel, closeListener.get());
+        }
+    };
+
+    @SuppressWarnings("unused")
+    private volatile long queuedBytes;
+    @SuppressWarnings("unused")
+    private volatile int scheduled;
+    private volatile IOException failure;
+
+    // accessed by the write thread only
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+    private static final AtomicLongFieldUpdater<StreamWriteQueue> queuedBytesUpdater = AtomicLongFieldUpdater.newUpdater(StreamWriteQueue.class, "queuedBytes");
+    private static final AtomicIntegerFieldUpdater<StreamWriteQueue> scheduledUpdater = AtomicIntegerFieldUpdater.newUpdater(StreamWriteQueue.class, "scheduled");
+
+    /**
+     * Construct a new instance.  The channel's write listener is set to drain this queue, and its close listener is
+     * set to fail the messages left in it.
+     *
+     * @param channel the channel to write to, which must have a write thread
+     * @param maxQueuedBytes the most bytes to hold in the queue
+     */
+    public StreamWriteQueue(final StreamSinkChannel channel, final long maxQueuedBytes) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel is null");
+        }
+        if (maxQueuedBytes < 1L) {
+            throw new IllegalArgumentException("maxQueuedBytes must be at least 1");
+        }
+        this.channel = channel;
+        this.maxQueuedBytes = maxQueuedBytes;
+        channel.getWriteSetter().set(writeListener);
+        channel.getCloseSetter().set(channelCloseListener);
+    }
+
+    /**
+     * Get the setter for the channel's close listener, which is called once the queued messages have been failed.
+     *
+     * @return the close listener setter
+     */
+    public ChannelListener.Setter<StreamSinkChannel> getCloseSetter() {
+        return ChannelListeners.getSetter(closeListener);
+    }
+
+    /**
+     * Add a message to the queue.  The message consists of the remaining bytes of the given buffer, which is owned by
+     * the queue from now on and must not be accessed by the caller again.  If the message is refused, or if the write
+     * fails or the channel is closed first, the buffer is freed and the returned future fails.
+     *
+     * @param buffer the buffer holding the message
+     * @return the future result of the write
+     */
+    @SuppressWarnings("unchecked")
+    public IoFuture<Void> enqueueWrite(final Pooled<ByteBuffer> buffer) {
+        return enqueueWrite(new Pooled[] { buffer });
+    }
+
+    /**
+     * Add a message to the queue.  The message consists of the remaining bytes of the given buffers, which are owned
+     * by the queue from now on and must not be accessed by the caller again.  If the message is refused, or if the
+     * write fails or the channel is closed first, the buffers are freed and the returned future fails.
+     *
+     * @param buffers the buffers making up the message
+     * @return the future result of the write
+     */
+    public IoFuture<Void> enqueueWrite(final Pooled<ByteBuffer>[] buffers) {
+        long size = 0L;
+        for (Pooled<ByteBuffer> buffer : buffers) {
+            size += buffer.getResource().remaining();
+        }
+        IOException failure = this.failure;
+        if (failure == null && ! channel.isOpen()) {
+            failure = new ClosedChannelException();
+        }
+        if (failure == null) {
+            long oldVal;
+            do {
+                oldVal = queuedBytes;
+                if (oldVal > 0L && oldVal + size > maxQueuedBytes) {
+                    failure = new IOException("Write queue is full");
+                    break;
+                }
+            } while (! queuedBytesUpdater.compareAndSet(this, oldVal, oldVal + size));
+        }
+        if (failure != null) {
+            free(buffers);
+            return new FailedIoFuture<Void>(failure);
+        }
+        final Message message = new Message(buffers, size);
+        queue.add(message);
+        failure = this.failure;
+        if (failure != null) {
+            // the queue failed meanwhile; make sure this message does not linger
+            failAll(failure);
+        } else if (scheduledUpdater.compareAndSet(this, 0, 1)) {
+            channel.resumeWrites();
+        }
+        return message.futureResult.getIoFuture();
+    }
+
+    /**
+     * Get the number of bytes currently held in the queue.
+     *
+     * @return the number of queued bytes
+     */
+    public long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * Determine whether a message of the given size would currently be refused.
+     *
+     * @param size the message size
+     * @return {@code true} if the queue is too full to take the message
+     */
+    public boolean isFull(final long size) {
+        final long queuedBytes = this.queuedBytes;
+        return queuedBytes > 0L && queuedBytes + size > maxQueuedBytes;
+    }
+
+    private void drain() {
+        final StreamSinkChannel channel = this.channel;
+        final Queue<Message> queue = this.queue;
+        final ByteBuffer[] gather = this.gather;
+        try {
+            for (;;) {
+                int cnt = 0;
+                long size = 0L;
+                for (Message message : queue) {
+                    for (Pooled<ByteBuffer> buffer : message.buffers) {
+                        final ByteBuffer resource = buffer.getResource();
+                        if (resource.hasRemaining() && cnt < MAX_GATHER) {
+                            gather[cnt++] = resource;
+                            size += resource.remaining();
+                        }
+                    }
+                    if (cnt == MAX_GATHER) {
+                        break;
+                    }
+                }
+                if (cnt == 0 && queue.isEmpty()) {
+                    if (! channel.flush()) {
+                        // wait for the next write event
+                        return;
+                    }
+                    // suspend before clearing the flag, so that a producer's resumeWrites cannot be undone
+                    channel.suspendWrites();
+                    scheduled = 0;
+                    if (queue.isEmpty() || ! scheduledUpdater.compareAndSet(this, 0, 1)) {
+                        return;
+                    }
+                    // a message arrived meanwhile
+                    channel.resumeWrites();
+                    continue;
+                }
+                final long res = cnt == 0 ? 0L : channel.write(gather, 0, cnt);
+                for (int i = 0; i < cnt; i ++) {
+                    gather[i] = null;
+                }
+                completeWritten();
+                if (res < size || ! channel.getWriteThread().consumeQuota(res)) {
+                    // wait for the next write event
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            channel.suspendWrites();
+            failAll(e);
+        }
+    }
+
+    /**
+     * Complete the messages at the head of the queue which have been written in full.
+     */
+    private void completeWritten() {
+        Message message;
+        while ((message = queue.peek()) != null && ! message.hasRemaining()) {
+            queue.poll();
+            queuedBytesUpdater.addAndGet(this, - message.size);
+            free(message.buffers);
+            message.futureResult.setResult(null);
+        }
+    }
+
+    private void failAll(final IOException e) {
+        Message message;
+        while ((message = queue.poll()) != null) {
+            queuedBytesUpdater.addAndGet(this, - message.size);
+            free(message.buffers);
+            message.futureResult.setException(e);
+        }
+    }
+
+    private static void free(final Pooled<ByteBuffer>[] buffers) {
+        for (Pooled<ByteBuffer> buffer : buffers) {
+            buffer.free();
+        }
+    }
+
+    private static final class Message {
+        private final Pooled<ByteBuffer>[] buffers;
+        private final long size;
+        private final FutureResult<Void> futureResult = new FutureResult<Void>();
+
+        Message(final Pooled<ByteBuffer>[] buffers, final long size) {
+            this.buffers = buffers;
+            this.size = size;
+        }
+
+        boolean hasRemaining() {
+            for (Pooled<ByteBuffer> buffer : buffers) {
+                if (buffer.getResource().hasRemaining()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
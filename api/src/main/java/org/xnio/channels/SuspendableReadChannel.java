@@ -44,6 +44,16 @@ public interface SuspendableReadChannel extends CloseableChannel {
      */
     void resumeReads();
 
+    /**
+     * Determine whether reads are resumed.  A read listener may use this to find out whether it suspended reads, or
+     * whether some other code did, while it was running.
+     *
+     * @return {@code true} if reads are resumed, {@code false} if they are suspended
+     *
+     * @since 3.0
+     */
+    boolean isReadResumed();
+
     /**
      * Places this readable channel at "end of stream".  Further reads will result in EOF.
      * Shutting down all directions of a channel will cause {@link #close()} to be called automatically.
@@ -88,7 +98,7 @@ public interface SuspendableReadChannel extends CloseableChannel {
     /**
      * Get the current read thread.
      *
-     * @return the read thread
+     * @return the read thread, or {@code null} if there is none
      */
     ReadChannelThread getReadThread();
 
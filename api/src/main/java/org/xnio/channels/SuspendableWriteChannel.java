@@ -44,6 +44,15 @@ public interface SuspendableWriteChannel extends CloseableChannel {
      */
     void resumeWrites();
 
+    /**
+     * Determine whether writes are resumed.
+     *
+     * @return {@code true} if writes are resumed, {@code false} if they are suspended
+     *
+     * @since 3.0
+     */
+    boolean isWriteResumed();
+
     /**
      * Indicate that writing is complete for this channel.  Further attempts to write after this method is invoked will
      * result in an exception; however, this method may have to be invoked multiple times in order to complete the
@@ -91,7 +100,7 @@ public interface SuspendableWriteChannel extends CloseableChannel {
     /**
      * Get the current write thread.
      *
-     * @return the write thread
+     * @return the write thread, or {@code null} if there is none
      */
     WriteChannelThread getWriteThread();
 
@@ -169,6 +169,20 @@ public abstract class TranslatingSuspendableChannel<C extends SuspendableChannel
         }
     }
 
+    /** {@inheritDoc} */
+    public boolean isReadResumed() {
+        synchronized (getReadLock()) {
+            return readsRequested;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public boolean isWriteResumed() {
+        synchronized (getWriteLock()) {
+            return writesRequested;
+        }
+    }
+
     /** {@inheritDoc} */
     public boolean supportsOption(final Option<?> option) {
         return channel.supportsOption(option);
@@ -66,6 +66,21 @@ public interface WritableMultipointMessageChannel extends SuspendableWriteChanne
      */
     boolean sendTo(SocketAddress target, ByteBuffer[] buffers, int offset, int length) throws IOException;
 
+    /**
+     * Send several messages, each from its own buffer to the destination with the same index, in order.  Sending stops
+     * at the first message which cannot be sent because the channel is not currently writable.
+     *
+     * @param targets the destinations
+     * @param buffers the data to send, one buffer per message
+     * @param offset the offset into the arrays of the first message to send
+     * @param length the number of messages to send
+     * @return the number of messages sent
+     * @throws IOException if an I/O error occurs
+     *
+     * @since 3.0
+     */
+    int sendMany(SocketAddress[] targets, ByteBuffer[] buffers, int offset, int length) throws IOException;
+
     /** {@inheritDoc} */
     ChannelListener.Setter<? extends WritableMultipointMessageChannel> getWriteSetter();
 
@@ -145,6 +145,39 @@ public class BufferPipeInputStream extends InputStream {
         }
     }
 
+    /**
+     * Read the next buffer directly from the queue without copying.  This method blocks until a buffer is available,
+     * the end of the stream is reached, or a failure is pushed.  Ownership of the returned buffer passes to the caller,
+     * who must free it when done; if some of it was already consumed by a previous read, its position reflects that.
+     *
+     * @return the next buffer, or {@code null} if the end of the stream was reached
+     * @throws IOException if an I/O error occurs
+     */
+    public Pooled<ByteBuffer> readBuffer() throws IOException {
+        final Queue<Pooled<ByteBuffer>> queue = this.queue;
+        synchronized (this) {
+            while (queue.isEmpty()) {
+                if (eof) {
+                    return null;
+                }
+                checkFailure();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted on readBuffer()");
+                }
+            }
+            final Pooled<ByteBuffer> entry = queue.poll();
+            try {
+                inputHandler.acknowledge();
+            } catch (IOException e) {
+                // no operation!
+            }
+            return entry;
+        }
+    }
+
     private void clearQueue() {
         synchronized (this) {
             Pooled<ByteBuffer> entry;
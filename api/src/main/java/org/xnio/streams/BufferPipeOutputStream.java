@@ -94,10 +94,42 @@ public class BufferPipeOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Write a buffer directly to the consumer without copying.  Any data already written to this stream is sent
+     * first, after which ownership of the given buffer passes to the buffer writer; the caller must not access or
+     * free it after this method is called, even if an exception is thrown.  The buffer should be ready for reading
+     * (that is, flipped).  This method is subject to the same flow control as the other write methods.
+     *
+     * @param pooledBuffer the buffer to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(final Pooled<ByteBuffer> pooledBuffer) throws IOException {
+        synchronized (this) {
+            boolean ok = false;
+            try {
+                checkClosed();
+                final Pooled<ByteBuffer> current = buffer;
+                if (current != null && current.getResource().position() > 0) {
+                    send();
+                }
+                ok = true;
+            } finally {
+                if (! ok) {
+                    pooledBuffer.free();
+                }
+            }
+            if (pooledBuffer.getResource().hasRemaining()) {
+                send(pooledBuffer, false);
+            } else {
+                pooledBuffer.free();
+            }
+        }
+    }
+
     // call with lock held
     private void send() throws IOException {
         final Pooled<ByteBuffer> pooledBuffer = buffer;
-        final ByteBuffer buffer = pooledBuffer.getResource();
+        final ByteBuffer buffer = pooledBuffer == null ? null : pooledBuffer.getResource();
         this.buffer =  null;
         final boolean eof = this.eof;
         if (buffer != null && buffer.position() > 0) {
@@ -0,0 +1,342 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.xnio.Buffers;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.channels.ReadTimeoutException;
+import org.xnio.channels.StreamSourceChannel;
+
+import static java.lang.Math.min;
+
+/**
+ * An input stream which reads from a stream source channel through a buffer borrowed from a buffer pool.  The
+ * buffer is only held while it contains unread data; once the stream drains it, or while the stream waits for the
+ * channel to become readable, the buffer is returned to the pool, so that idle streams hold no buffer memory.  Using
+ * a pool of direct buffers avoids the intermediate copy which the JDK otherwise makes when reading from a socket
+ * into a heap buffer.  Each channel read fills as much of the borrowed buffer as the channel can deliver, rather than
+ * growing an adaptive read-ahead window: the borrowed buffer is held either way, so a smaller read would save no
+ * memory and would only cost more channel reads.  If the pool has no buffer available, the stream reads into a heap
+ * buffer of its own instead, which is allocated the first time the pool runs out and reused until the stream is
+ * closed.
+ * <p>
+ * Instances of this class are not safe for concurrent use by multiple threads.
+ *
+ * @apiviz.exclude
+ */
+public class PooledChannelInputStream extends InputStream {
+    private static final int FALLBACK_BUFFER_SIZE = 8192;
+
+    private final StreamSourceChannel channel;
+    private final Pool<ByteBuffer> pool;
+    private Pooled<ByteBuffer> pooledBuffer;
+    private ByteBuffer fallbackBuffer;
+    /**
+     * Stands in for a pooled buffer while the pool is exhausted; freeing it keeps the fallback buffer for reuse.
+     */
+    private final Pooled<ByteBuffer> fallback = new Pooled<ByteBuffer>() {
+        public void discard() {
+        }
+
+        public void free() {
+        }
+
+        public ByteBuffer getResource() {
+            ByteBuffer buffer = fallbackBuffer;
+            if (buffer == null) {
+                fallbackBuffer = buffer = ByteBuffer.allocate(FALLBACK_BUFFER_SIZE);
+            }
+            return buffer;
+        }
+    };
+    private volatile boolean closed;
+    private volatile long timeout;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param channel the channel to wrap
+     * @param pool the pool from which read buffers are borrowed
+     */
+    public PooledChannelInputStream(final StreamSourceChannel channel, final Pool<ByteBuffer> pool) {
+        if (channel == null) {
+            throw new NullPointerException("channel is null");
+        }
+        if (pool == null) {
+            throw new NullPointerException("pool is null");
+        }
+        this.channel = channel;
+        this.pool = pool;
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param channel the channel to wrap
+     * @param pool the pool from which read buffers are borrowed
+     * @param timeout the initial read timeout, or 0 for none
+     * @param unit the time unit for the read timeout
+     */
+    public PooledChannelInputStream(final StreamSourceChannel channel, final Pool<ByteBuffer> pool, final long timeout, final TimeUnit unit) {
+        this(channel, pool);
+        if (unit == null) {
+            throw new NullPointerException("unit is null");
+        }
+        setReadTimeout(timeout, unit);
+    }
+
+    /**
+     * Get the read timeout.
+     *
+     * @param unit the time unit
+     * @return the timeout in the given unit
+     */
+    public long getReadTimeout(TimeUnit unit) {
+        return unit.convert(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Set the read timeout.  Does not affect read operations in progress.
+     *
+     * @param timeout the read timeout, or 0 for none
+     * @param unit the time unit
+     */
+    public void setReadTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0L) {
+            throw new IllegalArgumentException("Negative timeout");
+        }
+        final long calcTimeout = unit.toMillis(timeout);
+        this.timeout = timeout == 0L ? 0L : calcTimeout < 1L ? 1L : calcTimeout;
+    }
+
+    /**
+     * Get the buffered data, if any.
+     *
+     * @return the buffer with remaining data, or {@code null} if there is none
+     */
+    private ByteBuffer buffered() {
+        final Pooled<ByteBuffer> pooledBuffer = this.pooledBuffer;
+        if (pooledBuffer == null) {
+            return null;
+        }
+        final ByteBuffer buffer = pooledBuffer.getResource();
+        if (buffer.hasRemaining()) {
+            return buffer;
+        }
+        release();
+        return null;
+    }
+
+    private void release() {
+        final Pooled<ByteBuffer> pooledBuffer = this.pooledBuffer;
+        if (pooledBuffer != null) {
+            this.pooledBuffer = null;
+            pooledBuffer.free();
+        }
+    }
+
+    /**
+     * Attempt to fill the buffer from the channel without blocking.  The buffer is only retained if data was read.
+     *
+     * @return the number of bytes read, 0 if none were available, or -1 on end of stream
+     * @throws IOException if an I/O error occurs
+     */
+    private int fill() throws IOException {
+        Pooled<ByteBuffer> pooledBuffer = pool.allocate();
+        if (pooledBuffer == null) {
+            pooledBuffer = fallback;
+        }
+        boolean ok = false;
+        try {
+            final ByteBuffer buffer = pooledBuffer.getResource();
+            buffer.clear();
+            final int res = channel.read(buffer);
+            if (res > 0) {
+                buffer.flip();
+                this.pooledBuffer = pooledBuffer;
+                ok = true;
+            }
+            return res;
+        } finally {
+            if (! ok) {
+                pooledBuffer.free();
+            }
+        }
+    }
+
+    /**
+     * Fill the buffer from the channel, blocking if necessary.  No buffer is held while waiting.
+     *
+     * @return the number of bytes read, or -1 on end of stream
+     * @throws IOException if an I/O error occurs
+     */
+    private int fillBlocking() throws IOException {
+        final StreamSourceChannel channel = this.channel;
+        final long timeout = this.timeout;
+        int res;
+        if (timeout == 0L) {
+            while ((res = fill()) == 0) {
+                channel.awaitReadable();
+            }
+        } else {
+            final long deadline = System.currentTimeMillis() + timeout;
+            while ((res = fill()) == 0) {
+                final long now = System.currentTimeMillis();
+                if (now >= deadline) {
+                    throw new ReadTimeoutException("Read timed out");
+                }
+                channel.awaitReadable(deadline - now, TimeUnit.MILLISECONDS);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Read a byte, blocking if necessary.
+     *
+     * @return the byte read, or -1 if the end of the stream has been reached
+     * @throws IOException if an I/O error occurs
+     */
+    public int read() throws IOException {
+        ByteBuffer buffer = buffered();
+        if (buffer == null) {
+            if (closed || fillBlocking() == -1) {
+                return -1;
+            }
+            buffer = pooledBuffer.getResource();
+        }
+        final int b = buffer.get() & 0xff;
+        if (! buffer.hasRemaining()) {
+            release();
+        }
+        return b;
+    }
+
+    /**
+     * Read bytes into an array.
+     *
+     * @param b the destination array
+     * @param off the offset into the array at which bytes should be filled
+     * @param len the number of bytes to fill
+     * @return the number of bytes read, or -1 if the end of the stream has been reached
+     * @throws IOException if an I/O error occurs
+     */
+    public int read(final byte[] b, int off, int len) throws IOException {
+        if (len < 1) {
+            return 0;
+        }
+        int total = 0;
+        try {
+            while (len > 0) {
+                ByteBuffer buffer = buffered();
+                if (buffer == null) {
+                    if (closed) {
+                        break;
+                    }
+                    final int res = total > 0 ? fill() : fillBlocking();
+                    if (res <= 0) {
+                        break;
+                    }
+                    buffer = pooledBuffer.getResource();
+                }
+                final int cnt = min(buffer.remaining(), len);
+                buffer.get(b, off, cnt);
+                total += cnt;
+                off += cnt;
+                len -= cnt;
+            }
+        } catch (InterruptedIOException e) {
+            e.bytesTransferred = total;
+            throw e;
+        }
+        buffered();
+        return total == 0 ? -1 : total;
+    }
+
+    /**
+     * Skip bytes in the stream.
+     *
+     * @param n the number of bytes to skip
+     * @return the number of bytes skipped (0 if the end of stream has been reached)
+     * @throws IOException if an I/O error occurs
+     */
+    public long skip(long n) throws IOException {
+        long total = 0L;
+        while (n > 0L) {
+            ByteBuffer buffer = buffered();
+            if (buffer == null) {
+                if (closed) {
+                    break;
+                }
+                final int res = total > 0L ? fill() : fillBlocking();
+                if (res <= 0) {
+                    break;
+                }
+                buffer = pooledBuffer.getResource();
+            }
+            final int cnt = (int) min((long) buffer.remaining(), n);
+            Buffers.skip(buffer, cnt);
+            total += cnt;
+            n -= cnt;
+        }
+        buffered();
+        return total;
+    }
+
+    /**
+     * Return the number of bytes available to read, or 0 if a subsequent {@code read()} operation would block.  If
+     * a 0 is returned, the channel's {@link org.xnio.channels.SuspendableReadChannel#resumeReads() resumeReads()} method may be used
+     * to register for read-readiness.
+     *
+     * @return the number of ready bytes, or 0 for none
+     * @throws IOException if an I/O error occurs
+     */
+    public int available() throws IOException {
+        ByteBuffer buffer = buffered();
+        if (buffer == null) {
+            if (closed || fill() <= 0) {
+                return 0;
+            }
+            buffer = pooledBuffer.getResource();
+        }
+        return buffer.remaining();
+    }
+
+    /**
+     * Close the stream.  Shuts down the channel's read side and returns any held buffer to the pool.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    public void close() throws IOException {
+        closed = true;
+        release();
+        fallbackBuffer = null;
+        channel.shutdownReads();
+    }
+}
@@ -33,6 +33,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
 import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
 import org.xnio.Buffers;
 
 /**
@@ -40,10 +41,19 @@ import org.xnio.Buffers;
  */
 public final class ReaderInputStream extends InputStream {
 
+    private static final int GENERIC = 0;
+    private static final int ISO_8859_1 = 1;
+    private static final int UTF_8 = 2;
+
+    private static final byte[] DEFAULT_REPLACEMENT = { (byte) '?' };
+
     private final Reader reader;
     private final CharsetEncoder encoder;
+    private final int mode;
     private final CharBuffer charBuffer;
     private final ByteBuffer byteBuffer;
+    private boolean eof;
+    private boolean flushed;
 
     /**
      * Construct a new instance.
@@ -95,8 +105,30 @@ public final class ReaderInputStream extends InputStream {
     public ReaderInputStream(final Reader reader, final CharsetEncoder encoder, final int bufferSize) {
         this.reader = reader;
         this.encoder = encoder;
-        charBuffer = CharBuffer.wrap(new char[bufferSize]);
-        byteBuffer = ByteBuffer.wrap(new byte[(int) ((float)bufferSize * encoder.averageBytesPerChar() + 0.5f)]);
+        mode = getMode(encoder);
+        charBuffer = CharBuffer.wrap(new char[Math.max(2, bufferSize)]);
+        charBuffer.flip();
+        // room for at least one encoded surrogate pair
+        byteBuffer = ByteBuffer.wrap(new byte[Math.max(4, (int) ((float)bufferSize * encoder.averageBytesPerChar() + 0.5f))]);
+        byteBuffer.flip();
+    }
+
+    /**
+     * Determine whether the encoder can be replaced by a built-in transcoding loop.  This is only the case for
+     * the common character sets, when the encoder is configured to replace bad input with the default replacement.
+     */
+    private static int getMode(final CharsetEncoder encoder) {
+        if (encoder.malformedInputAction() != CodingErrorAction.REPLACE || encoder.unmappableCharacterAction() != CodingErrorAction.REPLACE || ! Arrays.equals(DEFAULT_REPLACEMENT, encoder.replacement())) {
+            return GENERIC;
+        }
+        final String name = encoder.charset().name();
+        if (name.equals("UTF-8")) {
+            return UTF_8;
+        } else if (name.equals("ISO-8859-1")) {
+            return ISO_8859_1;
+        } else {
+            return GENERIC;
+        }
     }
 
     private static CharsetEncoder getEncoder(final Charset charset) {
@@ -141,41 +173,191 @@ public final class ReaderInputStream extends InputStream {
         final ByteBuffer byteBuffer = this.byteBuffer;
         byteBuffer.compact();
         try {
-            while (byteBuffer.hasRemaining()) {
-                while (charBuffer.hasRemaining()) {
-                    final CoderResult result = encoder.encode(charBuffer, byteBuffer, false);
-                    if (result.isOverflow()) {
-                        return true;
+            for (;;) {
+                if (charBuffer.hasRemaining()) {
+                    final boolean overflow;
+                    switch (mode) {
+                        case UTF_8: overflow = encodeUtf8(charBuffer, byteBuffer); break;
+                        case ISO_8859_1: overflow = encodeLatin1(charBuffer, byteBuffer); break;
+                        default: overflow = encode(charBuffer, byteBuffer); break;
                     }
-                    if (result.isUnderflow()) {
-                        break;
+                    if (overflow) {
+                        return true;
                     }
-                    if (result.isError()) {
-                        if (result.isMalformed()) {
-                            throw new CharConversionException("Malformed input");
-                        }
-                        if (result.isUnmappable()) {
-                            throw new CharConversionException("Unmappable character");
-                        }
-                        throw new CharConversionException("Character decoding problem");
+                }
+                if (eof && ! flushed) {
+                    if (encodeEnd(charBuffer, byteBuffer)) {
+                        return true;
                     }
+                    flushed = true;
+                }
+                if (byteBuffer.position() > 0) {
+                    return true;
+                }
+                if (eof) {
+                    return false;
                 }
                 charBuffer.compact();
+                final int cnt;
                 try {
-                    final int cnt = reader.read(charBuffer);
-                    if (cnt == -1) {
-                        return false;
-                    }
+                    cnt = reader.read(charBuffer);
                 } finally {
                     charBuffer.flip();
                 }
+                if (cnt == -1) {
+                    eof = true;
+                }
             }
-            return true;
         } finally {
             byteBuffer.flip();
         }
     }
 
+    private boolean encode(final CharBuffer charBuffer, final ByteBuffer byteBuffer) throws IOException {
+        return checkResult(encoder.encode(charBuffer, byteBuffer, false));
+    }
+
+    /**
+     * Encode the input left over at the end of the stream and flush the encoder.  In the built-in modes, only an
+     * unpaired high surrogate can be left over, which is replaced like any other unpaired surrogate.
+     *
+     * @return {@code true} if the byte buffer overflowed
+     */
+    private boolean encodeEnd(final CharBuffer charBuffer, final ByteBuffer byteBuffer) throws IOException {
+        if (mode == GENERIC) {
+            return checkResult(encoder.encode(charBuffer, byteBuffer, true)) || checkResult(encoder.flush(byteBuffer));
+        }
+        while (charBuffer.hasRemaining()) {
+            if (! byteBuffer.hasRemaining()) {
+                return true;
+            }
+            charBuffer.get();
+            byteBuffer.put((byte) '?');
+        }
+        return false;
+    }
+
+    private static boolean checkResult(final CoderResult result) throws IOException {
+        if (result.isOverflow()) {
+            return true;
+        }
+        if (result.isUnderflow()) {
+            return false;
+        }
+        if (result.isMalformed()) {
+            throw new CharConversionException("Malformed input");
+        }
+        if (result.isUnmappable()) {
+            throw new CharConversionException("Unmappable character");
+        }
+        throw new CharConversionException("Character decoding problem");
+    }
+
+    private static boolean encodeLatin1(final CharBuffer charBuffer, final ByteBuffer byteBuffer) {
+        final char[] chars = charBuffer.array();
+        final byte[] bytes = byteBuffer.array();
+        int cp = charBuffer.position();
+        final int cl = charBuffer.limit();
+        int bp = byteBuffer.position();
+        final int bl = byteBuffer.limit();
+        try {
+            while (cp < cl) {
+                if (bp == bl) {
+                    return true;
+                }
+                final char c = chars[cp];
+                if (c <= 0xff) {
+                    bytes[bp++] = (byte) c;
+                    cp++;
+                } else if (Character.isHighSurrogate(c)) {
+                    if (cp + 1 == cl) {
+                        // wait for the rest of the pair
+                        return false;
+                    }
+                    // an unmappable pair is replaced as a unit
+                    bytes[bp++] = '?';
+                    cp += Character.isLowSurrogate(chars[cp + 1]) ? 2 : 1;
+                } else {
+                    bytes[bp++] = '?';
+                    cp++;
+                }
+            }
+            return false;
+        } finally {
+            charBuffer.position(cp);
+            byteBuffer.position(bp);
+        }
+    }
+
+    private static boolean encodeUtf8(final CharBuffer charBuffer, final ByteBuffer byteBuffer) {
+        final char[] chars = charBuffer.array();
+        final byte[] bytes = byteBuffer.array();
+        int cp = charBuffer.position();
+        final int cl = charBuffer.limit();
+        int bp = byteBuffer.position();
+        final int bl = byteBuffer.limit();
+        try {
+            while (cp < cl) {
+                final char c = chars[cp];
+                if (c < 0x80) {
+                    if (bp == bl) {
+                        return true;
+                    }
+                    bytes[bp++] = (byte) c;
+                    cp++;
+                } else if (c < 0x800) {
+                    if (bl - bp < 2) {
+                        return true;
+                    }
+                    bytes[bp++] = (byte) (0xc0 | c >> 6);
+                    bytes[bp++] = (byte) (0x80 | c & 0x3f);
+                    cp++;
+                } else if (Character.isHighSurrogate(c)) {
+                    if (cp + 1 == cl) {
+                        // wait for the rest of the pair
+                        return false;
+                    }
+                    final char low = chars[cp + 1];
+                    if (Character.isLowSurrogate(low)) {
+                        if (bl - bp < 4) {
+                            return true;
+                        }
+                        final int codePoint = Character.toCodePoint(c, low);
+                        bytes[bp++] = (byte) (0xf0 | codePoint >> 18);
+                        bytes[bp++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                        bytes[bp++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                        bytes[bp++] = (byte) (0x80 | codePoint & 0x3f);
+                        cp += 2;
+                    } else {
+                        if (bp == bl) {
+                            return true;
+                        }
+                        bytes[bp++] = '?';
+                        cp++;
+                    }
+                } else if (Character.isLowSurrogate(c)) {
+                    if (bp == bl) {
+                        return true;
+                    }
+                    bytes[bp++] = '?';
+                    cp++;
+                } else {
+                    if (bl - bp < 3) {
+                        return true;
+                    }
+                    bytes[bp++] = (byte) (0xe0 | c >> 12);
+                    bytes[bp++] = (byte) (0x80 | c >> 6 & 0x3f);
+                    bytes[bp++] = (byte) (0x80 | c & 0x3f);
+                    cp++;
+                }
+            }
+            return false;
+        } finally {
+            charBuffer.position(cp);
+            byteBuffer.position(bp);
+        }
+    }
+
     /** {@inheritDoc} */
     public long skip(long n) throws IOException {
         final ByteBuffer byteBuffer = this.byteBuffer;
@@ -201,8 +383,9 @@ public final class ReaderInputStream extends InputStream {
 
     /** {@inheritDoc} */
     public void close() throws IOException {
-        byteBuffer.clear();
-        charBuffer.clear();
+        eof = flushed = true;
+        byteBuffer.clear().flip();
+        charBuffer.clear().flip();
         reader.close();
     }
 
@@ -0,0 +1,300 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An in-VM pipe between an input stream and an output stream which is optimized for the case where exactly one
+ * thread writes to the pipe and exactly one thread reads from it.  Unlike {@link Pipe}, no monitor is held while
+ * transferring data; the read and write positions are published through volatile fields, and a side which has
+ * to wait for the other first spins briefly and then parks until it is signalled.
+ * <p>
+ * Using either side of this pipe from more than one thread at a time results in undefined behavior.
+ */
+public final class RingBufferPipe {
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 256 : 0;
+
+    private static final int MAX_BUFFER_SIZE = 1 << 30;
+
+    private final byte[] buffer;
+    private final int mask;
+    /** the total number of bytes read; written only by the reader **/
+    private volatile long readPos;
+    /** the total number of bytes written; written only by the writer **/
+    private volatile long writePos;
+    private volatile boolean writeClosed;
+    private volatile boolean readClosed;
+    /** the reader thread, if it is parked waiting for data **/
+    private volatile Thread waitingReader;
+    /** the writer thread, if it is parked waiting for space **/
+    private volatile Thread waitingWriter;
+    private final Object closeLock = new Object();
+
+    /**
+     * Construct a new instance.  The buffer size is rounded up to the next power of two.
+     *
+     * @param bufferSize the buffer size to use, between 1 and {@code 2^30}
+     */
+    public RingBufferPipe(int bufferSize) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be at least 1");
+        }
+        if (bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at most " + MAX_BUFFER_SIZE + " (the largest power of two array size)");
+        }
+        final int size = bufferSize == 1 ? 1 : Integer.highestOneBit(bufferSize - 1) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Wait for the read side to close.  Used when the writer needs to know when
+     * the reader finishes consuming a message.
+     */
+    public void await() {
+        boolean intr = false;
+        try {
+            synchronized (closeLock) {
+                while (! readClosed) {
+                    try {
+                        closeLock.wait();
+                    } catch (InterruptedException e) {
+                        intr = true;
+                    }
+                }
+            }
+        } finally {
+            if (intr) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void unpark(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Wait until there is data to read.
+     *
+     * @param readPos the current read position
+     * @return the current write position, or -1 if the pipe is at EOF
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    private long awaitData(final long readPos) throws InterruptedIOException {
+        long writePos;
+        int spins = SPINS;
+        while ((writePos = this.writePos) == readPos) {
+            if (writeClosed) {
+                // recheck in case the writer published data just before closing
+                writePos = this.writePos;
+                return writePos == readPos ? -1L : writePos;
+            }
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            waitingReader = Thread.currentThread();
+            try {
+                if (this.writePos == readPos && ! writeClosed) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingReader = null;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        return writePos;
+    }
+
+    /**
+     * Wait until there is space to write.
+     *
+     * @param writePos the current write position
+     * @return the current read position
+     * @throws IOException if the pipe was closed or the thread was interrupted while waiting
+     */
+    private long awaitSpace(final long writePos) throws IOException {
+        final long full = writePos - buffer.length;
+        long readPos;
+        int spins = SPINS;
+        while ((readPos = this.readPos) == full) {
+            if (writeClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+            waitingWriter = Thread.currentThread();
+            try {
+                if (this.readPos == full && ! writeClosed) {
+                    LockSupport.park(this);
+                }
+            } finally {
+                waitingWriter = null;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        }
+        if (writeClosed) {
+            throw new IOException("Stream closed");
+        }
+        return readPos;
+    }
+
+    private final InputStream in = new InputStream() {
+        public int read() throws IOException {
+            if (readClosed) {
+                return -1;
+            }
+            final long readPos = RingBufferPipe.this.readPos;
+            if (awaitData(readPos) == -1L) {
+                return -1;
+            }
+            try {
+                return buffer[(int) readPos & mask] & 0xff;
+            } finally {
+                RingBufferPipe.this.readPos = readPos + 1L;
+                unpark(waitingWriter);
+            }
+        }
+
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (readClosed) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final long readPos = RingBufferPipe.this.readPos;
+            final long writePos = awaitData(readPos);
+            if (writePos == -1L) {
+                return -1;
+            }
+            final byte[] buffer = RingBufferPipe.this.buffer;
+            final int cnt = (int) Math.min((long) len, writePos - readPos);
+            final int start = (int) readPos & mask;
+            final int firstLen = Math.min(cnt, buffer.length - start);
+            System.arraycopy(buffer, start, b, off, firstLen);
+            if (firstLen < cnt) {
+                // wrapped
+                System.arraycopy(buffer, 0, b, off + firstLen, cnt - firstLen);
+            }
+            RingBufferPipe.this.readPos = readPos + cnt;
+            unpark(waitingWriter);
+            return cnt;
+        }
+
+        public int available() throws IOException {
+            return readClosed ? 0 : (int) (writePos - readPos);
+        }
+
+        public void close() throws IOException {
+            writeClosed = true;
+            synchronized (closeLock) {
+                readClosed = true;
+                closeLock.notifyAll();
+            }
+            unpark(waitingWriter);
+        }
+    };
+
+    private final OutputStream out = new OutputStream() {
+        public void write(final int b) throws IOException {
+            if (writeClosed) {
+                throw new IOException("Stream closed");
+            }
+            final long writePos = RingBufferPipe.this.writePos;
+            awaitSpace(writePos);
+            buffer[(int) writePos & mask] = (byte) b;
+            RingBufferPipe.this.writePos = writePos + 1L;
+            unpark(waitingReader);
+        }
+
+        public void write(final byte[] b, int off, final int len) throws IOException {
+            if (writeClosed) {
+                throw new IOException("Stream closed");
+            }
+            final byte[] buffer = RingBufferPipe.this.buffer;
+            final int bufLen = buffer.length;
+            int remaining = len;
+            long writePos = RingBufferPipe.this.writePos;
+            while (remaining > 0) {
+                final long readPos;
+                try {
+                    readPos = awaitSpace(writePos);
+                } catch (InterruptedIOException e) {
+                    e.bytesTransferred = len - remaining;
+                    throw e;
+                }
+                final int cnt = (int) Math.min((long) remaining, bufLen - (writePos - readPos));
+                final int start = (int) writePos & mask;
+                final int firstLen = Math.min(cnt, bufLen - start);
+                System.arraycopy(b, off, buffer, start, firstLen);
+                if (firstLen < cnt) {
+                    // wrapped
+                    System.arraycopy(b, off + firstLen, buffer, 0, cnt - firstLen);
+                }
+                off += cnt;
+                remaining -= cnt;
+                writePos += cnt;
+                RingBufferPipe.this.writePos = writePos;
+                unpark(waitingReader);
+            }
+        }
+
+        public void close() throws IOException {
+            writeClosed = true;
+            unpark(waitingReader);
+        }
+    };
+
+    /**
+     * Get the input (read) side of the pipe.
+     *
+     * @return the input side
+     */
+    public InputStream getIn() {
+        return in;
+    }
+
+    /**
+     * Get the output (write) side of the pipe.
+     *
+     * @return the output side
+     */
+    public OutputStream getOut() {
+        return out;
+    }
+}
@@ -39,10 +39,16 @@ import java.nio.charset.CodingErrorAction;
  */
 public final class WriterOutputStream extends OutputStream {
 
+    private static final int GENERIC = 0;
+    private static final int ISO_8859_1 = 1;
+    private static final int UTF_8 = 2;
+
     private final Writer writer;
     private final CharsetDecoder decoder;
+    private final int mode;
     private final ByteBuffer byteBuffer;
     private final char[] chars;
+    private final CharBuffer charBuffer;
     private volatile boolean closed;
 
     /**
@@ -74,8 +80,12 @@ public final class WriterOutputStream extends OutputStream {
     public WriterOutputStream(final Writer writer, final CharsetDecoder decoder, int bufferSize) {
         this.writer = writer;
         this.decoder = decoder;
-        byteBuffer = ByteBuffer.allocate(bufferSize);
-        chars = new char[(int) ((float)bufferSize * decoder.maxCharsPerByte() + 0.5f)];
+        mode = getMode(decoder);
+        // room for at least one complete multi-byte sequence
+        byteBuffer = ByteBuffer.allocate(Math.max(4, bufferSize));
+        // room for at least one decoded surrogate pair
+        chars = new char[Math.max(2, (int) ((float)bufferSize * decoder.maxCharsPerByte() + 0.5f))];
+        charBuffer = CharBuffer.wrap(chars);
     }
 
     /**
@@ -107,6 +117,24 @@ public final class WriterOutputStream extends OutputStream {
         return decoder;
     }
 
+    /**
+     * Determine whether the decoder can be replaced by a built-in transcoding loop.  This is only the case for
+     * the common character sets, when the decoder is configured to replace bad input with {@code "?"}.
+     */
+    private static int getMode(final CharsetDecoder decoder) {
+        if (decoder.malformedInputAction() != CodingErrorAction.REPLACE || decoder.unmappableCharacterAction() != CodingErrorAction.REPLACE || ! "?".equals(decoder.replacement())) {
+            return GENERIC;
+        }
+        final String name = decoder.charset().name();
+        if (name.equals("UTF-8")) {
+            return UTF_8;
+        } else if (name.equals("ISO-8859-1")) {
+            return ISO_8859_1;
+        } else {
+            return GENERIC;
+        }
+    }
+
     /** {@inheritDoc} */
     public void write(final int b) throws IOException {
         if (closed) throw new IOException("Stream closed");
@@ -121,7 +149,6 @@ public final class WriterOutputStream extends OutputStream {
     public void write(final byte[] b, int off, int len) throws IOException {
         if (closed) throw new IOException("Stream closed");
         final ByteBuffer byteBuffer = this.byteBuffer;
-        // todo Correct first, fast later
         while (len > 0) {
             final int r = byteBuffer.remaining();
             if (r == 0) {
@@ -136,37 +163,175 @@ public final class WriterOutputStream extends OutputStream {
     }
 
     private void doFlush(final boolean eof) throws IOException {
-        final CharBuffer charBuffer = CharBuffer.wrap(chars);
         final ByteBuffer byteBuffer = this.byteBuffer;
-        final CharsetDecoder decoder = this.decoder;
         byteBuffer.flip();
         try {
-            while (byteBuffer.hasRemaining()) {
-                final CoderResult result = decoder.decode(byteBuffer, charBuffer, eof);
-                if (result.isOverflow()) {
-                    writer.write(chars, 0, charBuffer.position());
-                    charBuffer.clear();
+            switch (mode) {
+                case UTF_8: decodeUtf8(eof); break;
+                case ISO_8859_1: decodeLatin1(); break;
+                default: decode(eof); break;
+            }
+        } finally {
+            byteBuffer.compact();
+        }
+    }
+
+    private void decode(final boolean eof) throws IOException {
+        final CharBuffer charBuffer = this.charBuffer;
+        final ByteBuffer byteBuffer = this.byteBuffer;
+        final CharsetDecoder decoder = this.decoder;
+        final char[] chars = this.chars;
+        charBuffer.clear();
+        for (;;) {
+            // at the end of input the decoder must see the final call even if no bytes are left
+            final CoderResult result = decoder.decode(byteBuffer, charBuffer, eof);
+            if (result.isOverflow()) {
+                writer.write(chars, 0, charBuffer.position());
+                charBuffer.clear();
+                continue;
+            }
+            if (result.isUnderflow()) {
+                break;
+            }
+            if (result.isError()) {
+                if (result.isMalformed()) {
+                    throw new CharConversionException("Malformed input");
+                }
+                if (result.isUnmappable()) {
+                    throw new CharConversionException("Unmappable character");
+                }
+                throw new CharConversionException("Character decoding problem");
+            }
+        }
+        if (eof) {
+            while (decoder.flush(charBuffer).isOverflow()) {
+                writer.write(chars, 0, charBuffer.position());
+                charBuffer.clear();
+            }
+        }
+        final int p = charBuffer.position();
+        if (p > 0) {
+            writer.write(chars, 0, p);
+        }
+    }
+
+    private void decodeLatin1() throws IOException {
+        final ByteBuffer byteBuffer = this.byteBuffer;
+        final byte[] bytes = byteBuffer.array();
+        final char[] chars = this.chars;
+        int bp = byteBuffer.position();
+        final int bl = byteBuffer.limit();
+        while (bp < bl) {
+            final int cnt = Math.min(bl - bp, chars.length);
+            for (int i = 0; i < cnt; i ++) {
+                chars[i] = (char) (bytes[bp + i] & 0xff);
+            }
+            bp += cnt;
+            byteBuffer.position(bp);
+            writer.write(chars, 0, cnt);
+        }
+    }
+
+    private void decodeUtf8(final boolean eof) throws IOException {
+        final ByteBuffer byteBuffer = this.byteBuffer;
+        final byte[] bytes = byteBuffer.array();
+        final char[] chars = this.chars;
+        final int cl = chars.length;
+        int bp = byteBuffer.position();
+        final int bl = byteBuffer.limit();
+        int cp = 0;
+        try {
+            while (bp < bl) {
+                if (cl - cp < 2) {
+                    writer.write(chars, 0, cp);
+                    cp = 0;
+                }
+                final int b0 = bytes[bp];
+                if (b0 >= 0) {
+                    chars[cp++] = (char) b0;
+                    bp++;
                     continue;
                 }
-                if (result.isUnderflow()) {
-                    final int p = charBuffer.position();
-                    if (p > 0) {
-                        writer.write(chars, 0, p);
+                final int len = b0 >= (byte) 0xf0 ? 4 : b0 >= (byte) 0xe0 ? 3 : b0 >= (byte) 0xc2 ? 2 : 0;
+                if (len == 0) {
+                    // stray continuation byte or invalid lead byte
+                } else if (bl - bp < len) {
+                    // truncated; the decoder decides whether it is malformed or incomplete
+                } else if (len == 2) {
+                    final int b1 = bytes[bp + 1];
+                    if ((b1 & 0xc0) == 0x80) {
+                        chars[cp++] = (char) ((b0 & 0x1f) << 6 | b1 & 0x3f);
+                        bp += 2;
+                        continue;
                     }
-                    return;
-                }
-                if (result.isError()) {
-                    if (result.isMalformed()) {
-                        throw new CharConversionException("Malformed input");
+                } else if (len == 3) {
+                    final int b1 = bytes[bp + 1];
+                    final int b2 = bytes[bp + 2];
+                    if (isValidSecond(b0, b1) && (b2 & 0xc0) == 0x80) {
+                        chars[cp++] = (char) ((b0 & 0x0f) << 12 | (b1 & 0x3f) << 6 | b2 & 0x3f);
+                        bp += 3;
+                        continue;
                     }
-                    if (result.isUnmappable()) {
-                        throw new CharConversionException("Unmappable character");
+                } else {
+                    final int b1 = bytes[bp + 1];
+                    final int b2 = bytes[bp + 2];
+                    final int b3 = bytes[bp + 3];
+                    if (isValidSecond(b0, b1) && (b2 & 0xc0) == 0x80 && (b3 & 0xc0) == 0x80) {
+                        final int codePoint = (b0 & 0x07) << 18 | (b1 & 0x3f) << 12 | (b2 & 0x3f) << 6 | b3 & 0x3f;
+                        chars[cp++] = Character.highSurrogate(codePoint);
+                        chars[cp++] = Character.lowSurrogate(codePoint);
+                        bp += 4;
+                        continue;
                     }
-                    throw new CharConversionException("Character decoding problem");
                 }
+                // malformed or truncated; let the decoder apply its replacement rules
+                if (cp > 0) {
+                    writer.write(chars, 0, cp);
+                    cp = 0;
+                }
+                final int np = decodeMalformed(bp, bl, eof);
+                if (np == bp) {
+                    // wait for the rest of the sequence
+                    return;
+                }
+                bp = np;
             }
         } finally {
-            byteBuffer.compact();
+            byteBuffer.position(bp);
+            if (cp > 0) {
+                writer.write(chars, 0, cp);
+            }
+        }
+    }
+
+    private static boolean isValidSecond(final int b0, final int b1) {
+        switch (b0 & 0xff) {
+            case 0xe0: return (b1 & 0xe0) == 0xa0;
+            case 0xed: return (b1 & 0xe0) == 0x80;
+            case 0xf0: return (b1 & 0xff) >= 0x90 && (b1 & 0xc0) == 0x80;
+            case 0xf4: return (b1 & 0xf0) == 0x80;
+            default: return (b0 & 0xff) <= 0xf4 && (b1 & 0xc0) == 0x80;
+        }
+    }
+
+    /**
+     * Decode the bad or truncated sequence at {@code bp} using the decoder, which knows how much of it to replace.
+     *
+     * @return the new byte position, which is unchanged if the sequence is incomplete
+     */
+    private int decodeMalformed(final int bp, final int bl, final boolean eof) throws IOException {
+        final ByteBuffer byteBuffer = this.byteBuffer;
+        final CharBuffer charBuffer = this.charBuffer;
+        final int limit = Math.min(bl, bp + 4);
+        byteBuffer.position(bp).limit(limit);
+        charBuffer.clear();
+        try {
+            decoder.reset();
+            decoder.decode(byteBuffer, charBuffer, eof && limit == bl);
+            writer.write(chars, 0, charBuffer.position());
+            return byteBuffer.position();
+        } finally {
+            byteBuffer.limit(bl);
         }
     }
 
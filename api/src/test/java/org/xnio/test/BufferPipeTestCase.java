@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+import org.xnio.Buffers;
+import org.xnio.Pooled;
+import org.xnio.streams.BufferPipeInputStream;
+import org.xnio.streams.BufferPipeOutputStream;
+
+/**
+ * Tests for {@link BufferPipeOutputStream} and {@link BufferPipeInputStream}.
+ */
+public final class BufferPipeTestCase extends TestCase {
+
+    private static final class RecordingWriter implements BufferPipeOutputStream.BufferWriter {
+        final List<Pooled<ByteBuffer>> accepted = new ArrayList<Pooled<ByteBuffer>>();
+        final List<Boolean> eofs = new ArrayList<Boolean>();
+        int flushes;
+
+        public Pooled<ByteBuffer> getBuffer() {
+            return Buffers.pooledWrapper(ByteBuffer.allocate(16));
+        }
+
+        public void accept(final Pooled<ByteBuffer> pooledBuffer, final boolean eof) {
+            accepted.add(pooledBuffer);
+            eofs.add(Boolean.valueOf(eof));
+        }
+
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    private static final class CountingHandler implements BufferPipeInputStream.InputHandler {
+        int acknowledged;
+        boolean closed;
+
+        public void acknowledge() {
+            acknowledged++;
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public void testWriteBufferHandoff() throws IOException {
+        final RecordingWriter writer = new RecordingWriter();
+        final BufferPipeOutputStream out = new BufferPipeOutputStream(writer);
+        out.write(new byte[] { 1, 2, 3 });
+        final Pooled<ByteBuffer> handed = Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 4, 5 }));
+        out.write(handed);
+        assertEquals(2, writer.accepted.size());
+        final ByteBuffer first = writer.accepted.get(0).getResource();
+        assertEquals(3, first.remaining());
+        assertEquals(1, first.get(0));
+        assertSame(handed, writer.accepted.get(1));
+        assertEquals(2, handed.getResource().remaining());
+        assertEquals(Boolean.FALSE, writer.eofs.get(1));
+    }
+
+    public void testWriteEmptyBufferHandoff() throws IOException {
+        final RecordingWriter writer = new RecordingWriter();
+        final BufferPipeOutputStream out = new BufferPipeOutputStream(writer);
+        final Pooled<ByteBuffer> empty = Buffers.pooledWrapper(ByteBuffer.allocate(0));
+        out.write(empty);
+        assertTrue(writer.accepted.isEmpty());
+        try {
+            empty.getResource();
+            fail("Empty buffer was not freed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testWriteBufferAfterClose() throws IOException {
+        final RecordingWriter writer = new RecordingWriter();
+        final BufferPipeOutputStream out = new BufferPipeOutputStream(writer);
+        out.close();
+        final int sent = writer.accepted.size();
+        final Pooled<ByteBuffer> handed = Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 1 }));
+        try {
+            out.write(handed);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+        assertEquals(sent, writer.accepted.size());
+        try {
+            handed.getResource();
+            fail("Rejected buffer was not freed");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testDoubleFlush() throws IOException {
+        final RecordingWriter writer = new RecordingWriter();
+        final BufferPipeOutputStream out = new BufferPipeOutputStream(writer);
+        out.write(7);
+        out.flush();
+        out.flush();
+        assertEquals(2, writer.flushes);
+        assertEquals(1, writer.accepted.size());
+        out.write(8);
+        out.close();
+        assertEquals(2, writer.accepted.size());
+        assertEquals(8, writer.accepted.get(1).getResource().get(0));
+        assertEquals(Boolean.TRUE, writer.eofs.get(1));
+    }
+
+    public void testFlushAfterHandoff() throws IOException {
+        final RecordingWriter writer = new RecordingWriter();
+        final BufferPipeOutputStream out = new BufferPipeOutputStream(writer);
+        out.write(Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 1, 2 })));
+        out.flush();
+        out.close();
+        assertEquals(2, writer.flushes);
+        assertEquals(2, writer.accepted.size());
+        assertEquals(Boolean.TRUE, writer.eofs.get(1));
+        assertEquals(0, writer.accepted.get(1).getResource().remaining());
+    }
+
+    public void testReadBufferHandoff() throws IOException {
+        final CountingHandler handler = new CountingHandler();
+        final BufferPipeInputStream in = new BufferPipeInputStream(handler);
+        final Pooled<ByteBuffer> first = Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+        final Pooled<ByteBuffer> second = Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 4 }));
+        in.push(first);
+        in.push(second);
+        assertEquals(1, in.read());
+        final Pooled<ByteBuffer> taken = in.readBuffer();
+        assertSame(first, taken);
+        assertEquals(2, taken.getResource().remaining());
+        assertEquals(1, handler.acknowledged);
+        assertEquals(4, in.read());
+        in.pushEof();
+        assertNull(in.readBuffer());
+        assertEquals(-1, in.read());
+    }
+
+    public void testReadBufferWaitsForPush() throws Exception {
+        final BufferPipeInputStream in = new BufferPipeInputStream(new CountingHandler());
+        final Pooled<ByteBuffer> pushed = Buffers.pooledWrapper(ByteBuffer.wrap(new byte[] { 9 }));
+        final Thread pusher = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100L);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                in.push(pushed);
+            }
+        });
+        pusher.start();
+        try {
+            assertSame(pushed, in.readBuffer());
+        } finally {
+            pusher.join();
+        }
+    }
+}
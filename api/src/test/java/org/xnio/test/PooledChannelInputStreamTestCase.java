@@ -0,0 +1,290 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+import org.xnio.ChannelListener;
+import org.xnio.Option;
+import org.xnio.Pool;
+import org.xnio.Pooled;
+import org.xnio.ReadChannelThread;
+import org.xnio.channels.ReadTimeoutException;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.streams.PooledChannelInputStream;
+
+/**
+ * Tests for {@link PooledChannelInputStream}.
+ */
+public final class PooledChannelInputStreamTestCase extends TestCase {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * A pool of heap buffers which counts the buffers currently borrowed from it.
+     */
+    private static final class CountingPool implements Pool<ByteBuffer> {
+        int outstanding;
+        boolean exhausted;
+
+        public Pooled<ByteBuffer> allocate() {
+            if (exhausted) {
+                return null;
+            }
+            outstanding++;
+            final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            return new Pooled<ByteBuffer>() {
+                private boolean freed;
+
+                public void discard() {
+                    free();
+                }
+
+                public void free() {
+                    if (! freed) {
+                        freed = true;
+                        outstanding--;
+                    }
+                }
+
+                public ByteBuffer getResource() {
+                    if (freed) {
+                        throw new IllegalStateException();
+                    }
+                    return buffer;
+                }
+            };
+        }
+    }
+
+    /**
+     * A channel which delivers a scripted sequence of chunks, one per read; an empty chunk makes a single read
+     * return 0.  The end of the stream is reached once the script is exhausted, unless the channel is set to stall.
+     */
+    private static final class ScriptedChannel implements StreamSourceChannel {
+        final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        final List<Integer> requested = new ArrayList<Integer>();
+        final List<ByteBuffer> targets = new ArrayList<ByteBuffer>();
+        final CountingPool pool;
+        boolean stall;
+        boolean shutdown;
+        int outstandingWhileWaiting = -1;
+
+        ScriptedChannel(final CountingPool pool) {
+            this.pool = pool;
+        }
+
+        ScriptedChannel add(final byte[] chunk) {
+            chunks.add(chunk);
+            return this;
+        }
+
+        public int read(final ByteBuffer dst) {
+            requested.add(Integer.valueOf(dst.remaining()));
+            targets.add(dst);
+            final byte[] chunk = chunks.poll();
+            if (chunk == null) {
+                return stall ? 0 : -1;
+            }
+            final int cnt = Math.min(chunk.length, dst.remaining());
+            dst.put(chunk, 0, cnt);
+            if (cnt < chunk.length) {
+                final byte[] rest = new byte[chunk.length - cnt];
+                System.arraycopy(chunk, cnt, rest, 0, rest.length);
+                chunks.addFirst(rest);
+            }
+            return cnt;
+        }
+
+        public long read(final ByteBuffer[] dsts, final int offset, final int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long read(final ByteBuffer[] dsts) {
+            throw new UnsupportedOperationException();
+        }
+
+        public long transferTo(final long position, final long count, final FileChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        public void suspendReads() {
+        }
+
+        public void resumeReads() {
+        }
+
+        public boolean isReadResumed() {
+            return false;
+        }
+
+        public void shutdownReads() {
+            shutdown = true;
+        }
+
+        public void awaitReadable() {
+            outstandingWhileWaiting = pool.outstanding;
+        }
+
+        public void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
+            outstandingWhileWaiting = pool.outstanding;
+            try {
+                Thread.sleep(Math.max(1L, timeUnit.toMillis(time)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void setReadThread(final ReadChannelThread thread) {
+        }
+
+        public ReadChannelThread getReadThread() {
+            return null;
+        }
+
+        public ChannelListener.Setter<? extends StreamSourceChannel> getReadSetter() {
+            return null;
+        }
+
+        public ChannelListener.Setter<? extends StreamSourceChannel> getCloseSetter() {
+            return null;
+        }
+
+        public boolean supportsOption(final Option<?> option) {
+            return false;
+        }
+
+        public <T> T getOption(final Option<T> option) {
+            return null;
+        }
+
+        public <T> T setOption(final Option<T> option, final T value) {
+            return null;
+        }
+
+        public boolean isOpen() {
+            return ! shutdown;
+        }
+
+        public void close() {
+            shutdown = true;
+        }
+    }
+
+    private static byte[] bytes(final int count, final int start) {
+        final byte[] b = new byte[count];
+        for (int i = 0; i < count; i ++) {
+            b[i] = (byte) (start + i);
+        }
+        return b;
+    }
+
+    public void testFirstReadUsesWholeBuffer() throws IOException {
+        final CountingPool pool = new CountingPool();
+        final ScriptedChannel channel = new ScriptedChannel(pool).add(bytes(BUFFER_SIZE * 2, 0));
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool);
+        assertEquals(0, stream.read());
+        assertEquals(Integer.valueOf(BUFFER_SIZE), channel.requested.get(0));
+        assertEquals(1, channel.requested.size());
+        final byte[] b = new byte[BUFFER_SIZE * 2];
+        assertEquals(BUFFER_SIZE * 2 - 1, stream.read(b, 0, b.length));
+        assertEquals((byte) 1, b[0]);
+        assertEquals((byte) (BUFFER_SIZE * 2 - 1), b[BUFFER_SIZE * 2 - 2]);
+        assertEquals(-1, stream.read());
+    }
+
+    public void testBufferReleasedWhenDrained() throws IOException {
+        final CountingPool pool = new CountingPool();
+        final ScriptedChannel channel = new ScriptedChannel(pool).add(bytes(10, 0)).add(bytes(5, 10));
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool);
+        final byte[] b = new byte[4];
+        assertEquals(4, stream.read(b));
+        assertEquals(1, pool.outstanding);
+        assertEquals(6, stream.skip(6));
+        assertEquals(0, pool.outstanding);
+        assertEquals(5, stream.available());
+        assertEquals(1, pool.outstanding);
+        assertEquals(5, stream.read(new byte[8]));
+        assertEquals(0, pool.outstanding);
+        assertEquals(-1, stream.read());
+        assertEquals(0, pool.outstanding);
+    }
+
+    public void testNoBufferHeldWhileWaiting() throws IOException {
+        final CountingPool pool = new CountingPool();
+        final ScriptedChannel channel = new ScriptedChannel(pool).add(new byte[0]).add(bytes(3, 7));
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool);
+        assertEquals(7, stream.read());
+        assertEquals(0, channel.outstandingWhileWaiting);
+        assertEquals(1, pool.outstanding);
+    }
+
+    public void testExhaustedPool() throws IOException {
+        final CountingPool pool = new CountingPool();
+        pool.exhausted = true;
+        final ScriptedChannel channel = new ScriptedChannel(pool).add(bytes(100, 0)).add(new byte[0]).add(bytes(50, 100));
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool);
+        final byte[] b = new byte[200];
+        assertEquals(100, stream.read(b));
+        assertEquals((byte) 99, b[99]);
+        assertEquals(50, stream.read(b));
+        assertEquals((byte) 149, b[49]);
+        assertEquals(-1, stream.read(b));
+        // every read used the same fallback buffer
+        for (ByteBuffer target : channel.targets) {
+            assertSame(channel.targets.get(0), target);
+        }
+    }
+
+    public void testReadTimeout() throws IOException {
+        final CountingPool pool = new CountingPool();
+        final ScriptedChannel channel = new ScriptedChannel(pool);
+        channel.stall = true;
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool, 50L, TimeUnit.MILLISECONDS);
+        assertEquals(50L, stream.getReadTimeout(TimeUnit.MILLISECONDS));
+        try {
+            stream.read();
+            fail("Expected read timeout");
+        } catch (ReadTimeoutException expected) {
+        }
+        assertEquals(0, pool.outstanding);
+    }
+
+    public void testCloseReleasesBuffer() throws IOException {
+        final CountingPool pool = new CountingPool();
+        final ScriptedChannel channel = new ScriptedChannel(pool).add(bytes(10, 0));
+        final PooledChannelInputStream stream = new PooledChannelInputStream(channel, pool);
+        assertEquals(0, stream.read());
+        assertEquals(1, pool.outstanding);
+        stream.close();
+        assertEquals(0, pool.outstanding);
+        assertTrue(channel.shutdown);
+        assertEquals(-1, stream.read());
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.xnio.streams.ReaderInputStream;
+
+/**
+ * Tests for {@link ReaderInputStream}, comparing its output against the JDK encoders.
+ */
+public final class ReaderInputStreamTestCase extends TestCase {
+
+    private static final String[] CHARSETS = { "UTF-8", "ISO-8859-1", "UTF-16BE" };
+
+    private static final int[] BUFFER_SIZES = { 1, 2, 3, 5, 1024 };
+
+    private static final int[] READ_SIZES = { 1, 2, 3, 1000 };
+
+    /**
+     * A reader which returns at most a fixed number of characters per read, so that surrogate pairs are split
+     * across buffer refills.
+     */
+    private static final class ChunkedReader extends Reader {
+        private final String string;
+        private final int chunk;
+        private int pos;
+
+        ChunkedReader(final String string, final int chunk) {
+            this.string = string;
+            this.chunk = chunk;
+        }
+
+        public int read(final char[] cbuf, final int off, final int len) {
+            if (pos == string.length()) {
+                return -1;
+            }
+            final int cnt = Math.min(Math.min(len, chunk), string.length() - pos);
+            string.getChars(pos, pos + cnt, cbuf, off);
+            pos += cnt;
+            return cnt;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static CharsetEncoder newEncoder(final String charsetName) {
+        final CharsetEncoder encoder = Charset.forName(charsetName).newEncoder();
+        encoder.onMalformedInput(CodingErrorAction.REPLACE);
+        encoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return encoder;
+    }
+
+    private static byte[] expected(final String string, final String charsetName) throws IOException {
+        final ByteBuffer buffer = newEncoder(charsetName).encode(CharBuffer.wrap(string));
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] encode(final String string, final String charsetName, final int bufferSize, final int chunk, final int readSize) throws IOException {
+        final ReaderInputStream stream = new ReaderInputStream(new ChunkedReader(string, chunk), newEncoder(charsetName), bufferSize);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] b = new byte[readSize];
+        if (readSize == 1) {
+            int c;
+            while ((c = stream.read()) != -1) {
+                out.write(c);
+            }
+        } else {
+            int c;
+            while ((c = stream.read(b, 0, b.length)) != -1) {
+                out.write(b, 0, c);
+            }
+        }
+        assertEquals(-1, stream.read());
+        return out.toByteArray();
+    }
+
+    private static void check(final String string) throws IOException {
+        for (String charsetName : CHARSETS) {
+            final byte[] expected = expected(string, charsetName);
+            for (int bufferSize : BUFFER_SIZES) {
+                for (int chunk : READ_SIZES) {
+                    for (int readSize : READ_SIZES) {
+                        final byte[] actual = encode(string, charsetName, bufferSize, chunk, readSize);
+                        if (! Arrays.equals(expected, actual)) {
+                            fail(String.format("Mismatch for %s with buffer size %d, chunk %d, read size %d: expected %s but got %s", charsetName, Integer.valueOf(bufferSize), Integer.valueOf(chunk), Integer.valueOf(readSize), Arrays.toString(expected), Arrays.toString(actual)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void testEmpty() throws IOException {
+        check("");
+    }
+
+    public void testAscii() throws IOException {
+        check("The quick brown fox jumps over the lazy dog");
+    }
+
+    public void testMultiByte() throws IOException {
+        check("café naïve ÿĀ ࠀ中文￿");
+    }
+
+    public void testSurrogatePairs() throws IOException {
+        check("😀a𐀀bc􏿿😀");
+    }
+
+    public void testLoneSurrogates() throws IOException {
+        check("a\ud800b");
+        check("a\udc00b");
+        check("\udc00\ud800");
+        check("\ud800𐀀");
+    }
+
+    public void testTrailingHighSurrogate() throws IOException {
+        check("\ud800");
+        check("abc\ud83d");
+        check("é😀\ud83d");
+    }
+
+    public void testRandom() throws IOException {
+        final Random random = new Random(2011L);
+        final char[] pool = { 'a', 'Z', '\u007f', '\u0080', 'ÿ', 'Ā', '߿', 'ࠀ', '中', '￿', '\ud800', '\udbff', '\udc00', '\udfff' };
+        for (int i = 0; i < 50; i ++) {
+            final char[] chars = new char[random.nextInt(40)];
+            for (int j = 0; j < chars.length; j ++) {
+                chars[j] = pool[random.nextInt(pool.length)];
+            }
+            check(new String(chars));
+        }
+    }
+
+    public void testSkip() throws IOException {
+        final String string = "中文😀xyz";
+        final byte[] expected = expected(string, "UTF-8");
+        final ReaderInputStream stream = new ReaderInputStream(new ChunkedReader(string, 1), newEncoder("UTF-8"), 2);
+        assertEquals(5L, stream.skip(5L));
+        assertEquals(expected[5] & 0xff, stream.read());
+        assertEquals((long) expected.length - 6, stream.skip(100L));
+        assertEquals(-1, stream.read());
+    }
+}
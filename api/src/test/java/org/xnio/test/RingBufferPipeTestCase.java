@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import junit.framework.TestCase;
+import org.xnio.streams.RingBufferPipe;
+
+/**
+ * Tests for {@link RingBufferPipe}.
+ */
+public final class RingBufferPipeTestCase extends TestCase {
+
+    public void testSingleBytes() throws IOException {
+        final RingBufferPipe pipe = new RingBufferPipe(4);
+        final OutputStream out = pipe.getOut();
+        final InputStream in = pipe.getIn();
+        out.write(1);
+        out.write(2);
+        out.write(0xff);
+        assertEquals(3, in.available());
+        assertEquals(1, in.read());
+        assertEquals(2, in.read());
+        assertEquals(0xff, in.read());
+        out.close();
+        assertEquals(-1, in.read());
+    }
+
+    public void testWrappedBulkTransfer() throws IOException {
+        final RingBufferPipe pipe = new RingBufferPipe(8);
+        final OutputStream out = pipe.getOut();
+        final InputStream in = pipe.getIn();
+        out.write(new byte[] { 0, 1, 2, 3, 4, 5 });
+        final byte[] b = new byte[8];
+        assertEquals(6, in.read(b));
+        out.write(new byte[] { 6, 7, 8, 9, 10, 11, 12, 13 });
+        assertEquals(8, in.read(b));
+        assertTrue(Arrays.equals(new byte[] { 6, 7, 8, 9, 10, 11, 12, 13 }, b));
+    }
+
+    public void testThreadedTransfer() throws Throwable {
+        final RingBufferPipe pipe = new RingBufferPipe(100);
+        final int total = 1 << 20;
+        final Throwable[] problem = new Throwable[1];
+        final Thread writer = new Thread(new Runnable() {
+            public void run() {
+                final OutputStream out = pipe.getOut();
+                try {
+                    final byte[] b = new byte[77];
+                    int cnt = 0;
+                    while (cnt < total) {
+                        final int len = Math.min(b.length, total - cnt);
+                        for (int i = 0; i < len; i ++) {
+                            b[i] = (byte) (cnt + i);
+                        }
+                        if ((cnt & 1) == 0) {
+                            out.write(b, 0, len);
+                        } else {
+                            for (int i = 0; i < len; i ++) {
+                                out.write(b[i]);
+                            }
+                        }
+                        cnt += len;
+                    }
+                    out.close();
+                } catch (Throwable t) {
+                    problem[0] = t;
+                }
+            }
+        });
+        writer.start();
+        final InputStream in = pipe.getIn();
+        final byte[] b = new byte[61];
+        int cnt = 0;
+        int res;
+        while ((res = in.read(b)) != -1) {
+            for (int i = 0; i < res; i ++) {
+                assertEquals((byte) (cnt + i), b[i]);
+            }
+            cnt += res;
+        }
+        writer.join();
+        if (problem[0] != null) {
+            throw problem[0];
+        }
+        assertEquals(total, cnt);
+    }
+
+    public void testReadSideClose() throws Exception {
+        final RingBufferPipe pipe = new RingBufferPipe(4);
+        final OutputStream out = pipe.getOut();
+        out.write(new byte[4]);
+        final Thread closer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(50L);
+                    pipe.getIn().close();
+                } catch (Exception e) {
+                    // ignored
+                }
+            }
+        });
+        closer.start();
+        try {
+            out.write(1);
+            fail("Expected exception");
+        } catch (IOException expected) {
+        }
+        pipe.await();
+        closer.join();
+    }
+
+    public void testBufferSizeBounds() {
+        try {
+            new RingBufferPipe(0);
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new RingBufferPipe((1 << 30) + 1);
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.xnio.streams.WriterOutputStream;
+
+/**
+ * Tests for {@link WriterOutputStream}, comparing its output against the JDK decoders.
+ */
+public final class WriterOutputStreamTestCase extends TestCase {
+
+    private static final String[] CHARSETS = { "UTF-8", "ISO-8859-1", "UTF-16BE" };
+
+    private static final int[] BUFFER_SIZES = { 1, 2, 3, 5, 1024 };
+
+    private static final int[] WRITE_SIZES = { 1, 2, 3, 1000 };
+
+    private static CharsetDecoder newDecoder(final String charsetName) {
+        final CharsetDecoder decoder = Charset.forName(charsetName).newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoder.replaceWith("?");
+        return decoder;
+    }
+
+    private static String expected(final byte[] bytes, final String charsetName) throws IOException {
+        return newDecoder(charsetName).decode(ByteBuffer.wrap(bytes)).toString();
+    }
+
+    private static String decode(final byte[] bytes, final String charsetName, final int bufferSize, final int writeSize) throws IOException {
+        final StringWriter writer = new StringWriter();
+        final WriterOutputStream stream = new WriterOutputStream(writer, newDecoder(charsetName), bufferSize);
+        if (writeSize == 1) {
+            for (byte b : bytes) {
+                stream.write(b);
+            }
+        } else {
+            for (int off = 0; off < bytes.length; off += writeSize) {
+                stream.write(bytes, off, Math.min(writeSize, bytes.length - off));
+            }
+        }
+        stream.close();
+        return writer.toString();
+    }
+
+    private static void check(final byte[] bytes) throws IOException {
+        for (String charsetName : CHARSETS) {
+            final String expected = expected(bytes, charsetName);
+            for (int bufferSize : BUFFER_SIZES) {
+                for (int writeSize : WRITE_SIZES) {
+                    assertEquals(String.format("%s with buffer size %d, write size %d", charsetName, Integer.valueOf(bufferSize), Integer.valueOf(writeSize)), expected, decode(bytes, charsetName, bufferSize, writeSize));
+                }
+            }
+        }
+    }
+
+    private static byte[] bytes(final int... values) {
+        final byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i ++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    public void testEmpty() throws IOException {
+        check(new byte[0]);
+    }
+
+    public void testValidSequences() throws IOException {
+        check("café ࠀ中文￿ 😀􏿿".getBytes("UTF-8"));
+    }
+
+    public void testMalformedSequences() throws IOException {
+        // stray continuation bytes and invalid lead bytes
+        check(bytes(0x80, 0x41, 0xbf, 0xc0, 0xc1, 0xf5, 0xff, 0x42));
+        // overlong encodings
+        check(bytes(0xc0, 0x80, 0xe0, 0x80, 0x80, 0xf0, 0x80, 0x80, 0x80));
+        // encoded surrogates and code points beyond U+10FFFF
+        check(bytes(0xed, 0xa0, 0x80, 0xed, 0xbf, 0xbf, 0xf4, 0x90, 0x80, 0x80));
+        // sequences interrupted by other bytes
+        check(bytes(0xe4, 0xb8, 0x41, 0xf0, 0x9f, 0x98, 0x42, 0xc3, 0x43));
+    }
+
+    public void testTruncatedAtEnd() throws IOException {
+        check(bytes(0x41, 0xc3));
+        check(bytes(0x41, 0xe4, 0xb8));
+        check(bytes(0x41, 0xf0, 0x9f, 0x98));
+    }
+
+    public void testRandom() throws IOException {
+        final Random random = new Random(2011L);
+        final byte[] valid = "aé中😀".getBytes("UTF-8");
+        for (int i = 0; i < 50; i ++) {
+            final byte[] bytes = new byte[random.nextInt(40)];
+            for (int j = 0; j < bytes.length; j ++) {
+                // mostly fragments of valid sequences, with some arbitrary bytes
+                bytes[j] = random.nextInt(4) == 0 ? (byte) random.nextInt(256) : valid[random.nextInt(valid.length)];
+            }
+            check(bytes);
+        }
+    }
+
+    public void testWriteAfterClose() throws IOException {
+        final WriterOutputStream stream = new WriterOutputStream(new StringWriter(), "UTF-8");
+        stream.close();
+        try {
+            stream.write(0x41);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+}
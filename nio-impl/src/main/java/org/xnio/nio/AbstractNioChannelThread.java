@@ -39,6 +39,8 @@ import java.util.concurrent.ThreadFactory;
 import org.jboss.logging.Logger;
 import org.xnio.AbstractChannelThread;
 import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
@@ -55,6 +57,13 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
     private final Object workLock = new Object();
     private final Queue<SelectorTask> selectorWorkQueue = new ArrayDeque<SelectorTask>();
     private final Set<TimeKey> delayWorkQueue = new TreeSet<TimeKey>();
+    private final long byteQuota;
+    private final long timeQuotaNanos;
+    // protected by workLock
+    private long timeKeySeq;
+    // accessed by the channel thread only
+    private long eventBytesRemaining = Long.MAX_VALUE;
+    private long eventStart;
     private final Thread thread;
     private final Runnable task = new Runnable() {
         public void run() {
@@ -130,6 +139,7 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
                     selectedKeys = selector.selectedKeys();
                     keyIterator = selectedKeys.iterator();
                     while (keyIterator.hasNext()) {
+                        startEvent();
                         ((NioHandle<?>) keyIterator.next().attachment()).invoke();
                         keyIterator.remove();
                     }
@@ -158,12 +168,43 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
         }
     }
 
-    protected AbstractNioChannelThread(ThreadFactory threadFactory) throws IOException {
+    protected AbstractNioChannelThread(ThreadFactory threadFactory, OptionMap optionMap) throws IOException {
         thread = threadFactory.newThread(task);
         if (thread == null) {
             throw new IllegalArgumentException("Thread factory did not yield a thread");
         }
         selector = Selector.open();
+        final long byteQuota = optionMap.get(Options.EVENT_BYTE_QUOTA, Long.MAX_VALUE);
+        final long timeQuota = optionMap.get(Options.EVENT_TIME_QUOTA, 0L);
+        if (byteQuota < 1L) {
+            throw new IllegalArgumentException("Event byte quota must be at least 1");
+        }
+        if (timeQuota < 0L) {
+            throw new IllegalArgumentException("Event time quota is negative");
+        }
+        this.byteQuota = byteQuota;
+        timeQuotaNanos = timeQuota > Long.MAX_VALUE / 1000L ? 0L : timeQuota * 1000L;
+    }
+
+    /**
+     * Reset the quota for the channel listener about to be invoked.
+     */
+    private void startEvent() {
+        eventBytesRemaining = byteQuota;
+        if (timeQuotaNanos != 0L) {
+            eventStart = System.nanoTime();
+        }
+    }
+
+    public boolean consumeQuota(final long bytes) {
+        if (! isCurrentThread()) {
+            return true;
+        }
+        if ((eventBytesRemaining -= bytes) <= 0L) {
+            return false;
+        }
+        final long timeQuotaNanos = this.timeQuotaNanos;
+        return timeQuotaNanos == 0L || System.nanoTime() - eventStart < timeQuotaNanos;
     }
 
     protected void start() {
@@ -202,7 +243,7 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
             } else {
                 deadline = System.nanoTime() + (time * 1000000L);
             }
-            final TimeKey key = new TimeKey(deadline, command);
+            final TimeKey key = new TimeKey(deadline, timeKeySeq++, command);
             delayWorkQueue.add(key);
             if (delayWorkQueue.iterator().next() == key) {
                 // we're the next one up; poke the selector to update its delay time
@@ -227,7 +268,7 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
                 throw new IllegalStateException(String.format("Cannot add channel %s to %s (stopping)", xnioChannel, this));
             }
             final SelectionKey key = channel.register(selector, ops);
-            final NioHandle<C> handle = new NioHandle<C>(key, this, setter, xnioChannel);
+            final NioHandle<C> handle = new NioHandle<C>(key, this, setter, xnioChannel, ops);
             key.attach(handle);
             key.interestOps(ops);
             return handle;
@@ -241,7 +282,7 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
                             return;
                         }
                         final SelectionKey key = channel.register(selector, ops);
-                        final NioHandle<C> handle = new NioHandle<C>(key, AbstractNioChannelThread.this, setter, xnioChannel);
+                        final NioHandle<C> handle = new NioHandle<C>(key, AbstractNioChannelThread.this, setter, xnioChannel, ops);
                         key.attach(handle);
                         key.interestOps(ops);
                         holder.set(handle);
@@ -282,15 +323,20 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
         }
     }
 
-    void setOps(final SelectionKey key, final int ops) {
+    boolean isCurrentThread() {
+        return thread == Thread.currentThread();
+    }
+
+    void updateOps(final NioHandle<?> handle) {
+        final SelectionKey key = handle.getSelectionKey();
         if (thread == Thread.currentThread()) {
-            key.interestOps(ops);
+            key.interestOps(handle.getEffectiveOps());
         } else {
             final SynchronousHolder<Void, CancelledKeyException> holder = new SynchronousHolder<Void, CancelledKeyException>(CancelledKeyException.class);
             queueTask(new SelectorTask() {
                 public void run(final Selector selector) {
                     try {
-                        key.interestOps(ops);
+                        key.interestOps(handle.getEffectiveOps());
                         holder.set(null);
                     } catch (RuntimeException e) {
                         holder.setProblem(e);
@@ -302,15 +348,26 @@ abstract class AbstractNioChannelThread extends AbstractChannelThread {
         }
     }
 
-    final class TimeKey implements Key {
+    final class TimeKey implements Key, Comparable<TimeKey> {
         private final long deadline;
+        private final long seq;
         private final Runnable command;
 
-        TimeKey(final long deadline, final Runnable command) {
+        TimeKey(final long deadline, final long seq, final Runnable command) {
             this.deadline = deadline;
+            this.seq = seq;
             this.command = command;
         }
 
+        public int compareTo(final TimeKey o) {
+            final long diff = deadline - o.deadline;
+            if (diff != 0L) {
+                return diff < 0L ? -1 : 1;
+            }
+            // keys with the same deadline are distinct, and run in the order they were submitted
+            return seq < o.seq ? -1 : seq > o.seq ? 1 : 0;
+        }
+
         public boolean remove() {
             synchronized (workLock) {
                 return delayWorkQueue.remove(this);
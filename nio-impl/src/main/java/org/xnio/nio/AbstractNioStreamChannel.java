@@ -89,6 +89,11 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
         if (readHandle != null) readHandle.resume(SelectionKey.OP_READ);
     }
 
+    public final boolean isReadResumed() {
+        final NioHandle<AbstractNioStreamChannel> readHandle = this.readHandle;
+        return readHandle != null && readHandle.isResumed(SelectionKey.OP_READ);
+    }
+
     public final void suspendWrites() {
         final NioHandle<AbstractNioStreamChannel> writeHandle = this.writeHandle;
         if (writeHandle != null) writeHandle.resume(0);
@@ -99,22 +104,39 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
         if (writeHandle != null) writeHandle.resume(SelectionKey.OP_WRITE);
     }
 
+    public final boolean isWriteResumed() {
+        final NioHandle<AbstractNioStreamChannel> writeHandle = this.writeHandle;
+        return writeHandle != null && writeHandle.isResumed(SelectionKey.OP_WRITE);
+    }
+
     // Await...
 
     public final void awaitReadable() throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ);
+        final NioHandle<AbstractNioStreamChannel> readHandle = this.readHandle;
+        if (readHandle == null || ! readHandle.await(SelectionKey.OP_READ, -1L)) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ);
+        }
     }
 
     public final void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ, time, timeUnit);
+        final NioHandle<AbstractNioStreamChannel> readHandle = this.readHandle;
+        if (readHandle == null || ! readHandle.await(SelectionKey.OP_READ, Math.max(1L, timeUnit.toMillis(time)))) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ, time, timeUnit);
+        }
     }
 
     public final void awaitWritable() throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE);
+        final NioHandle<AbstractNioStreamChannel> writeHandle = this.writeHandle;
+        if (writeHandle == null || ! writeHandle.await(SelectionKey.OP_WRITE, -1L)) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE);
+        }
     }
 
     public final void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE, time, timeUnit);
+        final NioHandle<AbstractNioStreamChannel> writeHandle = this.writeHandle;
+        if (writeHandle == null || ! writeHandle.await(SelectionKey.OP_WRITE, Math.max(1L, timeUnit.toMillis(time)))) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE, time, timeUnit);
+        }
     }
 
     // Change thread
@@ -136,7 +158,7 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
     @SuppressWarnings( { "unchecked" })
     public ReadChannelThread getReadThread() {
         final NioHandle<C> handle = readHandleUpdater.get(this);
-        return (ReadChannelThread) handle.getChannelThread();
+        return handle == null ? null : (ReadChannelThread) handle.getChannelThread();
     }
 
     public final void setWriteThread(final WriteChannelThread thread) throws IllegalArgumentException {
@@ -156,7 +178,7 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
     @SuppressWarnings( { "unchecked" })
     public WriteChannelThread getWriteThread() {
         final NioHandle<C> handle = writeHandleUpdater.get(this);
-        return (WriteChannelThread) handle.getChannelThread();
+        return handle == null ? null : (WriteChannelThread) handle.getChannelThread();
     }
 
     // Transfer bytes
@@ -165,7 +187,7 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
         return target.transferFrom(getReadChannel(), position, count);
     }
 
-    public final long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
         return src.transferTo(position, count, getWriteChannel());
     }
 
@@ -222,6 +244,11 @@ abstract class AbstractNioStreamChannel<C extends AbstractNioStreamChannel<C>> i
 
     // Utils for subclasses
 
+    final AbstractNioChannelThread getWriteChannelThread() {
+        final NioHandle<AbstractNioStreamChannel> writeHandle = this.writeHandle;
+        return writeHandle == null ? null : writeHandle.getChannelThread();
+    }
+
     protected void invokeCloseHandler() {
         ChannelListeners.invokeChannelListener(typed(), closeSetter.get());
     }
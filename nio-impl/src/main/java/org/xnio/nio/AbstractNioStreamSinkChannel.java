@@ -77,14 +77,25 @@ abstract class AbstractNioStreamSinkChannel<C extends AbstractNioStreamSinkChann
         if (writeHandle != null) writeHandle.resume(SelectionKey.OP_WRITE);
     }
 
+    public final boolean isWriteResumed() {
+        final NioHandle<AbstractNioStreamSinkChannel> writeHandle = this.writeHandle;
+        return writeHandle != null && writeHandle.isResumed(SelectionKey.OP_WRITE);
+    }
+
     // Await...
 
     public final void awaitWritable() throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE);
+        final NioHandle<AbstractNioStreamSinkChannel> writeHandle = this.writeHandle;
+        if (writeHandle == null || ! writeHandle.await(SelectionKey.OP_WRITE, -1L)) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE);
+        }
     }
 
     public final void awaitWritable(final long time, final TimeUnit timeUnit) throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE, time, timeUnit);
+        final NioHandle<AbstractNioStreamSinkChannel> writeHandle = this.writeHandle;
+        if (writeHandle == null || ! writeHandle.await(SelectionKey.OP_WRITE, Math.max(1L, timeUnit.toMillis(time)))) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getWriteChannel(), SelectionKey.OP_WRITE, time, timeUnit);
+        }
     }
 
     // Change thread
@@ -106,7 +117,7 @@ abstract class AbstractNioStreamSinkChannel<C extends AbstractNioStreamSinkChann
     @SuppressWarnings( { "unchecked" })
     public WriteChannelThread getWriteThread() {
         final NioHandle<C> handle = writeHandleUpdater.get(this);
-        return (WriteChannelThread) handle.getChannelThread();
+        return handle == null ? null : (WriteChannelThread) handle.getChannelThread();
     }
 
     // Transfer bytes
@@ -77,15 +77,26 @@ abstract class AbstractNioStreamSourceChannel<C extends AbstractNioStreamSourceC
         if (readHandle != null) readHandle.resume(SelectionKey.OP_READ);
     }
 
+    public final boolean isReadResumed() {
+        final NioHandle<AbstractNioStreamSourceChannel> readHandle = this.readHandle;
+        return readHandle != null && readHandle.isResumed(SelectionKey.OP_READ);
+    }
+
 
     // Await...
 
     public final void awaitReadable() throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ);
+        final NioHandle<AbstractNioStreamSourceChannel> readHandle = this.readHandle;
+        if (readHandle == null || ! readHandle.await(SelectionKey.OP_READ, -1L)) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ);
+        }
     }
 
     public final void awaitReadable(final long time, final TimeUnit timeUnit) throws IOException {
-        SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ, time, timeUnit);
+        final NioHandle<AbstractNioStreamSourceChannel> readHandle = this.readHandle;
+        if (readHandle == null || ! readHandle.await(SelectionKey.OP_READ, Math.max(1L, timeUnit.toMillis(time)))) {
+            SelectorUtils.await(nioXnio, (SelectableChannel) getReadChannel(), SelectionKey.OP_READ, time, timeUnit);
+        }
     }
 
     // Change thread
@@ -107,7 +118,7 @@ abstract class AbstractNioStreamSourceChannel<C extends AbstractNioStreamSourceC
     @SuppressWarnings( { "unchecked" })
     public ReadChannelThread getReadThread() {
         final NioHandle<C> handle = readHandleUpdater.get(this);
-        return (ReadChannelThread) handle.getChannelThread();
+        return handle == null ? null : (ReadChannelThread) handle.getChannelThread();
     }
 
     // Transfer bytes
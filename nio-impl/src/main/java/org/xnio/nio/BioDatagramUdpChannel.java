@@ -212,6 +212,16 @@ class BioDatagramUdpChannel implements MulticastMessageChannel {
         }
     }
 
+    public int receiveMany(final SocketAddressBuffer[] addressBuffers, final ByteBuffer[] buffers, final int offs, final int len) throws IOException {
+        synchronized (readLock) {
+            int i;
+            for (i = 0; i < len && readable; i ++) {
+                receiveFrom(addressBuffers == null ? null : addressBuffers[offs + i], buffers[offs + i]);
+            }
+            return i;
+        }
+    }
+
     public boolean isOpen() {
         return ! datagramSocket.isClosed();
     }
@@ -292,6 +302,16 @@ class BioDatagramUdpChannel implements MulticastMessageChannel {
         }
     }
 
+    public int sendMany(final SocketAddress[] targets, final ByteBuffer[] buffers, final int offset, final int length) throws IOException {
+        synchronized (writeLock) {
+            int i;
+            for (i = 0; i < length && writable; i ++) {
+                sendTo(targets[offset + i], buffers[offset + i]);
+            }
+            return i;
+        }
+    }
+
     public void suspendReads() {
         synchronized (readLock) {
             enableRead = false;
@@ -299,7 +319,7 @@ class BioDatagramUdpChannel implements MulticastMessageChannel {
     }
 
     public void suspendWrites() {
-        synchronized (readLock) {
+        synchronized (writeLock) {
             enableWrite = false;
         }
     }
@@ -332,6 +352,18 @@ class BioDatagramUdpChannel implements MulticastMessageChannel {
         }
     }
 
+    public boolean isReadResumed() {
+        synchronized (readLock) {
+            return enableRead;
+        }
+    }
+
+    public boolean isWriteResumed() {
+        synchronized (writeLock) {
+            return enableWrite;
+        }
+    }
+
     public void shutdownReads() throws IOException {
         throw new UnsupportedOperationException("Shutdown reads");
     }
@@ -24,6 +24,7 @@ package org.xnio.nio;
 
 import java.io.IOException;
 import java.util.concurrent.ThreadFactory;
+import org.xnio.OptionMap;
 import org.xnio.ConnectionChannelThread;
 
 /**
@@ -31,7 +32,7 @@ import org.xnio.ConnectionChannelThread;
  */
 final class NioConnectionChannelThread extends AbstractNioChannelThread implements ConnectionChannelThread {
 
-    NioConnectionChannelThread(final ThreadFactory threadFactory) throws IOException {
-        super(threadFactory);
+    NioConnectionChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        super(threadFactory, optionMap);
     }
 }
@@ -22,6 +22,8 @@
 
 package org.xnio.nio;
 
+import java.io.InterruptedIOException;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import org.xnio.ChannelListener;
@@ -33,11 +35,22 @@ final class NioHandle<C extends Channel> {
     private final NioSetter<C> handlerSetter;
     private final C channel;
 
-    NioHandle(final SelectionKey selectionKey, final AbstractNioChannelThread channelThread, final NioSetter<C> handlerSetter, final C channel) {
+    /** the interest ops requested by the channel user **/
+    private volatile int ops;
+
+    // protected by "this"
+    /** the interest ops requested by threads blocked in {@link #await(int, long)} **/
+    private int waitOps;
+    private int waiters;
+    private long readyCount;
+    private boolean cancelled;
+
+    NioHandle(final SelectionKey selectionKey, final AbstractNioChannelThread channelThread, final NioSetter<C> handlerSetter, final C channel, final int ops) {
         this.selectionKey = selectionKey;
         this.channelThread = channelThread;
         this.handlerSetter = handlerSetter;
         this.channel = channel;
+        this.ops = ops;
     }
 
     SelectionKey getSelectionKey() {
@@ -53,15 +66,90 @@ final class NioHandle<C extends Channel> {
     }
 
     void cancelKey() {
+        synchronized (this) {
+            cancelled = true;
+            notifyAll();
+        }
         channelThread.cancelKey(selectionKey);
     }
 
     void resume(final int op) {
-        channelThread.setOps(selectionKey, op);
+        ops = op;
+        channelThread.updateOps(this);
     }
 
     void suspend() {
-        channelThread.setOps(selectionKey, 0);
+        ops = 0;
+        channelThread.updateOps(this);
+    }
+
+    boolean isResumed(final int op) {
+        return (ops & op) != 0;
+    }
+
+    // call from channel thread only
+    int getEffectiveOps() {
+        synchronized (this) {
+            return ops | waitOps;
+        }
+    }
+
+    /**
+     * Block until the channel thread reports that this handle is ready for the given operation, without registering
+     * the channel with any other selector.  The user's listener is not invoked for readiness which was only requested
+     * by a waiter.
+     *
+     * @param op the operation to wait for
+     * @param millis the number of milliseconds to wait, or -1 to wait indefinitely
+     * @return {@code true} if the wait was performed, or {@code false} if the caller must wait some other way
+     * @throws InterruptedIOException if the thread was interrupted while waiting
+     */
+    boolean await(final int op, final long millis) throws InterruptedIOException {
+        if (channelThread.isCurrentThread()) {
+            // blocking here would deadlock the channel thread
+            return false;
+        }
+        final long count;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            count = readyCount;
+            waitOps |= op;
+            waiters++;
+        }
+        try {
+            try {
+                channelThread.updateOps(this);
+            } catch (CancelledKeyException e) {
+                // the channel was closed or shut down; let the caller find out
+                return true;
+            }
+            synchronized (this) {
+                long remaining = millis;
+                final long deadline = millis == -1L ? 0L : System.currentTimeMillis() + millis;
+                while (readyCount == count && ! cancelled) {
+                    if (millis == -1L) {
+                        wait();
+                    } else if (remaining > 0L) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    } else {
+                        break;
+                    }
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            synchronized (this) {
+                if (--waiters == 0) {
+                    waitOps = 0;
+                }
+            }
+        }
     }
 
     C getChannel() {
@@ -69,6 +157,24 @@ final class NioHandle<C extends Channel> {
     }
 
     void invoke() {
+        synchronized (this) {
+            if (waitOps != 0) {
+                // the waiters' interest is satisfied; they re-register if they need more
+                waitOps = 0;
+                readyCount++;
+                notifyAll();
+            }
+        }
+        final int ops = this.ops;
+        if (ops == 0) {
+            // only waiters were interested
+            try {
+                selectionKey.interestOps(0);
+            } catch (CancelledKeyException e) {
+                // ignore
+            }
+            return;
+        }
         final ChannelListener<? super C> listener = handlerSetter.get();
         if (listener == null) {
             // prevent runaway
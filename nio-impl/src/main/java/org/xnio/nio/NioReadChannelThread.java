@@ -24,13 +24,14 @@ package org.xnio.nio;
 
 import java.io.IOException;
 import java.util.concurrent.ThreadFactory;
+import org.xnio.OptionMap;
 import org.xnio.ReadChannelThread;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class NioReadChannelThread extends AbstractNioChannelThread implements ReadChannelThread {
-    NioReadChannelThread(final ThreadFactory threadFactory) throws IOException {
-        super(threadFactory);
+    NioReadChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        super(threadFactory, optionMap);
     }
 }
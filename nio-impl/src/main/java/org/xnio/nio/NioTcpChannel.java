@@ -25,14 +25,24 @@ package org.xnio.nio;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.jboss.logging.Logger;
+import org.xnio.BufferAllocator;
+import org.xnio.ByteBufferSlicePool;
+import org.xnio.Buffers;
 import org.xnio.IoUtils;
+import org.xnio.Pool;
+import org.xnio.Pooled;
 import org.xnio.Option;
 import org.xnio.ChannelListener;
 import org.xnio.Options;
@@ -49,11 +59,49 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
 
     private final SocketChannel socketChannel;
     private final Socket socket;
+    private final NioTcpServer server;
 
     private volatile int closeBits = 0;
 
     private static final AtomicIntegerFieldUpdater<NioTcpChannel> closeBitsUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpChannel.class, "closeBits");
 
+    private static final int CORK_BUFFER_SIZE = 8192;
+
+    private static final Pool<ByteBuffer> corkBufferPool = new ByteBufferSlicePool(BufferAllocator.DIRECT_BYTE_BUFFER_ALLOCATOR, CORK_BUFFER_SIZE, CORK_BUFFER_SIZE * 32);
+
+    private volatile boolean corked;
+
+    // owned by whichever thread takes it: the writing thread while it writes or flushes, or the closing thread
+    private volatile Pooled<ByteBuffer> corkBuffer;
+
+    @SuppressWarnings("unchecked")
+    private static final AtomicReferenceFieldUpdater<NioTcpChannel, Pooled<ByteBuffer>> corkBufferUpdater = (AtomicReferenceFieldUpdater<NioTcpChannel, Pooled<ByteBuffer>>) (AtomicReferenceFieldUpdater) AtomicReferenceFieldUpdater.newUpdater(NioTcpChannel.class, Pooled.class, "corkBuffer");
+
+    // accessed by the writing thread only
+    private int corkedWrites;
+    private int corkSyscalls;
+    private boolean flushQueued;
+
+    @SuppressWarnings( { "unused" })
+    private volatile long savedWrites;
+
+    private static final AtomicLongFieldUpdater<NioTcpChannel> savedWritesUpdater = AtomicLongFieldUpdater.newUpdater(NioTcpChannel.class, "savedWrites");
+
+    private final SelectorTask flushTask = new SelectorTask() {
+        public void run(final Selector selector) {
+            flushQueued = false;
+            try {
+                if (! flush()) {
+                    // the socket is full; let the write listener finish the flush once it can take more
+                    resumeWrites();
+                }
+            } catch (IOException e) {
+                // the next write or flush will report it
+                log.tracef("Deferred flush of %s failed: %s", NioTcpChannel.this, e);
+            }
+        }
+    };
+
     private static final Set<Option<?>> OPTIONS = Option.setBuilder()
             .add(Options.CLOSE_ABORT)
             .add(Options.KEEP_ALIVE)
@@ -62,11 +110,18 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
             .add(Options.SEND_BUFFER)
             .add(Options.TCP_NODELAY)
             .add(Options.IP_TRAFFIC_CLASS)
+            .add(Options.CORK)
+            .add(Options.SAVED_WRITE_COUNT)
             .create();
 
     NioTcpChannel(final NioXnio xnio, final SocketChannel socketChannel) {
+        this(xnio, socketChannel, null);
+    }
+
+    NioTcpChannel(final NioXnio xnio, final SocketChannel socketChannel, final NioTcpServer server) {
         super(xnio);
         this.socketChannel = socketChannel;
+        this.server = server;
         socket = socketChannel.socket();
     }
 
@@ -135,9 +190,31 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
     public void close() throws IOException {
         if (setBits(this, 0x04) < 0x04) {
             log.tracef("Closing %s", this);
-            socketChannel.close();
-            cancelReadKey();
-            cancelWriteKey();
+            // if the writing thread holds the buffer right now, it frees the buffer itself once it sees the close
+            final Pooled<ByteBuffer> corkBuffer = corkBufferUpdater.getAndSet(this, null);
+            try {
+                if (corkBuffer != null) {
+                    // the corked bytes were reported as written; make one attempt to send them
+                    final ByteBuffer buffer = corkBuffer.getResource();
+                    buffer.flip();
+                    try {
+                        socketChannel.write(buffer);
+                    } catch (IOException e) {
+                        log.tracef("Failed to send corked data of %s on close: %s", this, e);
+                    }
+                }
+                socketChannel.close();
+                cancelReadKey();
+                cancelWriteKey();
+            } finally {
+                if (corkBuffer != null) {
+                    corkBuffer.free();
+                }
+                final NioTcpServer server = this.server;
+                if (server != null) {
+                    server.channelClosed();
+                }
+            }
             invokeCloseHandler();
         }
     }
@@ -156,6 +233,9 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
     }
 
     public boolean shutdownWrites() throws IOException {
+        if (! flush()) {
+            return false;
+        }
         boolean ok = false;
         try {
             socket.shutdownOutput();
@@ -169,6 +249,162 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
         return true;
     }
 
+    // Corked writes
+
+    public int write(final ByteBuffer src) throws IOException {
+        if (corkBuffer == null && ! corked) {
+            return super.write(src);
+        }
+        if (corked) {
+            final Pooled<ByteBuffer> pooled = corkBufferUpdater.getAndSet(this, null);
+            if (pooled != null) {
+                try {
+                    final ByteBuffer buffer = pooled.getResource();
+                    final int cnt = src.remaining();
+                    if (cnt <= buffer.remaining()) {
+                        buffer.put(src);
+                        corkedWrites++;
+                        queueFlush();
+                        return cnt;
+                    }
+                } finally {
+                    putCorkBuffer(pooled);
+                }
+            }
+        }
+        return (int) writeCorked(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    public long write(final ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        if (corkBuffer == null && ! corked) {
+            return super.write(srcs, offset, length);
+        }
+        return writeCorked(srcs, offset, length);
+    }
+
+    public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+        return flush() ? super.transferFrom(src, position, count) : 0L;
+    }
+
+    private long writeCorked(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+        final long cnt = Buffers.remaining(srcs, offset, length);
+        Pooled<ByteBuffer> pooled = corkBufferUpdater.getAndSet(this, null);
+        if (pooled == null) {
+            if (! corked || cnt > CORK_BUFFER_SIZE) {
+                return super.write(srcs, offset, length);
+            }
+            pooled = corkBufferPool.allocate();
+        }
+        boolean drained = false;
+        try {
+            final ByteBuffer buffer = pooled.getResource();
+            if (corked && cnt <= buffer.remaining()) {
+                Buffers.copy(buffer, srcs, offset, length);
+                corkedWrites++;
+                queueFlush();
+                return cnt;
+            }
+            // too big to buffer; send the buffered bytes along with the new ones
+            final ByteBuffer[] gathered = new ByteBuffer[length + 1];
+            gathered[0] = buffer;
+            System.arraycopy(srcs, offset, gathered, 1, length);
+            buffer.flip();
+            final long pending = buffer.remaining();
+            final long res;
+            try {
+                res = super.write(gathered, 0, gathered.length);
+                corkSyscalls++;
+            } finally {
+                buffer.compact();
+            }
+            if (res < pending) {
+                // none of the new bytes made it
+                return 0L;
+            }
+            // this write would have needed its own call anyway
+            corkedWrites++;
+            corkDrained();
+            drained = true;
+            return res - pending;
+        } finally {
+            if (drained) {
+                // keep no buffer on idle connections
+                pooled.free();
+            } else {
+                putCorkBuffer(pooled);
+            }
+        }
+    }
+
+    public boolean flush() throws IOException {
+        final Pooled<ByteBuffer> pooled = corkBufferUpdater.getAndSet(this, null);
+        if (pooled == null) {
+            return true;
+        }
+        boolean drained = false;
+        try {
+            final ByteBuffer buffer = pooled.getResource();
+            if (buffer.position() > 0) {
+                buffer.flip();
+                try {
+                    super.write(buffer);
+                    corkSyscalls++;
+                } finally {
+                    buffer.compact();
+                }
+                if (buffer.position() > 0) {
+                    return false;
+                }
+            }
+            corkDrained();
+            drained = true;
+            return true;
+        } finally {
+            if (drained) {
+                // keep no buffer on idle connections
+                pooled.free();
+            } else {
+                putCorkBuffer(pooled);
+            }
+        }
+    }
+
+    private void corkDrained() {
+        final int saved = corkedWrites - corkSyscalls;
+        if (saved != 0) {
+            savedWritesUpdater.addAndGet(this, saved);
+        }
+        corkedWrites = 0;
+        corkSyscalls = 0;
+    }
+
+    /**
+     * Hand the cork buffer back after the writing thread is done with it.  If the channel was closed meanwhile,
+     * {@code close()} found no buffer to send, so the buffer is released here instead.
+     */
+    private void putCorkBuffer(final Pooled<ByteBuffer> pooled) {
+        corkBuffer = pooled;
+        if ((closeBits & 0x04) != 0 && corkBufferUpdater.compareAndSet(this, pooled, null)) {
+            pooled.free();
+        }
+    }
+
+    private void queueFlush() {
+        if (flushQueued) {
+            return;
+        }
+        final AbstractNioChannelThread thread = getWriteChannelThread();
+        if (thread != null && thread.isCurrentThread()) {
+            // runs once the thread is done with the events it selected
+            flushQueued = true;
+            thread.queueTask(flushTask);
+        }
+    }
+
     public SocketAddress getPeerAddress() {
         return socket.getRemoteSocketAddress();
     }
@@ -206,6 +442,10 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
             return option.cast(Boolean.valueOf(socket.getTcpNoDelay()));
         } else if (option == Options.IP_TRAFFIC_CLASS) {
             return option.cast(Integer.valueOf(socket.getTrafficClass()));
+        } else if (option == Options.CORK) {
+            return option.cast(Boolean.valueOf(corked));
+        } else if (option == Options.SAVED_WRITE_COUNT) {
+            return option.cast(Long.valueOf(savedWrites));
         } else {
             return null;
         }
@@ -234,6 +474,11 @@ final class NioTcpChannel extends AbstractNioStreamChannel<NioTcpChannel> implem
         } else if (option == Options.IP_TRAFFIC_CLASS) {
             old = Integer.valueOf(socket.getTrafficClass());
             socket.setTrafficClass(((Integer) value).intValue());
+        } else if (option == Options.CORK) {
+            old = Boolean.valueOf(corked);
+            corked = ((Boolean) value).booleanValue();
+        } else if (option == Options.SAVED_WRITE_COUNT) {
+            throw new IllegalArgumentException("Option " + option + " is read-only");
         } else {
             return null;
         }
@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
@@ -33,11 +34,14 @@ import java.nio.channels.SocketChannel;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.jboss.logging.Logger;
+import org.xnio.IoUtils;
 import org.xnio.ConnectionChannelThread;
 import org.xnio.Option;
 import org.xnio.ChannelListener;
+import org.xnio.OptionMap;
 import org.xnio.Options;
 import org.xnio.ReadChannelThread;
 import org.xnio.WriteChannelThread;
@@ -72,6 +76,10 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
             .add(Options.KEEP_ALIVE)
             .add(Options.TCP_OOB_INLINE)
             .add(Options.TCP_NODELAY)
+            .add(Options.CONNECTION_HIGH_WATER)
+            .add(Options.CONNECTION_LOW_WATER)
+            .add(Options.CONNECTION_COUNT)
+            .add(Options.CONNECTION_LIMITED_COUNT)
             .create();
 
     @SuppressWarnings( { "unused" })
@@ -82,11 +90,23 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
     private volatile int tcpNoDelay;
     @SuppressWarnings( { "unused" })
     private volatile int sendBuffer = -1;
+    private volatile int highWater = Integer.MAX_VALUE;
+    private volatile int lowWater = Integer.MAX_VALUE;
+    @SuppressWarnings( { "unused" })
+    private volatile int connectionCount;
+    private volatile long limitedCount;
+
+    // protected by "this"
+    private boolean resumed = true;
+    // written under "this"
+    private volatile boolean limited;
 
     private static final AtomicIntegerFieldUpdater<NioTcpServer> keepAliveUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServer.class, "keepAlive");
     private static final AtomicIntegerFieldUpdater<NioTcpServer> oobInlineUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServer.class, "oobInline");
     private static final AtomicIntegerFieldUpdater<NioTcpServer> tcpNoDelayUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServer.class, "tcpNoDelay");
     private static final AtomicIntegerFieldUpdater<NioTcpServer> sendBufferUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServer.class, "sendBuffer");
+    private static final AtomicIntegerFieldUpdater<NioTcpServer> connectionCountUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServer.class, "connectionCount");
+    private static final AtomicLongFieldUpdater<NioTcpServer> limitedCountUpdater = AtomicLongFieldUpdater.newUpdater(NioTcpServer.class, "limitedCount");
 
     NioTcpServer(final NioXnio xnio, final ServerSocketChannel channel) {
         this.xnio = xnio;
@@ -96,6 +116,14 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
 
     public void close() throws IOException {
         channel.close();
+        cancelAcceptKey();
+    }
+
+    /**
+     * Stop accepting on this server's accept thread without closing the listening socket, which another server may
+     * share.
+     */
+    void cancelAcceptKey() {
         final NioHandle<NioTcpServer> handle = acceptHandle;
         if (handle != null) {
             handle.cancelKey();
@@ -120,6 +148,14 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
             return option.cast(Boolean.valueOf(oobInline != 0));
         } else if (option == Options.TCP_NODELAY) {
             return option.cast(Boolean.valueOf(tcpNoDelay != 0));
+        } else if (option == Options.CONNECTION_HIGH_WATER) {
+            return option.cast(Integer.valueOf(highWater));
+        } else if (option == Options.CONNECTION_LOW_WATER) {
+            return option.cast(Integer.valueOf(lowWater));
+        } else if (option == Options.CONNECTION_COUNT) {
+            return option.cast(Integer.valueOf(connectionCount));
+        } else if (option == Options.CONNECTION_LIMITED_COUNT) {
+            return option.cast(Long.valueOf(limitedCount));
         } else {
             return null;
         }
@@ -146,29 +182,171 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
             old = Boolean.valueOf(oobInlineUpdater.getAndSet(this, Options.TCP_OOB_INLINE.cast(value).booleanValue() ? 1 : 0) != 0);
         } else if (option == Options.TCP_NODELAY) {
             old = Boolean.valueOf(tcpNoDelayUpdater.getAndSet(this, Options.TCP_NODELAY.cast(value).booleanValue() ? 1 : 0) != 0);
+        } else if (option == Options.CONNECTION_HIGH_WATER) {
+            final int newValue = Options.CONNECTION_HIGH_WATER.cast(value).intValue();
+            if (newValue < 1) {
+                throw new IllegalArgumentException("Bad connection high water mark specified");
+            }
+            synchronized (this) {
+                old = Integer.valueOf(highWater);
+                highWater = newValue;
+            }
+            checkLimit();
+        } else if (option == Options.CONNECTION_LOW_WATER) {
+            final int newValue = Options.CONNECTION_LOW_WATER.cast(value).intValue();
+            if (newValue < 0) {
+                throw new IllegalArgumentException("Bad connection low water mark specified");
+            }
+            synchronized (this) {
+                old = Integer.valueOf(lowWater);
+                lowWater = newValue;
+            }
+            checkLimit();
+        } else if (option == Options.CONNECTION_COUNT || option == Options.CONNECTION_LIMITED_COUNT) {
+            throw new IllegalArgumentException("Option " + option + " is read-only");
         } else {
             return null;
         }
         return option.cast(old);
     }
 
+    /**
+     * Apply each server option in the given map.
+     *
+     * @param optionMap the option map
+     * @throws IOException if an option could not be applied
+     */
+    void setOptions(final OptionMap optionMap) throws IOException {
+        for (Option<?> option : optionMap) {
+            if (options.contains(option) && option != Options.CONNECTION_COUNT && option != Options.CONNECTION_LIMITED_COUNT) {
+                setOption(option, optionMap);
+            }
+        }
+    }
+
+    private <T> void setOption(final Option<T> option, final OptionMap optionMap) throws IOException {
+        setOption(option, optionMap.get(option));
+    }
+
     public NioTcpChannel accept(final ReadChannelThread readThread, final WriteChannelThread writeThread) throws IOException {
-        final SocketChannel accepted = channel.accept();
-        if (accepted == null) {
-            return null;
+        // reserve a connection slot first, so the high water mark is never exceeded
+        final int highWater = this.highWater;
+        int count;
+        do {
+            count = connectionCount;
+            if (count >= highWater) {
+                // leave the connection in the backlog until the count drops
+                checkLimit();
+                return null;
+            }
+        } while (! connectionCountUpdater.compareAndSet(this, count, count + 1));
+        SocketChannel accepted = null;
+        boolean ok = false;
+        try {
+            accepted = channel.accept();
+            if (accepted == null) {
+                return null;
+            }
+            // only a connection which was really accepted may take the server to its limit
+            if (count + 1 >= highWater) {
+                checkLimit();
+            }
+            accepted.configureBlocking(false);
+            final Socket socket = accepted.socket();
+            socket.setKeepAlive(keepAlive != 0);
+            socket.setOOBInline(oobInline != 0);
+            socket.setTcpNoDelay(tcpNoDelay != 0);
+            final int sendBuffer = this.sendBuffer;
+            if (sendBuffer > 0) socket.setSendBufferSize(sendBuffer);
+            final NioTcpChannel newChannel = new NioTcpChannel(xnio, accepted, this);
+            newChannel.setReadThread(readThread);
+            newChannel.setWriteThread(writeThread);
+            log.trace("TCP server accepted connection");
+            ok = true;
+            return newChannel;
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(accepted);
+                channelClosed();
+            }
+        }
+    }
+
+    /**
+     * Called when a connection accepted by this server is closed, to release its connection slot.
+     */
+    void channelClosed() {
+        final int count = connectionCountUpdater.decrementAndGet(this);
+        if (limited && count < lowWater) {
+            checkLimit();
+        }
+    }
+
+    /**
+     * Suspend or resume accepts according to the connection count and the water marks.
+     */
+    private void checkLimit() {
+        synchronized (this) {
+            final int count = connectionCount;
+            final boolean limited = this.limited;
+            if (! limited && count >= highWater) {
+                this.limited = true;
+                limitedCountUpdater.incrementAndGet(this);
+                log.tracef("TCP server %s reached %d connections; suspending accepts", this, Integer.valueOf(count));
+            } else if (limited && count < Math.min(lowWater, highWater)) {
+                this.limited = false;
+                log.tracef("TCP server %s dropped to %d connections; resuming accepts", this, Integer.valueOf(count));
+            } else {
+                return;
+            }
+        }
+        updateAccepts();
+    }
+
+    private int getAcceptOps() {
+        assert Thread.holdsLock(this);
+        return resumed && ! limited ? SelectionKey.OP_ACCEPT : 0;
+    }
+
+    /**
+     * Bring the accept interest in line with the current state.  The key is only ever updated on the connection
+     * thread: from any other thread, the update is queued to it.  Updating it directly would block until the
+     * connection thread ran the update, and that thread may itself be blocked on the caller, for example while it
+     * registers a newly accepted channel with the read thread which is closing another one.
+     */
+    private void updateAccepts() {
+        assert ! Thread.holdsLock(this);
+        final NioHandle<NioTcpServer> handle = acceptHandle;
+        if (handle == null) {
+            return;
+        }
+        final AbstractNioChannelThread thread = handle.getChannelThread();
+        if (thread.isCurrentThread()) {
+            applyAccepts(handle);
+        } else {
+            thread.execute(new Runnable() {
+                public void run() {
+                    applyAccepts(handle);
+                }
+            });
+        }
+    }
+
+    // call from the handle's channel thread only
+    private void applyAccepts(final NioHandle<NioTcpServer> handle) {
+        if (acceptHandle != handle) {
+            // the server moved to another thread, which was given the current state
+            return;
+        }
+        final int ops;
+        synchronized (this) {
+            ops = getAcceptOps();
+        }
+        try {
+            handle.resume(ops);
+        } catch (CancelledKeyException e) {
+            // the server was closed
         }
-        accepted.configureBlocking(false);
-        final Socket socket = accepted.socket();
-        socket.setKeepAlive(keepAlive != 0);
-        socket.setOOBInline(oobInline != 0);
-        socket.setTcpNoDelay(tcpNoDelay != 0);
-        final int sendBuffer = this.sendBuffer;
-        if (sendBuffer > 0) socket.setSendBufferSize(sendBuffer);
-        final NioTcpChannel newChannel = new NioTcpChannel(xnio, accepted);
-        newChannel.setReadThread(readThread);
-        newChannel.setWriteThread(writeThread);
-        log.trace("TCP server accepted connection");
-        return newChannel;
     }
 
     public String toString() {
@@ -197,13 +375,17 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
     }
 
     public void suspendAccepts() {
-        final NioHandle<NioTcpServer> writeHandle = acceptHandle;
-        if (writeHandle != null) writeHandle.resume(0);
+        synchronized (this) {
+            resumed = false;
+        }
+        updateAccepts();
     }
 
     public void resumeAccepts() {
-        final NioHandle<NioTcpServer> writeHandle = acceptHandle;
-        if (writeHandle != null) writeHandle.resume(SelectionKey.OP_ACCEPT);
+        synchronized (this) {
+            resumed = true;
+        }
+        updateAccepts();
     }
 
     public void awaitAcceptable() throws IOException {
@@ -216,7 +398,11 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
 
     public void setAcceptThread(final ConnectionChannelThread thread) throws IllegalArgumentException {
         try {
-            final NioHandle<NioTcpServer> newHandle = thread == null ? null : ((NioConnectionChannelThread) thread).addChannel(channel, this, SelectionKey.OP_ACCEPT, acceptSetter);
+            final int ops;
+            synchronized (this) {
+                ops = getAcceptOps();
+            }
+            final NioHandle<NioTcpServer> newHandle = thread == null ? null : ((NioConnectionChannelThread) thread).addChannel(channel, this, ops, acceptSetter);
             final NioHandle<NioTcpServer> oldValue = acceptHandleUpdater.getAndSet(this, newHandle);
             if (oldValue != null && (newHandle == null || oldValue.getSelectionKey() != newHandle.getSelectionKey())) {
                 oldValue.cancelKey();
@@ -228,6 +414,15 @@ final class NioTcpServer implements AcceptingChannel<NioTcpChannel> {
         }
     }
 
+    boolean isAcceptThread() {
+        final NioHandle<NioTcpServer> handle = acceptHandle;
+        return handle != null && handle.getChannelThread().isCurrentThread();
+    }
+
+    ServerSocketChannel getServerSocketChannel() {
+        return channel;
+    }
+
     public ConnectionChannelThread getAcceptThread() {
         final NioHandle<NioTcpServer> handle = acceptHandleUpdater.get(this);
         return (ConnectionChannelThread) handle.getChannelThread();
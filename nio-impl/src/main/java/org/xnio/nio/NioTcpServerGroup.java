@@ -0,0 +1,230 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.ConnectionChannelThread;
+import org.xnio.Option;
+import org.xnio.Options;
+import org.xnio.ReadChannelThread;
+import org.xnio.WriteChannelThread;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.UnsupportedOptionException;
+
+/**
+ * A group of TCP servers bound to the same address, each accepting on its own connection channel thread, which is
+ * presented as a single accepting channel.  The members either have their own listening sockets (bound with
+ * {@code SO_REUSEPORT}) or share a single one.  Connection water marks apply to each member separately, while
+ * connection counts are totalled over the group.
+ */
+final class NioTcpServerGroup implements AcceptingChannel<NioTcpChannel> {
+
+    private final NioSetter<NioTcpServerGroup> acceptSetter = new NioSetter<NioTcpServerGroup>();
+    private final NioSetter<NioTcpServerGroup> closeSetter = new NioSetter<NioTcpServerGroup>();
+
+    private final NioXnio xnio;
+    private final NioTcpServer[] servers;
+    private final ServerSocketChannel[] channels;
+
+    private volatile int closed;
+
+    private static final AtomicIntegerFieldUpdater<NioTcpServerGroup> closedUpdater = AtomicIntegerFieldUpdater.newUpdater(NioTcpServerGroup.class, "closed");
+
+    NioTcpServerGroup(final NioXnio xnio, final NioTcpServer[] servers) {
+        this.xnio = xnio;
+        this.servers = servers;
+        channels = new ServerSocketChannel[servers.length];
+        final ChannelListener<NioTcpServer> memberListener = new ChannelListener<NioTcpServer>() {
+            public void handleEvent(final NioTcpServer channel) {
+                ChannelListeners.<NioTcpServerGroup>invokeChannelListener(NioTcpServerGroup.this, acceptSetter.get());
+            }
+        };
+        for (int i = 0; i < servers.length; i++) {
+            final NioTcpServer server = servers[i];
+            channels[i] = server.getServerSocketChannel();
+            server.getAcceptSetter().set(memberListener);
+        }
+    }
+
+    public NioTcpChannel accept(final ReadChannelThread readThread, final WriteChannelThread writeThread) throws IOException {
+        // prefer the members which are accepting on this thread; the others have their own threads
+        boolean member = false;
+        for (NioTcpServer server : servers) {
+            if (server.isAcceptThread()) {
+                member = true;
+                final NioTcpChannel channel = server.accept(readThread, writeThread);
+                if (channel != null) {
+                    return channel;
+                }
+            }
+        }
+        if (member) {
+            return null;
+        }
+        for (NioTcpServer server : servers) {
+            final NioTcpChannel channel = server.accept(readThread, writeThread);
+            if (channel != null) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    public ChannelListener.Setter<NioTcpServerGroup> getAcceptSetter() {
+        return acceptSetter;
+    }
+
+    public ChannelListener.Setter<NioTcpServerGroup> getCloseSetter() {
+        return closeSetter;
+    }
+
+    public SocketAddress getLocalAddress() {
+        return servers[0].getLocalAddress();
+    }
+
+    public <A extends SocketAddress> A getLocalAddress(final Class<A> type) {
+        return servers[0].getLocalAddress(type);
+    }
+
+    public void suspendAccepts() {
+        for (NioTcpServer server : servers) {
+            server.suspendAccepts();
+        }
+    }
+
+    public void resumeAccepts() {
+        for (NioTcpServer server : servers) {
+            server.resumeAccepts();
+        }
+    }
+
+    public void awaitAcceptable() throws IOException {
+        SelectorUtils.await(xnio, channels, SelectionKey.OP_ACCEPT);
+    }
+
+    public void awaitAcceptable(final long time, final TimeUnit timeUnit) throws IOException {
+        SelectorUtils.await(xnio, channels, SelectionKey.OP_ACCEPT, time, timeUnit);
+    }
+
+    /**
+     * Set the accept thread of every member of this group.  Note that this leaves a single thread accepting all
+     * connections.
+     *
+     * @param thread the new accept thread
+     */
+    public void setAcceptThread(final ConnectionChannelThread thread) throws IllegalArgumentException {
+        for (NioTcpServer server : servers) {
+            server.setAcceptThread(thread);
+        }
+    }
+
+    public ConnectionChannelThread getAcceptThread() {
+        return servers[0].getAcceptThread();
+    }
+
+    public boolean isOpen() {
+        for (NioTcpServer server : servers) {
+            if (server.isOpen()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() throws IOException {
+        if (! closedUpdater.compareAndSet(this, 0, 1)) {
+            return;
+        }
+        IOException failure = null;
+        try {
+            for (int i = 0; i < servers.length; i++) {
+                if (isSharedSocket(i)) {
+                    // an earlier member has closed this socket already
+                    servers[i].cancelAcceptKey();
+                } else {
+                    try {
+                        servers[i].close();
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+        } finally {
+            ChannelListeners.<NioTcpServerGroup>invokeChannelListener(this, closeSetter.get());
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private boolean isSharedSocket(final int index) {
+        final ServerSocketChannel channel = channels[index];
+        for (int i = 0; i < index; i++) {
+            if (channels[i] == channel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean supportsOption(final Option<?> option) {
+        return servers[0].supportsOption(option);
+    }
+
+    public <T> T getOption(final Option<T> option) throws UnsupportedOptionException, IOException {
+        if (option == Options.CONNECTION_COUNT) {
+            int count = 0;
+            for (NioTcpServer server : servers) {
+                count += server.getOption(Options.CONNECTION_COUNT).intValue();
+            }
+            return option.cast(Integer.valueOf(count));
+        } else if (option == Options.CONNECTION_LIMITED_COUNT) {
+            long count = 0L;
+            for (NioTcpServer server : servers) {
+                count += server.getOption(Options.CONNECTION_LIMITED_COUNT).longValue();
+            }
+            return option.cast(Long.valueOf(count));
+        } else {
+            return servers[0].getOption(option);
+        }
+    }
+
+    public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
+        final T old = servers[0].setOption(option, value);
+        for (int i = 1; i < servers.length; i++) {
+            servers[i].setOption(option, value);
+        }
+        return old;
+    }
+
+    public String toString() {
+        return String.format("TCP server group (NIO) <%s> of %d", Integer.toHexString(hashCode()), Integer.valueOf(servers.length));
+    }
+}
@@ -24,10 +24,14 @@ package org.xnio.nio;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
 import java.net.SocketAddress;
 import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
 import java.net.StandardSocketOption;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
@@ -35,15 +39,19 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.MembershipKey;
 import java.nio.channels.SelectionKey;
+import java.util.Enumeration;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.jboss.logging.Logger;
 import org.xnio.Buffers;
 import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
 import org.xnio.Option;
+import org.xnio.OptionMap;
 import org.xnio.ChannelListener;
 import org.xnio.Options;
 import org.xnio.ReadChannelThread;
@@ -85,6 +93,24 @@ class NioUdpChannel implements MulticastMessageChannel {
 
     private final AtomicBoolean callFlag = new AtomicBoolean(false);
 
+    private static final int MAX_ADDRESS_CACHE = 1 << 12;
+
+    private volatile SocketAddress[] addressCache;
+    private volatile long addressCacheHits;
+
+    private static final AtomicLongFieldUpdater<NioUdpChannel> addressCacheHitsUpdater = AtomicLongFieldUpdater.newUpdater(NioUdpChannel.class, "addressCacheHits");
+
+    /**
+     * A direct buffer large enough for any datagram, used to gather and scatter multi-buffer sends and receives.  It
+     * is confined to the calling thread, which is normally one of a few channel threads, so no datagram needs a buffer
+     * of its own and the JDK does not need to copy it into a temporary direct buffer either.
+     */
+    private static final ThreadLocal<ByteBuffer> scratchBuffer = new ThreadLocal<ByteBuffer>() {
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(65536);
+        }
+    };
+
     NioUdpChannel(final NioXnio nioXnio, final DatagramChannel datagramChannel) {
         this.nioXnio = nioXnio;
         this.datagramChannel = datagramChannel;
@@ -106,7 +132,7 @@ class NioUdpChannel implements MulticastMessageChannel {
         } else {
             final int t = o - buffer.remaining();
             if (addressBuffer != null) {
-                addressBuffer.setSourceAddress(sourceAddress);
+                addressBuffer.setSourceAddress(cacheAddress(sourceAddress));
                 addressBuffer.setDestinationAddress(null);
             }
             return t;
@@ -124,8 +150,13 @@ class NioUdpChannel implements MulticastMessageChannel {
         if (len == 1) {
             return receiveFrom(addressBuffer, buffers[offs]);
         }
+        final int single = singleRemaining(buffers, offs, len);
+        if (single != -1) {
+            return receiveFrom(addressBuffer, buffers[single]);
+        }
         final int o = (int) Math.min(Buffers.remaining(buffers, offs, len), 65536L);
-        final ByteBuffer buffer = ByteBuffer.allocate((int) o);
+        final ByteBuffer buffer = scratchBuffer.get();
+        buffer.clear().limit(o);
         final SocketAddress sourceAddress = datagramChannel.receive(buffer);
         if (sourceAddress == null) {
             return 0L;
@@ -134,13 +165,74 @@ class NioUdpChannel implements MulticastMessageChannel {
             buffer.flip();
             Buffers.copy(buffers, offs, len, buffer);
             if (addressBuffer != null) {
-                addressBuffer.setSourceAddress(sourceAddress);
+                addressBuffer.setSourceAddress(cacheAddress(sourceAddress));
                 addressBuffer.setDestinationAddress(null);
             }
             return t;
         }
     }
 
+    public int receiveMany(final SocketAddressBuffer[] addressBuffers, final ByteBuffer[] buffers, final int offs, final int len) throws IOException {
+        final DatagramChannel datagramChannel = this.datagramChannel;
+        int i;
+        for (i = 0; i < len; i ++) {
+            final SocketAddress sourceAddress = datagramChannel.receive(buffers[offs + i]);
+            if (sourceAddress == null) {
+                break;
+            }
+            final SocketAddressBuffer addressBuffer = addressBuffers == null ? null : addressBuffers[offs + i];
+            if (addressBuffer != null) {
+                addressBuffer.setSourceAddress(cacheAddress(sourceAddress));
+                addressBuffer.setDestinationAddress(null);
+            }
+        }
+        return i;
+    }
+
+    /**
+     * Look up a source address in the receive address cache.  The cache is direct-mapped by hash code; races between
+     * threads receiving on the same channel only cost a miss, since each slot is a single reference.
+     *
+     * @return the cached equal address, or the given address (which is now cached) if there was none
+     */
+    private SocketAddress cacheAddress(final SocketAddress address) {
+        final SocketAddress[] cache = addressCache;
+        if (cache == null) {
+            return address;
+        }
+        final int idx = hash(address.hashCode()) & (cache.length - 1);
+        final SocketAddress cached = cache[idx];
+        if (address.equals(cached)) {
+            addressCacheHitsUpdater.getAndIncrement(this);
+            return cached;
+        }
+        cache[idx] = address;
+        return address;
+    }
+
+    private static int hash(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * Find the only buffer of a range which has any space or data remaining.
+     *
+     * @return the index of the buffer, or -1 if more than one buffer has some remaining, or none has
+     */
+    private static int singleRemaining(final ByteBuffer[] buffers, final int offs, final int len) {
+        int found = -1;
+        for (int i = offs; i < offs + len; i ++) {
+            if (buffers[i].hasRemaining()) {
+                if (found != -1) {
+                    return -1;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
     public boolean sendTo(final SocketAddress target, final ByteBuffer buffer) throws IOException {
         return datagramChannel.send(buffer, target) != 0;
     }
@@ -161,10 +253,38 @@ class NioUdpChannel implements MulticastMessageChannel {
             // there will never be enough room
             throw new IllegalArgumentException("Too may bytes written");
         }
-        final ByteBuffer buffer = ByteBuffer.allocate((int) o);
-        Buffers.copy(buffer, buffers, offset, length);
+        final int single = singleRemaining(buffers, offset, length);
+        if (single != -1) {
+            return sendTo(target, buffers[single]);
+        }
+        final ByteBuffer buffer = scratchBuffer.get();
+        buffer.clear().limit((int) o);
+        for (int i = offset; i < offset + length; i ++) {
+            // leave the source positions alone until the datagram is sent
+            final ByteBuffer source = buffers[i];
+            final int pos = source.position();
+            buffer.put(source);
+            source.position(pos);
+        }
         buffer.flip();
-        return datagramChannel.send(buffer, target) != 0;
+        if (datagramChannel.send(buffer, target) == 0) {
+            return false;
+        }
+        for (int i = offset; i < offset + length; i ++) {
+            buffers[i].position(buffers[i].limit());
+        }
+        return true;
+    }
+
+    public int sendMany(final SocketAddress[] targets, final ByteBuffer[] buffers, final int offset, final int length) throws IOException {
+        final DatagramChannel datagramChannel = this.datagramChannel;
+        int i;
+        for (i = 0; i < length; i ++) {
+            if (datagramChannel.send(buffers[offset + i], targets[offset + i]) == 0) {
+                break;
+            }
+        }
+        return i;
     }
 
     public final void setReadThread(final ReadChannelThread thread) throws IllegalArgumentException {
@@ -183,7 +303,7 @@ class NioUdpChannel implements MulticastMessageChannel {
 
     public ReadChannelThread getReadThread() {
         final NioHandle<NioUdpChannel> handle = readHandleUpdater.get(this);
-        return (ReadChannelThread) handle.getChannelThread();
+        return handle == null ? null : (ReadChannelThread) handle.getChannelThread();
     }
 
     public final void setWriteThread(final WriteChannelThread thread) throws IllegalArgumentException {
@@ -202,7 +322,7 @@ class NioUdpChannel implements MulticastMessageChannel {
 
     public WriteChannelThread getWriteThread() {
         final NioHandle<NioUdpChannel> handle = writeHandleUpdater.get(this);
-        return (WriteChannelThread) handle.getChannelThread();
+        return handle == null ? null : (WriteChannelThread) handle.getChannelThread();
     }
 
     public ChannelListener.Setter<NioUdpChannel> getReadSetter() {
@@ -280,6 +400,16 @@ class NioUdpChannel implements MulticastMessageChannel {
         }
     }
 
+    public boolean isReadResumed() {
+        final NioHandle<NioUdpChannel> readHandle = readHandleUpdater.get(this);
+        return readHandle != null && readHandle.isResumed(SelectionKey.OP_READ);
+    }
+
+    public boolean isWriteResumed() {
+        final NioHandle<NioUdpChannel> writeHandle = writeHandleUpdater.get(this);
+        return writeHandle != null && writeHandle.isResumed(SelectionKey.OP_WRITE);
+    }
+
     public void shutdownReads() throws IOException {
         throw new UnsupportedOperationException("Shutdown reads");
     }
@@ -305,24 +435,100 @@ class NioUdpChannel implements MulticastMessageChannel {
     }
 
     public Key join(final InetAddress group, final NetworkInterface iface) throws IOException {
-        return new NioKey(datagramChannel.join(group, iface));
+        return new NioKey(datagramChannel.join(group, getInterface(group, iface)));
     }
 
     public Key join(final InetAddress group, final NetworkInterface iface, final InetAddress source) throws IOException {
-        return new NioKey(datagramChannel.join(group, iface, source));
+        return new NioKey(datagramChannel.join(group, getInterface(group, iface), source));
+    }
+
+    /**
+     * Choose the interface to join a group on.  Unlike {@code MulticastSocket}, {@code DatagramChannel} requires an
+     * interface, so if none is given, use the channel's outgoing multicast interface if it has one, or else the first
+     * active multicast-capable interface with an address of the group's type.
+     */
+    private NetworkInterface getInterface(final InetAddress group, final NetworkInterface iface) throws IOException {
+        if (iface != null) {
+            return iface;
+        }
+        final NetworkInterface multicastInterface = datagramChannel.getOption(StandardSocketOption.IP_MULTICAST_IF);
+        if (multicastInterface != null) {
+            return multicastInterface;
+        }
+        final Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            final NetworkInterface candidate = interfaces.nextElement();
+            if (! candidate.isUp() || ! candidate.supportsMulticast()) {
+                continue;
+            }
+            final Enumeration<InetAddress> addresses = candidate.getInetAddresses();
+            while (addresses.hasMoreElements()) {
+                if (addresses.nextElement().getClass() == group.getClass()) {
+                    return candidate;
+                }
+            }
+        }
+        throw new IOException("No multicast-capable network interface for group " + group);
+    }
+
+    /**
+     * Open and bind a datagram channel which is able to join multicast groups.  The channel is opened for the protocol
+     * family of the bind address, as joining groups of the other family may not work on a dual-stack channel.
+     *
+     * @param bindAddress the address to bind to
+     * @param reuseAddress {@code true} to allow other sockets to bind to the same address, as is usual for multicast
+     * @return the channel
+     * @throws IOException if the channel could not be opened
+     */
+    static DatagramChannel openMulticastChannel(final InetSocketAddress bindAddress, final boolean reuseAddress) throws IOException {
+        final ProtocolFamily family = bindAddress.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET;
+        final DatagramChannel channel = DatagramChannel.open(family);
+        boolean ok = false;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOption.SO_REUSEADDR, Boolean.valueOf(reuseAddress));
+            channel.socket().bind(bindAddress);
+            ok = true;
+            return channel;
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(channel);
+            }
+        }
     }
 
-    private static final Set<Option<?>> OPTIONS = Option.setBuilder()
+    private static final Set<Option<?>> OPTIONS;
+
+    static {
+        final Option.SetBuilder builder = Option.setBuilder()
             .add(Options.BROADCAST)
             .add(Options.RECEIVE_BUFFER)
             .add(Options.SEND_BUFFER)
             .add(Options.IP_TRAFFIC_CLASS)
-            .create();
+            .add(Options.RECEIVE_ADDRESS_CACHE)
+            .add(Options.RECEIVE_ADDRESS_CACHE_HIT_COUNT);
+        if (NioXnio.NIO2) {
+            builder.add(Options.MULTICAST_TTL);
+        }
+        OPTIONS = builder.create();
+    }
 
     public boolean supportsOption(final Option<?> option) {
         return OPTIONS.contains(option);
     }
 
+    void setOptions(final OptionMap optionMap) throws IOException {
+        for (Option<?> option : optionMap) {
+            if (OPTIONS.contains(option) && option != Options.RECEIVE_ADDRESS_CACHE_HIT_COUNT) {
+                setOption(option, optionMap);
+            }
+        }
+    }
+
+    private <T> void setOption(final Option<T> option, final OptionMap optionMap) throws IOException {
+        setOption(option, optionMap.get(option));
+    }
+
     public <T> T getOption(final Option<T> option) throws UnsupportedOptionException, IOException {
         final DatagramChannel channel = datagramChannel;
         final DatagramSocket socket = channel.socket();
@@ -334,6 +540,11 @@ class NioUdpChannel implements MulticastMessageChannel {
             return option.cast(Boolean.valueOf(socket.getBroadcast()));
         } else if (option == Options.IP_TRAFFIC_CLASS) {
             return option.cast(Integer.valueOf(socket.getTrafficClass()));
+        } else if (option == Options.RECEIVE_ADDRESS_CACHE) {
+            final SocketAddress[] cache = addressCache;
+            return option.cast(Integer.valueOf(cache == null ? 0 : cache.length));
+        } else if (option == Options.RECEIVE_ADDRESS_CACHE_HIT_COUNT) {
+            return option.cast(Long.valueOf(addressCacheHits));
         } else {
             if (NioXnio.NIO2) {
                 if (option == Options.MULTICAST_TTL) {
@@ -363,6 +574,25 @@ class NioUdpChannel implements MulticastMessageChannel {
         } else if (option == Options.BROADCAST) {
             old = Boolean.valueOf(socket.getBroadcast());
             socket.setBroadcast(((Boolean) value).booleanValue());
+        } else if (option == Options.RECEIVE_ADDRESS_CACHE) {
+            final SocketAddress[] cache = addressCache;
+            old = Integer.valueOf(cache == null ? 0 : cache.length);
+            final int size = ((Integer) value).intValue();
+            if (size < 0) {
+                throw new IllegalArgumentException("Receive address cache size is negative");
+            }
+            if (size == 0) {
+                addressCache = null;
+            } else {
+                // round up to a power of two, for cheap indexing
+                int length = 1;
+                while (length < size && length < MAX_ADDRESS_CACHE) {
+                    length <<= 1;
+                }
+                addressCache = new SocketAddress[length];
+            }
+        } else if (option == Options.RECEIVE_ADDRESS_CACHE_HIT_COUNT) {
+            throw new IllegalArgumentException("Option " + option + " is read-only");
         } else {
             if (NioXnio.NIO2) {
                 if (option == Options.MULTICAST_TTL) {
@@ -24,6 +24,7 @@ package org.xnio.nio;
 
 import java.io.IOException;
 import java.util.concurrent.ThreadFactory;
+import org.xnio.OptionMap;
 import org.xnio.WriteChannelThread;
 
 /**
@@ -31,7 +32,7 @@ import org.xnio.WriteChannelThread;
  */
 final class NioWriteChannelThread extends AbstractNioChannelThread implements WriteChannelThread {
 
-    NioWriteChannelThread(final ThreadFactory threadFactory) throws IOException {
-        super(threadFactory);
+    NioWriteChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        super(threadFactory, optionMap);
     }
 }
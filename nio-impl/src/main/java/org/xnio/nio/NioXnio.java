@@ -25,6 +25,7 @@ package org.xnio.nio;
 import java.io.IOException;
 import java.net.MulticastSocket;
 import java.net.SocketAddress;
+import java.net.SocketOption;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -33,6 +34,9 @@ import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.util.concurrent.ThreadFactory;
 import java.net.InetSocketAddress;
 import java.lang.reflect.Constructor;
@@ -74,6 +78,11 @@ final class NioXnio extends Xnio {
 
     static final boolean NIO2;
 
+    /**
+     * The {@code SO_REUSEPORT} socket option, or {@code null} if it is not supported on this platform.
+     */
+    private static final SocketOption<Boolean> REUSE_PORT;
+
     static {
         log.info("XNIO NIO Implementation Version " + Version.VERSION);
         boolean nio2 = false;
@@ -84,6 +93,23 @@ final class NioXnio extends Xnio {
         } catch (Throwable t) {
         }
         NIO2 = nio2;
+        SocketOption<Boolean> reusePort = null;
+        if (nio2) try {
+            // only present on newer platforms
+            //noinspection unchecked
+            reusePort = (SocketOption<Boolean>) Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            try {
+                if (! channel.supportedOptions().contains(reusePort)) {
+                    reusePort = null;
+                }
+            } finally {
+                IoUtils.safeClose(channel);
+            }
+        } catch (Throwable t) {
+            reusePort = null;
+        }
+        REUSE_PORT = reusePort;
     }
 
     /**
@@ -146,36 +172,119 @@ final class NioXnio extends Xnio {
 
     /** {@inheritDoc} */
     public ReadChannelThread createReadChannelThread(final ThreadFactory threadFactory) throws IOException {
-        final NioReadChannelThread thread = new NioReadChannelThread(threadFactory);
+        return createReadChannelThread(threadFactory, OptionMap.EMPTY);
+    }
+
+    /** {@inheritDoc} */
+    public ReadChannelThread createReadChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        final NioReadChannelThread thread = new NioReadChannelThread(threadFactory, optionMap);
         thread.start();
         return thread;
     }
 
     /** {@inheritDoc} */
     public WriteChannelThread createWriteChannelThread(final ThreadFactory threadFactory) throws IOException {
-        final NioWriteChannelThread thread = new NioWriteChannelThread(threadFactory);
+        return createWriteChannelThread(threadFactory, OptionMap.EMPTY);
+    }
+
+    /** {@inheritDoc} */
+    public WriteChannelThread createWriteChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        final NioWriteChannelThread thread = new NioWriteChannelThread(threadFactory, optionMap);
         thread.start();
         return thread;
     }
 
     /** {@inheritDoc} */
     public ConnectionChannelThread createConnectionChannelThread(final ThreadFactory threadFactory) throws IOException {
-        final NioConnectionChannelThread thread = new NioConnectionChannelThread(threadFactory);
+        return createConnectionChannelThread(threadFactory, OptionMap.EMPTY);
+    }
+
+    /** {@inheritDoc} */
+    public ConnectionChannelThread createConnectionChannelThread(final ThreadFactory threadFactory, final OptionMap optionMap) throws IOException {
+        final NioConnectionChannelThread thread = new NioConnectionChannelThread(threadFactory, optionMap);
         thread.start();
         return thread;
     }
 
     protected AcceptingChannel<? extends ConnectedStreamChannel> createTcpServer(final InetSocketAddress bindAddress, final ConnectionChannelThread thread, final ChannelListener<? super AcceptingChannel<ConnectedStreamChannel>> acceptListener, final OptionMap optionMap) throws IOException {
         final ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.configureBlocking(false);
-        channel.socket().bind(bindAddress);
         final NioTcpServer server = new NioTcpServer(this, channel);
+        boolean ok = false;
+        try {
+            channel.configureBlocking(false);
+            server.setOptions(optionMap);
+            channel.socket().bind(bindAddress, optionMap.get(Options.BACKLOG, 0));
+            ok = true;
+        } finally {
+            if (! ok) {
+                IoUtils.safeClose(channel);
+            }
+        }
         server.setAcceptThread(thread);
         //noinspection unchecked
         server.getAcceptSetter().set((ChannelListener<? super NioTcpServer>) acceptListener);
         return server;
     }
 
+    protected AcceptingChannel<? extends ConnectedStreamChannel> createTcpServer(final InetSocketAddress bindAddress, final ConnectionChannelThread[] threads, final ChannelListener<? super AcceptingChannel<ConnectedStreamChannel>> acceptListener, final OptionMap optionMap) throws IOException {
+        final SocketOption<Boolean> reusePort = REUSE_PORT;
+        final NioTcpServer[] servers;
+        boolean ok = false;
+        if (reusePort != null) {
+            // one listening socket per thread; the kernel balances connections among them
+            servers = new NioTcpServer[threads.length];
+            try {
+                InetSocketAddress address = bindAddress;
+                for (int i = 0; i < threads.length; i++) {
+                    final ServerSocketChannel channel = ServerSocketChannel.open();
+                    servers[i] = new NioTcpServer(this, channel);
+                    channel.configureBlocking(false);
+                    channel.setOption(reusePort, Boolean.TRUE);
+                    servers[i].setOptions(optionMap);
+                    channel.socket().bind(address, optionMap.get(Options.BACKLOG, 0));
+                    // later sockets must bind to the same port, even if the first one was ephemeral
+                    address = (InetSocketAddress) channel.socket().getLocalSocketAddress();
+                    servers[i].setAcceptThread(threads[i]);
+                }
+                ok = true;
+            } finally {
+                if (! ok) {
+                    for (NioTcpServer server : servers) {
+                        IoUtils.safeClose(server);
+                    }
+                }
+            }
+        } else {
+            // one listening socket shared by every distinct thread
+            final Set<ConnectionChannelThread> distinct = Collections.newSetFromMap(new IdentityHashMap<ConnectionChannelThread, Boolean>());
+            Collections.addAll(distinct, threads);
+            final ServerSocketChannel channel = ServerSocketChannel.open();
+            servers = new NioTcpServer[distinct.size()];
+            try {
+                channel.configureBlocking(false);
+                int i = 0;
+                for (ConnectionChannelThread thread : distinct) {
+                    servers[i] = new NioTcpServer(this, channel);
+                    servers[i++].setOptions(optionMap);
+                }
+                channel.socket().bind(bindAddress, optionMap.get(Options.BACKLOG, 0));
+                i = 0;
+                for (ConnectionChannelThread thread : distinct) {
+                    servers[i++].setAcceptThread(thread);
+                }
+                ok = true;
+            } finally {
+                if (! ok) {
+                    IoUtils.safeClose(channel);
+                }
+            }
+        }
+        final NioTcpServerGroup group = new NioTcpServerGroup(this, servers);
+        //noinspection unchecked
+        group.getAcceptSetter().set((ChannelListener<? super NioTcpServerGroup>) acceptListener);
+        return group;
+    }
+
     /** {@inheritDoc} */
     protected IoFuture<ConnectedStreamChannel> connectTcp(final InetSocketAddress bindAddress, final InetSocketAddress destinationAddress, final ConnectionChannelThread thread, final ReadChannelThread readThread, final WriteChannelThread writeThread, final ChannelListener<? super ConnectedStreamChannel> openListener, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) {
         try {
@@ -348,10 +457,21 @@ final class NioXnio extends Xnio {
             ChannelListeners.invokeChannelListener(channel, bindListener);
             return channel;
         } else {
-            final DatagramChannel channel = DatagramChannel.open();
-            channel.configureBlocking(false);
-            channel.socket().bind(bindAddress);
+            final DatagramChannel channel;
+            if (NIO2 && optionMap.get(Options.MULTICAST, false)) {
+                channel = NioUdpChannel.openMulticastChannel(bindAddress, optionMap.get(Options.REUSE_ADDRESSES, true));
+            } else {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().bind(bindAddress);
+            }
             final NioUdpChannel udpChannel = new NioUdpChannel(this, channel);
+            try {
+                udpChannel.setOptions(optionMap);
+            } catch (IOException e) {
+                IoUtils.safeClose(channel);
+                throw e;
+            }
             udpChannel.setReadThread(readThread);
             udpChannel.setWriteThread(writeThread);
             //noinspection unchecked
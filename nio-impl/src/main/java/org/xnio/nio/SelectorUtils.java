@@ -52,4 +52,27 @@ final class SelectorUtils {
         }
         selectionKey.interestOps(0);
     }
+
+    public static void await(NioXnio nioXnio, SelectableChannel[] channels, int op) throws IOException {
+        await(nioXnio, channels, op, 0L, TimeUnit.MILLISECONDS);
+    }
+
+    public static void await(NioXnio nioXnio, SelectableChannel[] channels, int op, long time, TimeUnit unit) throws IOException {
+        final Selector selector = nioXnio.getSelector();
+        final SelectionKey[] selectionKeys = new SelectionKey[channels.length];
+        for (int i = 0; i < channels.length; i ++) {
+            selectionKeys[i] = channels[i].register(selector, op);
+        }
+        try {
+            selector.select(unit.toMillis(time));
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException();
+            }
+        } finally {
+            selector.selectedKeys().clear();
+            for (SelectionKey selectionKey : selectionKeys) {
+                selectionKey.interestOps(0);
+            }
+        }
+    }
 }
@@ -0,0 +1,528 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2011, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.xnio.nio.test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import junit.framework.TestCase;
+import org.jboss.logging.Logger;
+import org.xnio.ChannelListener;
+import org.xnio.ConnectionChannelThread;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.ReadChannelThread;
+import org.xnio.SslHandshakeStatistics;
+import org.xnio.SslTaskExecutor;
+import org.xnio.WriteChannelThread;
+import org.xnio.Xnio;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.channels.Channels;
+import org.xnio.channels.ConnectedSslStreamChannel;
+
+@SuppressWarnings( { "JavaDoc" })
+public final class NioSslTestCase extends TestCase {
+
+    private static final Logger log = Logger.getLogger("TEST");
+
+    private static final int SERVER_PORT = 12345;
+
+    static {
+        // the default SSL context reads these the first time it is created
+        final URL keyStore = NioSslTestCase.class.getResource("/xnio-test.keystore");
+        final String path;
+        try {
+            path = new File(keyStore.toURI()).getPath();
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        System.setProperty("javax.net.ssl.keyStore", path);
+        System.setProperty("javax.net.ssl.keyStorePassword", "password");
+        System.setProperty("javax.net.ssl.trustStore", path);
+        System.setProperty("javax.net.ssl.trustStorePassword", "password");
+    }
+
+    private final TestThreadFactory threadFactory = new TestThreadFactory();
+
+    private interface SslTestBody {
+        void run(ConnectedSslStreamChannel client, ConnectedSslStreamChannel server) throws Exception;
+    }
+
+    private void doSslTest(final SslTestBody body, final OptionMap optionMap) throws Exception {
+        doSslTest(body, optionMap, true);
+    }
+
+    private void doSslTest(final SslTestBody body, final OptionMap optionMap, final boolean serverThreads) throws Exception {
+        final Xnio xnio = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader());
+        final ConnectionChannelThread connectionChannelThread = xnio.createConnectionChannelThread(threadFactory);
+        final ReadChannelThread serverReadChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread serverWriteChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final ReadChannelThread clientReadChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread clientWriteChannelThread = xnio.createWriteChannelThread(threadFactory);
+        try {
+            final AtomicReference<ConnectedSslStreamChannel> serverChannel = new AtomicReference<ConnectedSslStreamChannel>();
+            final CountDownLatch latch = new CountDownLatch(1);
+            final AcceptingChannel<ConnectedSslStreamChannel> server = xnio.createSslTcpServer(new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, new ChannelListener<AcceptingChannel<ConnectedSslStreamChannel>>() {
+                public void handleEvent(final AcceptingChannel<ConnectedSslStreamChannel> channel) {
+                    try {
+                        final ConnectedSslStreamChannel accepted = serverThreads ? channel.accept(serverReadChannelThread, serverWriteChannelThread) : channel.accept(null, null);
+                        if (accepted != null) {
+                            serverChannel.set(accepted);
+                            latch.countDown();
+                        }
+                    } catch (IOException e) {
+                        log.errorf(e, "Accept failed");
+                    }
+                }
+            }, OptionMap.builder().addAll(optionMap).set(Options.REUSE_ADDRESSES, true).getMap());
+            ConnectedSslStreamChannel client = null;
+            try {
+                server.resumeAccepts();
+                client = xnio.connectSsl(new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, clientReadChannelThread, clientWriteChannelThread, null, optionMap).get();
+                assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                body.run(client, serverChannel.get());
+            } catch (Exception e) {
+                log.errorf(e, "Error running body");
+                throw e;
+            } catch (Error e) {
+                log.errorf(e, "Error running body");
+                throw e;
+            } finally {
+                IoUtils.safeClose(client);
+                IoUtils.safeClose(serverChannel.get());
+                IoUtils.safeClose(server);
+            }
+        } finally {
+            connectionChannelThread.shutdown();
+            serverReadChannelThread.shutdown();
+            serverWriteChannelThread.shutdown();
+            clientReadChannelThread.shutdown();
+            clientWriteChannelThread.shutdown();
+        }
+        connectionChannelThread.awaitTermination();
+        serverReadChannelThread.awaitTermination();
+        serverWriteChannelThread.awaitTermination();
+        clientReadChannelThread.awaitTermination();
+        clientWriteChannelThread.awaitTermination();
+    }
+
+    private static void writeFully(final ConnectedSslStreamChannel channel, final byte[] content) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            Channels.writeBlocking(channel, buffer);
+        }
+        Channels.flushBlocking(channel);
+    }
+
+    private static void readFully(final ConnectedSslStreamChannel channel, final byte[] received) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(received);
+        while (buffer.hasRemaining()) {
+            if (Channels.readBlocking(channel, buffer) == -1) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Start a thread which runs the given task, recording any failure.
+     */
+    private static Thread start(final String name, final AtomicReference<Throwable> problem, final Task task) {
+        final Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    log.errorf(t, "%s failed", name);
+                    problem.compareAndSet(null, t);
+                }
+            }
+        }, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Assert that an SSL channel no longer holds any buffer space.
+     */
+    private static void assertBuffersReleased(final ConnectedSslStreamChannel channel) throws Exception {
+        for (String name : new String[] { "receiveBuffer", "readBuffer", "sendBuffer" }) {
+            final Field field = channel.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            assertEquals(name, 0, ((ByteBuffer) field.get(channel)).capacity());
+        }
+        for (String name : new String[] { "receivePooled", "readPooled", "sendPooled" }) {
+            final Field field = channel.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            assertNull(name, field.get(channel));
+        }
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    public void testBidirectionalStream() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testBidirectionalStream");
+        final byte[] clientContent = new byte[2 * 1024 * 1024 + 5];
+        final byte[] serverContent = new byte[2 * 1024 * 1024 + 11];
+        final Random random = new Random(0L);
+        random.nextBytes(clientContent);
+        random.nextBytes(serverContent);
+        doSslTest(new SslTestBody() {
+            public void run(final ConnectedSslStreamChannel client, final ConnectedSslStreamChannel server) throws Exception {
+                // each side writes while it reads, so one side's handshake steps can come from either direction
+                final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+                final byte[] clientReceived = new byte[serverContent.length];
+                final byte[] serverReceived = new byte[clientContent.length];
+                final Thread[] threads = {
+                    start("client writer", problem, new Task() {
+                        public void run() throws Exception {
+                            writeFully(client, clientContent);
+                        }
+                    }),
+                    start("client reader", problem, new Task() {
+                        public void run() throws Exception {
+                            readFully(client, clientReceived);
+                        }
+                    }),
+                    start("server writer", problem, new Task() {
+                        public void run() throws Exception {
+                            writeFully(server, serverContent);
+                        }
+                    }),
+                    start("server reader", problem, new Task() {
+                        public void run() throws Exception {
+                            readFully(server, serverReceived);
+                        }
+                    }),
+                };
+                for (Thread thread : threads) {
+                    thread.join(20000L);
+                    assertFalse(thread.getName() + " did not finish", thread.isAlive());
+                }
+                assertNull(problem.get());
+                assertTrue(Arrays.equals(clientContent, serverReceived));
+                assertTrue(Arrays.equals(serverContent, clientReceived));
+            }
+        }, OptionMap.EMPTY);
+        threadFactory.await();
+    }
+
+    private void doEchoTest(final OptionMap optionMap) throws Exception {
+        final byte[] content = new byte[1024 * 1024 + 7];
+        new Random(0L).nextBytes(content);
+        doSslTest(new SslTestBody() {
+            public void run(final ConnectedSslStreamChannel client, final ConnectedSslStreamChannel server) throws Exception {
+                final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+                final byte[] received = new byte[content.length];
+                final Thread[] threads = {
+                    start("client writer", problem, new Task() {
+                        public void run() throws Exception {
+                            writeFully(client, content);
+                        }
+                    }),
+                    start("client reader", problem, new Task() {
+                        public void run() throws Exception {
+                            readFully(client, received);
+                        }
+                    }),
+                    start("server echo", problem, new Task() {
+                        public void run() throws Exception {
+                            final ByteBuffer buffer = ByteBuffer.allocate(8192);
+                            long total = 0L;
+                            while (total < content.length) {
+                                final int res = Channels.readBlocking(server, buffer);
+                                if (res == -1) {
+                                    throw new EOFException();
+                                }
+                                total += res;
+                                buffer.flip();
+                                while (buffer.hasRemaining()) {
+                                    Channels.writeBlocking(server, buffer);
+                                }
+                                Channels.flushBlocking(server);
+                                buffer.clear();
+                            }
+                        }
+                    }),
+                };
+                for (Thread thread : threads) {
+                    thread.join(20000L);
+                    assertFalse(thread.getName() + " did not finish", thread.isAlive());
+                }
+                assertNull(problem.get());
+                assertTrue(Arrays.equals(content, received));
+                client.close();
+                server.close();
+                assertBuffersReleased(client);
+                assertBuffersReleased(server);
+            }
+        }, optionMap);
+    }
+
+    public void testEcho() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testEcho");
+        doEchoTest(OptionMap.EMPTY);
+        threadFactory.await();
+    }
+
+    public void testEchoSmallBuffers() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testEchoSmallBuffers");
+        // smaller than a TLS record, so the channel has to fall back to unpooled buffers of the session's size
+        doEchoTest(OptionMap.builder().set(Options.SSL_SEND_BUFFER, 4096).set(Options.SSL_RECEIVE_BUFFER, 4096).getMap());
+        threadFactory.await();
+    }
+
+    public void testEchoLargeBuffers() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testEchoLargeBuffers");
+        doEchoTest(OptionMap.builder().set(Options.SSL_SEND_BUFFER, 64 * 1024).set(Options.SSL_RECEIVE_BUFFER, 64 * 1024).getMap());
+        threadFactory.await();
+    }
+
+    /**
+     * Connect several clients at once, and then have each client write a message for its server side to read, so
+     * that every handshake runs concurrently.
+     */
+    private void doConcurrentHandshakeTest(final int count, final Executor taskExecutor, final OptionMap serverOptionMap) throws Exception {
+        final byte[] content = "hello, world".getBytes("US-ASCII");
+        final Xnio xnio = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader());
+        final ConnectionChannelThread connectionChannelThread = xnio.createConnectionChannelThread(threadFactory);
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final List<ConnectedSslStreamChannel> channels = new ArrayList<ConnectedSslStreamChannel>();
+        try {
+            final List<ConnectedSslStreamChannel> serverChannels = new ArrayList<ConnectedSslStreamChannel>();
+            final CountDownLatch latch = new CountDownLatch(count);
+            final AcceptingChannel<ConnectedSslStreamChannel> server = xnio.createSslTcpServer(new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, taskExecutor, new ChannelListener<AcceptingChannel<ConnectedSslStreamChannel>>() {
+                public void handleEvent(final AcceptingChannel<ConnectedSslStreamChannel> channel) {
+                    try {
+                        ConnectedSslStreamChannel accepted;
+                        while ((accepted = channel.accept(readChannelThread, writeChannelThread)) != null) {
+                            synchronized (serverChannels) {
+                                serverChannels.add(accepted);
+                            }
+                            latch.countDown();
+                        }
+                    } catch (IOException e) {
+                        log.errorf(e, "Accept failed");
+                    }
+                }
+            }, OptionMap.builder().addAll(serverOptionMap).set(Options.REUSE_ADDRESSES, true).getMap());
+            try {
+                server.resumeAccepts();
+                final List<IoFuture<ConnectedSslStreamChannel>> futures = new ArrayList<IoFuture<ConnectedSslStreamChannel>>();
+                for (int i = 0; i < count; i ++) {
+                    futures.add(xnio.connectSsl(new InetSocketAddress(0), new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, readChannelThread, writeChannelThread, taskExecutor, null, null, OptionMap.EMPTY));
+                }
+                for (IoFuture<ConnectedSslStreamChannel> future : futures) {
+                    channels.add(future.get());
+                }
+                assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                synchronized (serverChannels) {
+                    channels.addAll(serverChannels);
+                }
+                final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+                final List<Thread> threads = new ArrayList<Thread>();
+                for (int i = 0; i < count; i ++) {
+                    final ConnectedSslStreamChannel client = channels.get(i);
+                    final ConnectedSslStreamChannel serverChannel = channels.get(count + i);
+                    threads.add(start("client writer " + i, problem, new Task() {
+                        public void run() throws Exception {
+                            writeFully(client, content);
+                        }
+                    }));
+                    threads.add(start("server reader " + i, problem, new Task() {
+                        public void run() throws Exception {
+                            final byte[] received = new byte[content.length];
+                            readFully(serverChannel, received);
+                            assertTrue(Arrays.equals(content, received));
+                        }
+                    }));
+                }
+                for (Thread thread : threads) {
+                    thread.join(20000L);
+                    assertFalse(thread.getName() + " did not finish", thread.isAlive());
+                }
+                assertNull(problem.get());
+            } finally {
+                for (ConnectedSslStreamChannel channel : channels) {
+                    IoUtils.safeClose(channel);
+                }
+                IoUtils.safeClose(server);
+            }
+        } finally {
+            connectionChannelThread.shutdown();
+            readChannelThread.shutdown();
+            writeChannelThread.shutdown();
+        }
+        connectionChannelThread.awaitTermination();
+        readChannelThread.awaitTermination();
+        writeChannelThread.awaitTermination();
+    }
+
+    public void testConcurrentHandshakesSaturatedExecutor() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testConcurrentHandshakesSaturatedExecutor");
+        // one worker and a one-slot queue, so most batches of delegated tasks are rejected and deferred
+        final SslTaskExecutor taskExecutor = new SslTaskExecutor(threadFactory, 1, 1);
+        try {
+            doConcurrentHandshakeTest(20, taskExecutor, OptionMap.EMPTY);
+            assertTrue(taskExecutor.getExecutedTaskCount() > 0L);
+            assertTrue(taskExecutor.getRejectedTaskCount() > 0L);
+        } finally {
+            taskExecutor.shutdown();
+        }
+        assertTrue(taskExecutor.awaitTermination(5000L, TimeUnit.MILLISECONDS));
+        threadFactory.await();
+    }
+
+    public void testMaxConcurrentHandshakes() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testMaxConcurrentHandshakes");
+        final int count = 5;
+        final Xnio xnio = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader());
+        final SslHandshakeStatistics statistics = xnio.getSslHandshakeStatistics();
+        final long handshakes = statistics.getHandshakeCount();
+        final long queued = statistics.getQueuedHandshakeCount();
+        // no handshake starts until every connection is accepted, so all but the first are queued
+        doConcurrentHandshakeTest(count, xnio.getSslTaskExecutor(), OptionMap.create(Options.SSL_MAX_CONCURRENT_HANDSHAKES, Integer.valueOf(1)));
+        assertEquals(handshakes + 2L * count, statistics.getHandshakeCount());
+        assertEquals(queued + count - 1L, statistics.getQueuedHandshakeCount());
+        threadFactory.await();
+    }
+
+    public void testHandshakeTimeout() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testHandshakeTimeout");
+        final SslHandshakeStatistics statistics = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader()).getSslHandshakeStatistics();
+        final long timedOut = statistics.getTimedOutHandshakeCount();
+        // the server channel has no read or write thread, so the timeout must not depend on them
+        doSslTest(new SslTestBody() {
+            public void run(final ConnectedSslStreamChannel client, final ConnectedSslStreamChannel server) throws Exception {
+                // the client never starts its handshake
+                final long deadline = System.currentTimeMillis() + 5000L;
+                while (server.isOpen() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(20L);
+                }
+                assertFalse(server.isOpen());
+                assertEquals(timedOut + 1L, statistics.getTimedOutHandshakeCount());
+            }
+        }, OptionMap.create(Options.SSL_HANDSHAKE_TIMEOUT, Integer.valueOf(200)), false);
+        threadFactory.await();
+    }
+
+    public void testUnreadableKeyStore() throws Exception {
+        log.info("Test: testUnreadableKeyStore");
+        final Xnio xnio = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader());
+        final String keyStore = System.getProperty("javax.net.ssl.keyStore");
+        System.setProperty("javax.net.ssl.keyStore", new File(keyStore).getPath() + ".missing");
+        try {
+            // a session timeout which no other test uses, so that the context is not already cached
+            xnio.createSslTcpConnector(null, null, null, OptionMap.builder().set(Options.SSL_PROTOCOL, "TLSv1.2").set(Options.SSL_CLIENT_SESSION_TIMEOUT, 4321).getMap());
+            fail("Expected NoSuchAlgorithmException");
+        } catch (NoSuchAlgorithmException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        } finally {
+            System.setProperty("javax.net.ssl.keyStore", keyStore);
+        }
+    }
+
+    public void testSessionResumption() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testSessionResumption");
+        checkSessionResumption(OptionMap.create(Options.SSL_PROTOCOL, "TLSv1.2"));
+        threadFactory.await();
+    }
+
+    public void testDefaultProtocolSessionResumption() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testDefaultProtocolSessionResumption");
+        // TLS 1.3 where the JDK supports it
+        checkSessionResumption(OptionMap.EMPTY);
+        threadFactory.await();
+    }
+
+    private void checkSessionResumption(final OptionMap optionMap) throws Exception {
+        final SslTestBody body = new SslTestBody() {
+            public void run(final ConnectedSslStreamChannel client, final ConnectedSslStreamChannel server) throws Exception {
+                final byte[] content = "hello, world".getBytes("US-ASCII");
+                final byte[] received = new byte[content.length];
+                final byte[] echoed = new byte[content.length];
+                final AtomicReference<Throwable> problem = new AtomicReference<Throwable>();
+                final Thread writer = start("client writer", problem, new Task() {
+                    public void run() throws Exception {
+                        writeFully(client, content);
+                    }
+                });
+                readFully(server, received);
+                writer.join(20000L);
+                assertFalse(writer.isAlive());
+                assertNull(problem.get());
+                assertTrue(Arrays.equals(content, received));
+                // with TLS 1.3 the client must read to receive the ticket which lets it resume the session
+                final Thread echo = start("server writer", problem, new Task() {
+                    public void run() throws Exception {
+                        writeFully(server, received);
+                    }
+                });
+                readFully(client, echoed);
+                echo.join(20000L);
+                assertFalse(echo.isAlive());
+                assertNull(problem.get());
+                assertTrue(Arrays.equals(content, echoed));
+            }
+        };
+        final SslHandshakeStatistics statistics = Xnio.getInstance("nio", NioSslTestCase.class.getClassLoader()).getSslHandshakeStatistics();
+        final long handshakes = statistics.getHandshakeCount();
+        final long resumed = statistics.getResumedHandshakeCount();
+        doSslTest(body, optionMap);
+        // both ends of the first connection do a full handshake
+        assertEquals(handshakes + 2L, statistics.getHandshakeCount());
+        assertEquals(resumed, statistics.getResumedHandshakeCount());
+        doSslTest(body, optionMap);
+        // and both ends of the second connection resume the session of the first
+        assertEquals(handshakes + 4L, statistics.getHandshakeCount());
+        assertEquals(resumed + 2L, statistics.getResumedHandshakeCount());
+    }
+}
@@ -22,31 +22,56 @@
 
 package org.xnio.nio.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.Inet4Address;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import junit.framework.TestCase;
 import org.jboss.logging.Logger;
+import org.xnio.BufferAllocator;
+import org.xnio.Buffers;
+import org.xnio.ByteBufferSlicePool;
 import org.xnio.ChannelListeners;
 import org.xnio.ConnectionChannelThread;
 import org.xnio.IoFuture;
 import org.xnio.IoUtils;
 import org.xnio.ReadChannelThread;
+import org.xnio.StreamConnectionPool;
 import org.xnio.WriteChannelThread;
 import org.xnio.Xnio;
 import org.xnio.OptionMap;
 import org.xnio.ChannelListener;
+import org.xnio.Pooled;
+import org.xnio.PooledReadHandler;
 import org.xnio.Options;
 import org.xnio.FutureResult;
 import org.xnio.channels.AcceptingChannel;
 import org.xnio.channels.BoundChannel;
 import org.xnio.channels.Channels;
 import org.xnio.channels.ConnectedStreamChannel;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamWriteQueue;
 
 @SuppressWarnings( { "JavaDoc" })
 public final class NioTcpTestCase extends TestCase {
@@ -57,54 +82,109 @@ public final class NioTcpTestCase extends TestCase {
 
     private static final int SERVER_PORT = 12345;
 
-    private void doConnectionTest(final Runnable body, final ChannelListener<? super ConnectedStreamChannel> clientHandler, final ChannelListener<? super ConnectedStreamChannel> serverHandler) throws Exception {
-        Xnio xnio = Xnio.getInstance("nio", NioTcpTestCase.class.getClassLoader());
-        final ConnectionChannelThread connectionChannelThread = xnio.createConnectionChannelThread(threadFactory);
-        final ConnectionChannelThread serverChannelThread = xnio.createConnectionChannelThread(threadFactory);
-        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
-        final ReadChannelThread clientReadChannelThread = xnio.createReadChannelThread(threadFactory);
+    /**
+     * A running stream server, with the channel threads which serve its connections.
+     */
+    private static final class TestServer {
+        private final AcceptingChannel<? extends ConnectedStreamChannel> channel;
+        private final ReadChannelThread readThread;
+        private final WriteChannelThread writeThread;
+        /** the number of times the server's accept listener was invoked **/
+        private final AtomicInteger acceptEvents;
+
+        TestServer(final AcceptingChannel<? extends ConnectedStreamChannel> channel, final ReadChannelThread readThread, final WriteChannelThread writeThread, final AtomicInteger acceptEvents) {
+            this.channel = channel;
+            this.readThread = readThread;
+            this.writeThread = writeThread;
+            this.acceptEvents = acceptEvents;
+        }
+    }
+
+    private interface ServerTestBody {
+        void run(TestServer server) throws Exception;
+    }
+
+    private void doServerTest(final ServerTestBody body, final ChannelListener<? super ConnectedStreamChannel> serverHandler, final OptionMap serverOptions) throws Exception {
+        doServerTest(body, serverHandler, 1, 1, OptionMap.EMPTY, serverOptions);
+    }
+
+    private void doServerTest(final ServerTestBody body, final ChannelListener<? super ConnectedStreamChannel> serverHandler, final int maxAccepts, final int acceptorCount, final OptionMap readThreadOptions, final OptionMap serverOptions) throws Exception {
+        final Xnio xnio = Xnio.getInstance("nio", NioTcpTestCase.class.getClassLoader());
+        final ConnectionChannelThread[] serverChannelThreads = new ConnectionChannelThread[acceptorCount];
+        for (int i = 0; i < acceptorCount; i ++) {
+            serverChannelThreads[i] = xnio.createConnectionChannelThread(threadFactory);
+        }
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory, readThreadOptions);
         final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
-        final WriteChannelThread clientWriteChannelThread = xnio.createWriteChannelThread(threadFactory);
         try {
+            final AtomicInteger acceptEvents = new AtomicInteger();
+            final ChannelListener<AcceptingChannel<ConnectedStreamChannel>> openListener = ChannelListeners.<ConnectedStreamChannel>openListenerAdapter(readChannelThread, writeChannelThread, new CatchingChannelListener<ConnectedStreamChannel>(
+                    serverHandler,
+                    threadFactory
+            ), maxAccepts);
             final AcceptingChannel<? extends ConnectedStreamChannel> server = xnio.createStreamServer(
                     new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT),
-                    serverChannelThread,
-                    ChannelListeners.<ConnectedStreamChannel>openListenerAdapter(readChannelThread, writeChannelThread, new CatchingChannelListener<ConnectedStreamChannel>(
-                            serverHandler,
-                            threadFactory
-                    )), OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
-            server.resumeAccepts();
+                    serverChannelThreads,
+                    new ChannelListener<AcceptingChannel<ConnectedStreamChannel>>() {
+                        public void handleEvent(final AcceptingChannel<ConnectedStreamChannel> channel) {
+                            acceptEvents.incrementAndGet();
+                            openListener.handleEvent(channel);
+                        }
+                    }, serverOptions);
             try {
-                final IoFuture<? extends ConnectedStreamChannel> ioFuture = xnio.connectStream(new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, clientReadChannelThread, clientWriteChannelThread, new CatchingChannelListener<ConnectedStreamChannel>(clientHandler, threadFactory), null, OptionMap.EMPTY);
-                final ConnectedStreamChannel channel = ioFuture.get();
-                try {
-                    body.run();
-                    channel.close();
-                    server.close();
-                } catch (Exception e) {
-                    log.errorf(e, "Error running body");
-                    throw e;
-                } catch (Error e) {
-                    log.errorf(e, "Error running body");
-                    throw e;
-                } finally {
-                    IoUtils.safeClose(channel);
-                }
+                body.run(new TestServer(server, readChannelThread, writeChannelThread, acceptEvents));
+            } catch (Exception e) {
+                log.errorf(e, "Error running body");
+                throw e;
+            } catch (Error e) {
+                log.errorf(e, "Error running body");
+                throw e;
             } finally {
                 IoUtils.safeClose(server);
             }
         } finally {
-            connectionChannelThread.shutdown();
-            serverChannelThread.shutdown();
-            clientReadChannelThread.shutdown();
-            clientWriteChannelThread.shutdown();
+            for (ConnectionChannelThread thread : serverChannelThreads) {
+                thread.shutdown();
+            }
             readChannelThread.shutdown();
             writeChannelThread.shutdown();
         }
-        connectionChannelThread.awaitTermination();
-        serverChannelThread.awaitTermination();
+        for (ConnectionChannelThread thread : serverChannelThreads) {
+            thread.awaitTermination();
+        }
         readChannelThread.awaitTermination();
         writeChannelThread.awaitTermination();
+    }
+
+    private static Socket connect() throws IOException {
+        return new Socket(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT);
+    }
+
+    private void doConnectionTest(final Runnable body, final ChannelListener<? super ConnectedStreamChannel> clientHandler, final ChannelListener<? super ConnectedStreamChannel> serverHandler) throws Exception {
+        final Xnio xnio = Xnio.getInstance("nio", NioTcpTestCase.class.getClassLoader());
+        final ConnectionChannelThread connectionChannelThread = xnio.createConnectionChannelThread(threadFactory);
+        final ReadChannelThread clientReadChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread clientWriteChannelThread = xnio.createWriteChannelThread(threadFactory);
+        try {
+            doServerTest(new ServerTestBody() {
+                public void run(final TestServer server) throws Exception {
+                    server.channel.resumeAccepts();
+                    final IoFuture<? extends ConnectedStreamChannel> ioFuture = xnio.connectStream(new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT), connectionChannelThread, clientReadChannelThread, clientWriteChannelThread, new CatchingChannelListener<ConnectedStreamChannel>(clientHandler, threadFactory), null, OptionMap.EMPTY);
+                    final ConnectedStreamChannel channel = ioFuture.get();
+                    try {
+                        body.run();
+                        channel.close();
+                    } finally {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            }, serverHandler, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        } finally {
+            connectionChannelThread.shutdown();
+            clientReadChannelThread.shutdown();
+            clientWriteChannelThread.shutdown();
+        }
+        connectionChannelThread.awaitTermination();
         clientReadChannelThread.awaitTermination();
         clientWriteChannelThread.awaitTermination();
     }
@@ -695,4 +775,920 @@ public final class NioTcpTestCase extends TestCase {
         }
         threadFactory.await();
     }
+
+    public void testAwaitThroughChannelThread() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testAwaitThroughChannelThread");
+        final CountDownLatch openLatch = new CountDownLatch(2);
+        final AtomicReference<ConnectedStreamChannel> clientRef = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicReference<ConnectedStreamChannel> serverRef = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicInteger listenerCalls = new AtomicInteger();
+        doConnectionTest(new Runnable() {
+            public void run() {
+                try {
+                    assertTrue(openLatch.await(500L, TimeUnit.MILLISECONDS));
+                    final ConnectedStreamChannel client = clientRef.get();
+                    final ConnectedStreamChannel server = serverRef.get();
+                    client.getReadSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+                        public void handleEvent(final ConnectedStreamChannel channel) {
+                            listenerCalls.incrementAndGet();
+                            channel.suspendReads();
+                        }
+                    });
+                    // nothing to read: the wait must run out
+                    final long start = System.currentTimeMillis();
+                    client.awaitReadable(200L, TimeUnit.MILLISECONDS);
+                    assertTrue(System.currentTimeMillis() - start >= 150L);
+                    final ByteBuffer buffer = ByteBuffer.allocate(16);
+                    assertEquals(0, client.read(buffer));
+                    // data arrives while waiting
+                    final Thread writer = new Thread(new Runnable() {
+                        public void run() {
+                            try {
+                                Thread.sleep(100L);
+                                Channels.writeBlocking(server, ByteBuffer.wrap(new byte[] { 1, 2, 3 }));
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                    writer.start();
+                    client.awaitReadable();
+                    writer.join();
+                    assertTrue(client.read(buffer) > 0);
+                    // the waiter's readiness must not reach the user's listener
+                    assertEquals(0, listenerCalls.get());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    IoUtils.safeClose(serverRef.get());
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                clientRef.set(channel);
+                openLatch.countDown();
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                serverRef.set(channel);
+                openLatch.countDown();
+            }
+        });
+        threadFactory.await();
+    }
+
+    public void testAwaitFallbacks() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testAwaitFallbacks");
+        final CountDownLatch openLatch = new CountDownLatch(2);
+        final CountDownLatch listenerLatch = new CountDownLatch(1);
+        final AtomicReference<ConnectedStreamChannel> clientRef = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicReference<ConnectedStreamChannel> serverRef = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicBoolean listenerAwaitOK = new AtomicBoolean();
+        final AtomicBoolean waiterWoke = new AtomicBoolean();
+        doConnectionTest(new Runnable() {
+            public void run() {
+                try {
+                    assertTrue(openLatch.await(500L, TimeUnit.MILLISECONDS));
+                    final ConnectedStreamChannel client = clientRef.get();
+                    final ConnectedStreamChannel server = serverRef.get();
+                    // caller on the channel thread itself
+                    client.getReadSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+                        public void handleEvent(final ConnectedStreamChannel channel) {
+                            channel.suspendReads();
+                            try {
+                                final long start = System.currentTimeMillis();
+                                channel.awaitReadable(2000L, TimeUnit.MILLISECONDS);
+                                listenerAwaitOK.set(System.currentTimeMillis() - start < 1000L);
+                            } catch (IOException e) {
+                                log.errorf(e, "Await in listener failed");
+                            }
+                            listenerLatch.countDown();
+                        }
+                    });
+                    client.resumeReads();
+                    Channels.writeBlocking(server, ByteBuffer.wrap(new byte[] { 1 }));
+                    assertTrue(listenerLatch.await(2000L, TimeUnit.MILLISECONDS));
+                    assertTrue(listenerAwaitOK.get());
+                    final ByteBuffer buffer = ByteBuffer.allocate(16);
+                    assertEquals(1, client.read(buffer));
+                    // no channel thread
+                    client.setReadThread(null);
+                    Channels.writeBlocking(server, ByteBuffer.wrap(new byte[] { 2 }));
+                    client.awaitReadable(2000L, TimeUnit.MILLISECONDS);
+                    buffer.clear();
+                    assertEquals(1, client.read(buffer));
+                    // a waiter blocked with a live key is released when the key is cancelled
+                    final ConnectedStreamChannel other = server;
+                    final Thread waiter = new Thread(new Runnable() {
+                        public void run() {
+                            try {
+                                other.awaitReadable();
+                                waiterWoke.set(true);
+                            } catch (IOException e) {
+                                waiterWoke.set(true);
+                            }
+                        }
+                    });
+                    waiter.start();
+                    Thread.sleep(100L);
+                    server.close();
+                    waiter.join(2000L);
+                    assertTrue(waiterWoke.get());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    IoUtils.safeClose(serverRef.get());
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                clientRef.set(channel);
+                openLatch.countDown();
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                serverRef.set(channel);
+                openLatch.countDown();
+            }
+        });
+        threadFactory.await();
+    }
+
+    public void testBatchedAccept() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testBatchedAccept");
+        final int count = 20;
+        final CountDownLatch latch = new CountDownLatch(count);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                final Socket[] sockets = new Socket[count];
+                try {
+                    // queue up a burst of connections before accepting any of them
+                    for (int i = 0; i < count; i ++) {
+                        sockets[i] = connect();
+                    }
+                    server.channel.resumeAccepts();
+                    assertTrue("Accept timed out", latch.await(2000L, TimeUnit.MILLISECONDS));
+                    // fewer events than connections means that some event accepted more than one
+                    assertTrue("Accepts were not batched", server.acceptEvents.get() < count);
+                } finally {
+                    for (Socket socket : sockets) {
+                        IoUtils.safeClose(socket);
+                    }
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                latch.countDown();
+                IoUtils.safeClose(channel);
+            }
+        }, 8, 1, OptionMap.EMPTY, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    public void testMultiAcceptor() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testMultiAcceptor");
+        final int count = 20;
+        final CountDownLatch latch = new CountDownLatch(count);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                final Socket[] sockets = new Socket[count];
+                try {
+                    // the options reach the acceptors
+                    assertEquals(count * 2, server.channel.getOption(Options.CONNECTION_HIGH_WATER).intValue());
+                    assertEquals(count, server.channel.getOption(Options.CONNECTION_LOW_WATER).intValue());
+                    server.channel.resumeAccepts();
+                    for (int i = 0; i < count; i ++) {
+                        sockets[i] = connect();
+                    }
+                    assertTrue("Accept timed out", latch.await(2000L, TimeUnit.MILLISECONDS));
+                } finally {
+                    for (Socket socket : sockets) {
+                        IoUtils.safeClose(socket);
+                    }
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                latch.countDown();
+                IoUtils.safeClose(channel);
+            }
+        }, 1, 2, OptionMap.EMPTY, OptionMap.builder().set(Options.REUSE_ADDRESSES, true).set(Options.CONNECTION_HIGH_WATER, count * 2).set(Options.CONNECTION_LOW_WATER, count).getMap());
+        threadFactory.await();
+    }
+
+    public void testMultiAcceptorClose() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testMultiAcceptorClose");
+        final AtomicInteger closeEvents = new AtomicInteger();
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.getCloseSetter().set(new ChannelListener<Channel>() {
+                    public void handleEvent(final Channel channel) {
+                        closeEvents.incrementAndGet();
+                    }
+                });
+                server.channel.close();
+                assertFalse(server.channel.isOpen());
+                server.channel.close();
+                assertEquals(1, closeEvents.get());
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                IoUtils.safeClose(channel);
+            }
+        }, 1, 2, OptionMap.EMPTY, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        assertEquals(1, closeEvents.get());
+        threadFactory.await();
+    }
+
+    public void testConnectionWaterMarks() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testConnectionWaterMarks");
+        final Queue<ConnectedStreamChannel> accepted = new ConcurrentLinkedQueue<ConnectedStreamChannel>();
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                final Socket[] sockets = new Socket[3];
+                try {
+                    for (int i = 0; i < sockets.length; i ++) {
+                        sockets[i] = connect();
+                    }
+                    for (int i = 0; accepted.size() < 2 && i < 20; i ++) {
+                        Thread.sleep(100L);
+                    }
+                    assertEquals(2, accepted.size());
+                    // the third connection waits in the backlog
+                    Thread.sleep(200L);
+                    assertEquals(2, accepted.size());
+                    assertEquals(2, server.channel.getOption(Options.CONNECTION_COUNT).intValue());
+                    // the repeated accepts at the high water mark count as a single limit
+                    assertEquals(1L, server.channel.getOption(Options.CONNECTION_LIMITED_COUNT).longValue());
+                    accepted.peek().close();
+                    for (int i = 0; accepted.size() < 3 && i < 20; i ++) {
+                        Thread.sleep(100L);
+                    }
+                    assertEquals("Accepts were not resumed", 3, accepted.size());
+                    assertEquals(2, server.channel.getOption(Options.CONNECTION_COUNT).intValue());
+                    assertEquals(2L, server.channel.getOption(Options.CONNECTION_LIMITED_COUNT).longValue());
+                } finally {
+                    for (ConnectedStreamChannel channel : accepted) {
+                        IoUtils.safeClose(channel);
+                    }
+                    for (Socket socket : sockets) {
+                        IoUtils.safeClose(socket);
+                    }
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                accepted.add(channel);
+            }
+        }, 4, 1, OptionMap.EMPTY, OptionMap.builder().set(Options.REUSE_ADDRESSES, true).set(Options.BACKLOG, 10).set(Options.CONNECTION_HIGH_WATER, 2).set(Options.CONNECTION_LOW_WATER, 2).getMap());
+        threadFactory.await();
+    }
+
+    public void testCloseWhileAcceptsThrottled() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testCloseWhileAcceptsThrottled");
+        final int count = 200;
+        final CountDownLatch latch = new CountDownLatch(count);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                final Socket[] sockets = new Socket[count];
+                try {
+                    server.channel.resumeAccepts();
+                    for (int i = 0; i < count; i ++) {
+                        sockets[i] = connect();
+                        sockets[i].getOutputStream().write(i);
+                    }
+                    assertTrue("Accepts stalled", latch.await(5000L, TimeUnit.MILLISECONDS));
+                    assertEquals(0, server.channel.getOption(Options.CONNECTION_COUNT).intValue());
+                } finally {
+                    for (Socket socket : sockets) {
+                        IoUtils.safeClose(socket);
+                    }
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                channel.getReadSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+                    public void handleEvent(final ConnectedStreamChannel channel) {
+                        // closing on the read thread releases a connection slot, which may resume accepts
+                        IoUtils.safeClose(channel);
+                        latch.countDown();
+                    }
+                });
+                channel.resumeReads();
+            }
+        }, 4, 1, OptionMap.EMPTY, OptionMap.builder().set(Options.REUSE_ADDRESSES, true).set(Options.BACKLOG, count).set(Options.CONNECTION_HIGH_WATER, 2).set(Options.CONNECTION_LOW_WATER, 1).getMap());
+        threadFactory.await();
+    }
+
+    public void testCorkedWrites() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testCorkedWrites");
+        final int count = 100;
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicInteger writeResults = new AtomicInteger();
+        final AtomicBoolean writeFailed = new AtomicBoolean();
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.setSoTimeout(2000);
+                    final InputStream input = socket.getInputStream();
+                    for (int i = 0; i < count; i ++) {
+                        assertEquals(i, input.read());
+                    }
+                    assertFalse(writeFailed.get());
+                    // every write was accepted in full
+                    assertEquals(count, writeResults.get());
+                    final ConnectedStreamChannel channel = serverChannel.get();
+                    // the count is updated just after the bytes are sent
+                    for (int i = 0; channel.getOption(Options.SAVED_WRITE_COUNT).longValue() == 0L && i < 20; i ++) {
+                        Thread.sleep(50L);
+                    }
+                    assertEquals(count - 1, channel.getOption(Options.SAVED_WRITE_COUNT).longValue());
+                    IoUtils.safeClose(channel);
+                    assertEquals(-1, input.read());
+                } finally {
+                    socket.close();
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                try {
+                    channel.setOption(Options.CORK, Boolean.TRUE);
+                } catch (IOException e) {
+                    log.errorf(e, "Failed to cork channel");
+                    IoUtils.safeClose(channel);
+                    return;
+                }
+                serverChannel.set(channel);
+                channel.getWriteSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+                    public void handleEvent(final ConnectedStreamChannel channel) {
+                        // many small writes and no flush; the write thread sends them once this returns
+                        channel.suspendWrites();
+                        try {
+                            for (int i = 0; i < count; i ++) {
+                                writeResults.addAndGet(channel.write(ByteBuffer.wrap(new byte[] { (byte) i })));
+                            }
+                        } catch (IOException e) {
+                            log.errorf(e, "Server write failed");
+                            writeFailed.set(true);
+                            IoUtils.safeClose(channel);
+                        }
+                    }
+                });
+                channel.resumeWrites();
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    public void testCorkedClose() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testCorkedClose");
+        final byte[] message = "corked message".getBytes("US-ASCII");
+        final AtomicInteger writeResult = new AtomicInteger();
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.setSoTimeout(2000);
+                    final DataInputStream input = new DataInputStream(socket.getInputStream());
+                    final byte[] received = new byte[message.length];
+                    input.readFully(received);
+                    assertTrue(Arrays.equals(message, received));
+                    assertEquals(-1, input.read());
+                    assertEquals(message.length, writeResult.get());
+                } finally {
+                    socket.close();
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                try {
+                    channel.setOption(Options.CORK, Boolean.TRUE);
+                    // buffered, and closed without a flush
+                    writeResult.set(channel.write(ByteBuffer.wrap(message)));
+                    channel.close();
+                } catch (IOException e) {
+                    log.errorf(e, "Failed to write corked channel");
+                    IoUtils.safeClose(channel);
+                }
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    public void testSendFile() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testSendFile");
+        final byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(0L).nextBytes(content);
+        final File file = File.createTempFile("xnio-test", ".bin");
+        file.deleteOnExit();
+        final FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content);
+        } finally {
+            fos.close();
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final FileChannel fileChannel = raf.getChannel();
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicReference<IoFuture<Long>> futureReference = new AtomicReference<IoFuture<Long>>();
+        try {
+            doServerTest(new ServerTestBody() {
+                public void run(final TestServer server) throws Exception {
+                    server.channel.resumeAccepts();
+                    final Socket socket = connect();
+                    try {
+                        socket.setSoTimeout(5000);
+                        final DataInputStream input = new DataInputStream(socket.getInputStream());
+                        final byte[] received = new byte[content.length];
+                        input.readFully(received);
+                        assertTrue(Arrays.equals(content, received));
+                        final IoFuture<Long> future = futureReference.get();
+                        assertEquals(IoFuture.Status.DONE, future.await(2000L, TimeUnit.MILLISECONDS));
+                        assertEquals(content.length, future.get().longValue());
+                        IoUtils.safeClose(serverChannel.get());
+                        assertEquals(-1, input.read());
+                    } finally {
+                        socket.close();
+                    }
+                }
+            }, new ChannelListener<ConnectedStreamChannel>() {
+                public void handleEvent(final ConnectedStreamChannel channel) {
+                    serverChannel.set(channel);
+                    // ask for more than there is, to check that the transfer stops at the end of the file
+                    futureReference.set(Channels.sendFile(channel, fileChannel, 0L, content.length + 100L));
+                }
+            }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        } finally {
+            raf.close();
+            file.delete();
+        }
+        threadFactory.await();
+    }
+
+    public void testReceiveToFile() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testReceiveToFile");
+        final byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random(0L).nextBytes(content);
+        final File file = File.createTempFile("xnio-test", ".bin");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final FileChannel fileChannel = raf.getChannel();
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final AtomicReference<IoFuture<Long>> futureReference = new AtomicReference<IoFuture<Long>>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            doServerTest(new ServerTestBody() {
+                public void run(final TestServer server) throws Exception {
+                    server.channel.resumeAccepts();
+                    final Socket socket = connect();
+                    try {
+                        socket.getOutputStream().write(content);
+                        socket.shutdownOutput();
+                        assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                        final IoFuture<Long> future = futureReference.get();
+                        assertEquals(IoFuture.Status.DONE, future.await(5000L, TimeUnit.MILLISECONDS));
+                        assertEquals(content.length, future.get().longValue());
+                        assertEquals(content.length, fileChannel.size());
+                        final byte[] received = new byte[content.length];
+                        raf.seek(0L);
+                        raf.readFully(received);
+                        assertTrue(Arrays.equals(content, received));
+                    } finally {
+                        socket.close();
+                        IoUtils.safeClose(serverChannel.get());
+                    }
+                }
+            }, new ChannelListener<ConnectedStreamChannel>() {
+                public void handleEvent(final ConnectedStreamChannel channel) {
+                    serverChannel.set(channel);
+                    // ask for more than will be sent, to check that the transfer stops at the end of the stream
+                    futureReference.set(Channels.receiveToFile(channel, fileChannel, 0L, content.length + 100L, true));
+                    latch.countDown();
+                }
+            }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        } finally {
+            raf.close();
+            file.delete();
+        }
+        threadFactory.await();
+    }
+
+    public void testFileTransferCancelWithoutThread() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testFileTransferCancelWithoutThread");
+        final File file = File.createTempFile("xnio-test", ".bin");
+        file.deleteOnExit();
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final FileChannel fileChannel = raf.getChannel();
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            doServerTest(new ServerTestBody() {
+                public void run(final TestServer server) throws Exception {
+                    server.channel.resumeAccepts();
+                    final Socket socket = connect();
+                    try {
+                        assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                        final ConnectedStreamChannel channel = serverChannel.get();
+                        // with no channel thread, no event will ever run the transfers, so cancel must finish them
+                        channel.setWriteThread(null);
+                        channel.setReadThread(null);
+                        final IoFuture<Long> sendFuture = Channels.sendFile(channel, fileChannel, 0L, 100L);
+                        sendFuture.cancel();
+                        assertEquals(IoFuture.Status.CANCELLED, sendFuture.await(2000L, TimeUnit.MILLISECONDS));
+                        final IoFuture<Long> receiveFuture = Channels.receiveToFile(channel, fileChannel, 0L, 100L);
+                        receiveFuture.cancel();
+                        assertEquals(IoFuture.Status.CANCELLED, receiveFuture.await(2000L, TimeUnit.MILLISECONDS));
+                    } finally {
+                        socket.close();
+                        IoUtils.safeClose(serverChannel.get());
+                    }
+                }
+            }, new ChannelListener<ConnectedStreamChannel>() {
+                public void handleEvent(final ConnectedStreamChannel channel) {
+                    serverChannel.set(channel);
+                    latch.countDown();
+                }
+            }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        } finally {
+            raf.close();
+            file.delete();
+        }
+        threadFactory.await();
+    }
+
+    public void testConnectionPool() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testConnectionPool");
+        final Queue<ConnectedStreamChannel> serverChannels = new ConcurrentLinkedQueue<ConnectedStreamChannel>();
+        final Xnio xnio = Xnio.getInstance("nio", NioTcpTestCase.class.getClassLoader());
+        final ConnectionChannelThread connectionChannelThread = xnio.createConnectionChannelThread(threadFactory);
+        try {
+            doServerTest(new ServerTestBody() {
+                public void run(final TestServer server) throws Exception {
+                    server.channel.resumeAccepts();
+                    final InetSocketAddress address = new InetSocketAddress(Inet4Address.getByAddress(new byte[] { 127, 0, 0, 1 }), SERVER_PORT);
+                    final StreamConnectionPool pool = new StreamConnectionPool(xnio.createStreamConnector(new InetSocketAddress(0), connectionChannelThread, server.readThread, server.writeThread, OptionMap.EMPTY), 1, 300L);
+                    try {
+                        final ConnectedStreamChannel first = pool.acquire(address).get();
+                        assertEquals(0L, pool.getHitCount());
+                        assertEquals(1L, pool.getMissCount());
+                        // the limit of one connection per host makes the second request wait
+                        final IoFuture<ConnectedStreamChannel> second = pool.acquire(address);
+                        assertEquals(IoFuture.Status.WAITING, second.await(100L, TimeUnit.MILLISECONDS));
+                        pool.release(first);
+                        assertSame(first, second.get());
+                        assertEquals(1L, pool.getHitCount());
+                        pool.release(first);
+                        assertEquals(1, pool.getIdleCount(address));
+                        assertSame(first, pool.acquire(address).get());
+                        assertEquals(2L, pool.getHitCount());
+                        pool.release(first);
+                        // the idle connection is evicted after the timeout
+                        for (int i = 0; i < 20 && pool.getEvictionCount() == 0L; i ++) {
+                            Thread.sleep(100L);
+                        }
+                        assertEquals(1L, pool.getEvictionCount());
+                        assertEquals(0, pool.getIdleCount(address));
+                        assertFalse(first.isOpen());
+                        final ConnectedStreamChannel third = pool.acquire(address).get();
+                        assertNotSame(first, third);
+                        assertEquals(2L, pool.getMissCount());
+                        pool.release(third);
+                    } finally {
+                        pool.close();
+                        ConnectedStreamChannel channel;
+                        while ((channel = serverChannels.poll()) != null) {
+                            IoUtils.safeClose(channel);
+                        }
+                    }
+                }
+            }, new ChannelListener<ConnectedStreamChannel>() {
+                public void handleEvent(final ConnectedStreamChannel channel) {
+                    serverChannels.add(channel);
+                }
+            }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        } finally {
+            connectionChannelThread.shutdown();
+        }
+        connectionChannelThread.awaitTermination();
+        threadFactory.await();
+    }
+
+    public void testPooledRead() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testPooledRead");
+        final byte[] content = new byte[10000];
+        new Random(0L).nextBytes(content);
+        final ByteBufferSlicePool smallPool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 16 * 16);
+        final ByteBufferSlicePool largePool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 1024, 1024 * 16);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final AtomicInteger largestRead = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.getOutputStream().write(content);
+                } finally {
+                    socket.close();
+                }
+                assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                assertTrue(Arrays.equals(content, received.toByteArray()));
+                // the burst of data outgrows the small buffers
+                assertTrue(largestRead.get() > 16);
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                channel.getReadSetter().set(ChannelListeners.<ConnectedStreamChannel>pooledReadListener(smallPool, largePool, new PooledReadHandler<ConnectedStreamChannel>() {
+                    public void handleRead(final ConnectedStreamChannel channel, final Pooled<ByteBuffer> buffer) {
+                        try {
+                            final ByteBuffer resource = buffer.getResource();
+                            final int size = resource.remaining();
+                            if (size > largestRead.get()) {
+                                largestRead.set(size);
+                            }
+                            received.write(Buffers.take(resource));
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        } finally {
+                            buffer.free();
+                        }
+                    }
+
+                    public void handleEof(final ConnectedStreamChannel channel) {
+                        IoUtils.safeClose(channel);
+                        latch.countDown();
+                    }
+
+                    public void handleException(final ConnectedStreamChannel channel, final IOException exception) {
+                        IoUtils.safeClose(channel);
+                    }
+                }));
+                channel.resumeReads();
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testPooledReadSuspend() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testPooledReadSuspend");
+        final byte[] content = new byte[10000];
+        new Random(0L).nextBytes(content);
+        final ByteBufferSlicePool pool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 16, 16 * 16);
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final CountDownLatch firstRead = new CountDownLatch(1);
+        final CountDownLatch latch = new CountDownLatch(1);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.getOutputStream().write(content);
+                } finally {
+                    socket.close();
+                }
+                assertTrue(firstRead.await(2000L, TimeUnit.MILLISECONDS));
+                // every read fills the small buffer, so only the suspension stops the listener from reading on
+                Thread.sleep(100L);
+                assertEquals(1, reads.get());
+                serverChannel.get().resumeReads();
+                assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                assertTrue(Arrays.equals(content, received.toByteArray()));
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                serverChannel.set(channel);
+                channel.getReadSetter().set(ChannelListeners.<ConnectedStreamChannel>pooledReadListener(pool, new PooledReadHandler<ConnectedStreamChannel>() {
+                    public void handleRead(final ConnectedStreamChannel channel, final Pooled<ByteBuffer> buffer) {
+                        try {
+                            received.write(Buffers.take(buffer.getResource()));
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        } finally {
+                            buffer.free();
+                        }
+                        if (reads.incrementAndGet() == 1) {
+                            channel.suspendReads();
+                            firstRead.countDown();
+                        }
+                    }
+
+                    public void handleEof(final ConnectedStreamChannel channel) {
+                        IoUtils.safeClose(channel);
+                        latch.countDown();
+                    }
+
+                    public void handleException(final ConnectedStreamChannel channel, final IOException exception) {
+                        IoUtils.safeClose(channel);
+                    }
+                }));
+                channel.resumeReads();
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Pooled<ByteBuffer>[] message(final Pooled<ByteBuffer> header, final Pooled<ByteBuffer> body) {
+        return new Pooled[] { header, body };
+    }
+
+    public void testWriteQueue() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testWriteQueue");
+        final ByteBufferSlicePool pool = new ByteBufferSlicePool(BufferAllocator.BYTE_BUFFER_ALLOCATOR, 1024, 1024 * 16);
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.setSoTimeout(5000);
+                    assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                    final StreamWriteQueue writeQueue = new StreamWriteQueue(serverChannel.get(), 1L << 20);
+                    final List<IoFuture<Void>> futures = new ArrayList<IoFuture<Void>>();
+                    final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                    for (int i = 0; i < 200; i ++) {
+                        final Pooled<ByteBuffer> header = pool.allocate();
+                        final Pooled<ByteBuffer> body = pool.allocate();
+                        header.getResource().putInt(i).flip();
+                        for (int j = 0; j < 1000; j ++) {
+                            body.getResource().put((byte) (i + j));
+                        }
+                        body.getResource().flip();
+                        expected.write(Buffers.take(header.getResource().duplicate()));
+                        expected.write(Buffers.take(body.getResource().duplicate()));
+                        if ((i & 1) == 0) {
+                            futures.add(writeQueue.enqueueWrite(header));
+                            futures.add(writeQueue.enqueueWrite(body));
+                        } else {
+                            futures.add(writeQueue.enqueueWrite(message(header, body)));
+                        }
+                    }
+                    final byte[] received = new byte[expected.size()];
+                    new DataInputStream(socket.getInputStream()).readFully(received);
+                    assertTrue(Arrays.equals(expected.toByteArray(), received));
+                    for (IoFuture<Void> future : futures) {
+                        assertEquals(IoFuture.Status.DONE, future.await(2000L, TimeUnit.MILLISECONDS));
+                    }
+                    assertEquals(0L, writeQueue.getQueuedBytes());
+                } finally {
+                    socket.close();
+                    IoUtils.safeClose(serverChannel.get());
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                serverChannel.set(channel);
+                latch.countDown();
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    private static Pooled<ByteBuffer> countingBuffer(final int size, final AtomicInteger frees) {
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        return new Pooled<ByteBuffer>() {
+            public void discard() {
+                frees.incrementAndGet();
+            }
+
+            public void free() {
+                frees.incrementAndGet();
+            }
+
+            public ByteBuffer getResource() {
+                return buffer;
+            }
+        };
+    }
+
+    public void testWriteQueueClose() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testWriteQueueClose");
+        final int count = 64;
+        final AtomicReference<ConnectedStreamChannel> serverChannel = new AtomicReference<ConnectedStreamChannel>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                    final ConnectedStreamChannel channel = serverChannel.get();
+                    final StreamWriteQueue writeQueue = new StreamWriteQueue(channel, 1L << 24);
+                    final AtomicInteger closeEvents = new AtomicInteger();
+                    writeQueue.getCloseSetter().set(new ChannelListener<StreamSinkChannel>() {
+                        public void handleEvent(final StreamSinkChannel channel) {
+                            closeEvents.incrementAndGet();
+                        }
+                    });
+                    final AtomicInteger frees = new AtomicInteger();
+                    final List<IoFuture<Void>> futures = new ArrayList<IoFuture<Void>>();
+                    // the peer never reads, so most of this stays queued
+                    for (int i = 0; i < count; i ++) {
+                        futures.add(writeQueue.enqueueWrite(countingBuffer(65536, frees)));
+                    }
+                    Thread.sleep(200L);
+                    assertTrue(writeQueue.getQueuedBytes() > 0L);
+                    channel.close();
+                    int failed = 0;
+                    for (IoFuture<Void> future : futures) {
+                        final IoFuture.Status status = future.await(2000L, TimeUnit.MILLISECONDS);
+                        if (status == IoFuture.Status.FAILED) {
+                            assertTrue(future.getException() instanceof ClosedChannelException);
+                            failed++;
+                        } else {
+                            assertEquals(IoFuture.Status.DONE, status);
+                        }
+                    }
+                    assertTrue(failed > 0);
+                    assertEquals(count, frees.get());
+                    assertEquals(0L, writeQueue.getQueuedBytes());
+                    assertEquals(1, closeEvents.get());
+                    // refused outright once the channel is closed
+                    final IoFuture<Void> late = writeQueue.enqueueWrite(countingBuffer(16, frees));
+                    assertEquals(IoFuture.Status.FAILED, late.getStatus());
+                    assertTrue(late.getException() instanceof ClosedChannelException);
+                    assertEquals(count + 1, frees.get());
+                } finally {
+                    socket.close();
+                    IoUtils.safeClose(serverChannel.get());
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                serverChannel.set(channel);
+                latch.countDown();
+            }
+        }, OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
+
+    public void testEventQuota() throws Exception {
+        threadFactory.clear();
+        log.info("Test: testEventQuota");
+        final List<Boolean> results = new ArrayList<Boolean>();
+        final CountDownLatch latch = new CountDownLatch(2);
+        doServerTest(new ServerTestBody() {
+            public void run(final TestServer server) throws Exception {
+                assertTrue(server.readThread.consumeQuota(1000L));
+                server.channel.resumeAccepts();
+                final Socket socket = connect();
+                try {
+                    socket.getOutputStream().write(1);
+                } finally {
+                    socket.close();
+                }
+                assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+                synchronized (results) {
+                    assertEquals(Arrays.asList(Boolean.TRUE, Boolean.FALSE, Boolean.TRUE, Boolean.FALSE), results.subList(0, 4));
+                }
+            }
+        }, new ChannelListener<ConnectedStreamChannel>() {
+            public void handleEvent(final ConnectedStreamChannel channel) {
+                channel.getReadSetter().set(new ChannelListener<ConnectedStreamChannel>() {
+                    public void handleEvent(final ConnectedStreamChannel channel) {
+                        final ReadChannelThread thread = channel.getReadThread();
+                        // the quota is renewed for each event
+                        synchronized (results) {
+                            results.add(Boolean.valueOf(thread.consumeQuota(60L)));
+                            results.add(Boolean.valueOf(thread.consumeQuota(60L)));
+                        }
+                        try {
+                            if (channel.read(ByteBuffer.allocate(1)) == -1) {
+                                IoUtils.safeClose(channel);
+                            }
+                        } catch (IOException e) {
+                            IoUtils.safeClose(channel);
+                        }
+                        latch.countDown();
+                    }
+                });
+                channel.resumeReads();
+            }
+        }, 1, 1, OptionMap.create(Options.EVENT_BYTE_QUOTA, Long.valueOf(100L)), OptionMap.create(Options.REUSE_ADDRESSES, Boolean.TRUE));
+        threadFactory.await();
+    }
 }
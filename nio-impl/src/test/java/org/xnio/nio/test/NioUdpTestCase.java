@@ -23,11 +23,18 @@
 package org.xnio.nio.test;
 
 import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.Inet4Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -281,6 +288,234 @@ public final class NioUdpTestCase extends TestCase {
         threadFactory.await();
     }
     
+    public void testScatterGatherEcho() throws Exception {
+        log.info("Test: testScatterGatherEcho");
+        final Xnio xnio = Xnio.getInstance("nio");
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final MulticastMessageChannel server = xnio.createUdpServer(SERVER_SOCKET_ADDRESS, readChannelThread, writeChannelThread, OptionMap.EMPTY);
+        try {
+            server.getReadSetter().set(new ChannelListener<MulticastMessageChannel>() {
+                public void handleEvent(final MulticastMessageChannel channel) {
+                    try {
+                        final ByteBuffer[] buffers = new ByteBuffer[] { ByteBuffer.allocate(3), ByteBuffer.allocate(0), ByteBuffer.allocate(100) };
+                        final SocketAddressBuffer addressBuffer = new SocketAddressBuffer();
+                        if (channel.receiveFrom(addressBuffer, buffers) == 0L) {
+                            return;
+                        }
+                        // echo the datagram back, reversing the two parts
+                        Buffers.flip(buffers[0]);
+                        Buffers.flip(buffers[2]);
+                        channel.sendTo(addressBuffer.getSourceAddress(), new ByteBuffer[] { buffers[2], buffers[1], buffers[0] });
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            server.resumeReads();
+            final DatagramSocket socket = new DatagramSocket(CLIENT_SOCKET_ADDRESS);
+            try {
+                socket.setSoTimeout(2000);
+                final byte[] payload = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+                socket.send(new DatagramPacket(payload, payload.length, SERVER_SOCKET_ADDRESS));
+                final DatagramPacket reply = new DatagramPacket(new byte[100], 100);
+                socket.receive(reply);
+                assertTrue(Arrays.equals(new byte[] { 4, 5, 6, 7, 8, 1, 2, 3 }, Arrays.copyOf(reply.getData(), reply.getLength())));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            IoUtils.safeClose(server);
+            readChannelThread.shutdown();
+            writeChannelThread.shutdown();
+        }
+        readChannelThread.awaitTermination();
+        writeChannelThread.awaitTermination();
+        threadFactory.await();
+    }
+
+    public void testBatchEcho() throws Exception {
+        log.info("Test: testBatchEcho");
+        final Xnio xnio = Xnio.getInstance("nio");
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final MulticastMessageChannel server = xnio.createUdpServer(SERVER_SOCKET_ADDRESS, readChannelThread, writeChannelThread, OptionMap.EMPTY);
+        try {
+            server.getReadSetter().set(new ChannelListener<MulticastMessageChannel>() {
+                private final ByteBuffer[] buffers = new ByteBuffer[8];
+                private final SocketAddressBuffer[] addressBuffers = new SocketAddressBuffer[8];
+                private final SocketAddress[] targets = new SocketAddress[8];
+
+                {
+                    for (int i = 0; i < 8; i ++) {
+                        buffers[i] = ByteBuffer.allocate(16);
+                        addressBuffers[i] = new SocketAddressBuffer();
+                    }
+                }
+
+                public void handleEvent(final MulticastMessageChannel channel) {
+                    try {
+                        for (ByteBuffer buffer : buffers) {
+                            buffer.clear();
+                        }
+                        final int cnt = channel.receiveMany(addressBuffers, buffers, 0, 8);
+                        for (int i = 0; i < cnt; i ++) {
+                            buffers[i].flip();
+                            targets[i] = addressBuffers[i].getSourceAddress();
+                        }
+                        // echo everything received
+                        int sent = 0;
+                        while (sent < cnt) {
+                            sent += channel.sendMany(targets, buffers, sent, cnt - sent);
+                        }
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            server.resumeReads();
+            final DatagramSocket socket = new DatagramSocket(CLIENT_SOCKET_ADDRESS);
+            try {
+                socket.setSoTimeout(2000);
+                for (int i = 0; i < 20; i ++) {
+                    socket.send(new DatagramPacket(new byte[] { (byte) i }, 1, SERVER_SOCKET_ADDRESS));
+                }
+                final boolean[] seen = new boolean[20];
+                for (int i = 0; i < 20; i ++) {
+                    final DatagramPacket reply = new DatagramPacket(new byte[16], 16);
+                    socket.receive(reply);
+                    assertEquals(1, reply.getLength());
+                    seen[reply.getData()[0]] = true;
+                }
+                for (boolean b : seen) {
+                    assertTrue(b);
+                }
+            } finally {
+                socket.close();
+            }
+        } finally {
+            IoUtils.safeClose(server);
+            readChannelThread.shutdown();
+            writeChannelThread.shutdown();
+        }
+        readChannelThread.awaitTermination();
+        writeChannelThread.awaitTermination();
+        threadFactory.await();
+    }
+
+    public void testMulticastJoin() throws Exception {
+        log.info("Test: testMulticastJoin");
+        final InetAddress group = InetAddress.getByName("239.255.43.21");
+        final Xnio xnio = Xnio.getInstance("nio");
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean received = new AtomicBoolean();
+        final MulticastMessageChannel server = xnio.createUdpServer(new InetSocketAddress(SERVER_PORT), readChannelThread, writeChannelThread, OptionMap.create(Options.MULTICAST, Boolean.TRUE));
+        try {
+            // the multicast channel is served by the channel threads
+            assertTrue(server.getReadThread() == readChannelThread);
+            final MulticastMessageChannel.Key key;
+            try {
+                key = server.join(group, null);
+            } catch (IOException e) {
+                log.infof("Skipping multicast test, no multicast support: %s", e);
+                return;
+            }
+            assertTrue(key.isOpen());
+            server.getReadSetter().set(new ChannelListener<MulticastMessageChannel>() {
+                public void handleEvent(final MulticastMessageChannel channel) {
+                    try {
+                        final ByteBuffer buffer = ByteBuffer.allocate(16);
+                        if (channel.receiveFrom(null, buffer) > 0) {
+                            received.set(buffer.get(0) == 42);
+                            latch.countDown();
+                        }
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            server.resumeReads();
+            final MulticastSocket socket = new MulticastSocket();
+            try {
+                socket.setNetworkInterface(key.getNetworkInterface());
+                socket.send(new DatagramPacket(new byte[] { 42 }, 1, group, SERVER_PORT));
+            } finally {
+                socket.close();
+            }
+            if (latch.await(1000L, TimeUnit.MILLISECONDS)) {
+                assertTrue(received.get());
+            } else {
+                log.infof("No multicast datagram received on %s; multicast routing may be unavailable", key.getNetworkInterface());
+            }
+            key.close();
+            assertFalse(key.isOpen());
+        } finally {
+            IoUtils.safeClose(server);
+            readChannelThread.shutdown();
+            writeChannelThread.shutdown();
+        }
+        readChannelThread.awaitTermination();
+        writeChannelThread.awaitTermination();
+        threadFactory.await();
+    }
+
+    public void testReceiveAddressCache() throws Exception {
+        log.info("Test: testReceiveAddressCache");
+        final Xnio xnio = Xnio.getInstance("nio");
+        final ReadChannelThread readChannelThread = xnio.createReadChannelThread(threadFactory);
+        final WriteChannelThread writeChannelThread = xnio.createWriteChannelThread(threadFactory);
+        final List<SocketAddress> sources = new ArrayList<SocketAddress>();
+        final CountDownLatch latch = new CountDownLatch(5);
+        final MulticastMessageChannel server = xnio.createUdpServer(SERVER_SOCKET_ADDRESS, readChannelThread, writeChannelThread, OptionMap.create(Options.RECEIVE_ADDRESS_CACHE, Integer.valueOf(8)));
+        try {
+            assertEquals(Integer.valueOf(8), server.getOption(Options.RECEIVE_ADDRESS_CACHE));
+            server.getReadSetter().set(new ChannelListener<MulticastMessageChannel>() {
+                private final SocketAddressBuffer addressBuffer = new SocketAddressBuffer();
+                private final ByteBuffer buffer = ByteBuffer.allocate(16);
+
+                public void handleEvent(final MulticastMessageChannel channel) {
+                    try {
+                        buffer.clear();
+                        while (channel.receiveFrom(addressBuffer, buffer) > 0) {
+                            synchronized (sources) {
+                                sources.add(addressBuffer.getSourceAddress());
+                            }
+                            buffer.clear();
+                            latch.countDown();
+                        }
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            server.resumeReads();
+            final DatagramSocket socket = new DatagramSocket(CLIENT_SOCKET_ADDRESS);
+            try {
+                for (int i = 0; i < 5; i ++) {
+                    socket.send(new DatagramPacket(new byte[] { (byte) i }, 1, SERVER_SOCKET_ADDRESS));
+                }
+            } finally {
+                socket.close();
+            }
+            assertTrue(latch.await(2000L, TimeUnit.MILLISECONDS));
+            synchronized (sources) {
+                for (SocketAddress source : sources) {
+                    assertSame(sources.get(0), source);
+                }
+            }
+            assertEquals(Long.valueOf(4L), server.getOption(Options.RECEIVE_ADDRESS_CACHE_HIT_COUNT));
+        } finally {
+            IoUtils.safeClose(server);
+            readChannelThread.shutdown();
+            writeChannelThread.shutdown();
+        }
+        readChannelThread.awaitTermination();
+        writeChannelThread.awaitTermination();
+        threadFactory.await();
+    }
+
     //TODO public void testJmxUdpProperties() throws Exception {}
     
 }